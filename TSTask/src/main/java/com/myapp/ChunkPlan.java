@@ -0,0 +1,210 @@
+package com.myapp;
+
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.GzipChunkSource;
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The sizes of the chunks and the threads and queues of the pipeline for a run. The plan is computed from
+ * the size of the input file, the maximum heap, the number of cores and the parse throughput observed
+ * on a sample of the file, each value can be overridden by the {@link FinderOptions}.
+ */
+public class ChunkPlan {
+
+    /**
+     * The bytes parsed at the beginning of the file to observe the parse throughput and the average line length
+     */
+    private static final long SAMPLE_BYTES = 4L * 1024 * 1024;
+
+    /**
+     * The time which a worker should spend on parsing a chunk, long enough to amortize the cost of a task
+     * and short enough to keep the workers balanced at the end of the file
+     */
+    private static final long TARGET_CHUNK_NANOS = 200_000_000L;
+
+    /**
+     * The minimum chunk size in bytes
+     */
+    private static final long MIN_CHUNK_BYTES = 1024L * 1024;
+
+    /**
+     * The maximum chunk size in bytes
+     */
+    private static final long MAX_CHUNK_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * The inflated chunk size of a compressed file, the parse throughput is not sampled on a compressed file
+     */
+    private static final long COMPRESSED_CHUNK_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * The ratio of the inflated size to the size of a compressed file, a low guess to split a small file
+     */
+    private static final int ESTIMATED_COMPRESSION_RATIO = 4;
+
+    /**
+     * The minimum number of chunks per worker, so a worker finishing early can take another chunk
+     */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /**
+     * The heap bytes of a parsed record in flight, the columnar record and its copy grouped by partition
+     */
+    private static final int HEAP_BYTES_PER_RECORD_IN_FLIGHT = 32;
+
+    /**
+     * The chunks in flight may use a quarter of the maximum heap
+     */
+    private static final int IN_FLIGHT_HEAP_DIVISOR = 4;
+
+    /**
+     * The maximum number of reader threads, mapping a chunk is cheap so more readers only add seeks
+     */
+    private static final int MAX_READER_THREADS = 2;
+
+    /**
+     *
+     */
+    private long chunkBytes;
+
+    /**
+     *
+     */
+    private int readerThreads;
+
+    /**
+     *
+     */
+    private int workerThreads;
+
+    /**
+     *
+     */
+    private int writerThreads;
+
+    /**
+     *
+     */
+    private int queueCapacity;
+
+    public ChunkPlan(long chunkBytes, int readerThreads, int workerThreads, int writerThreads, int queueCapacity) {
+        this.chunkBytes = chunkBytes;
+        this.readerThreads = readerThreads;
+        this.workerThreads = workerThreads;
+        this.writerThreads = writerThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Plan a run over the input file, a value of the options greater than 0 is kept as it is.
+     * @param inputPath
+     * @param options
+     * @return
+     * @throws IOException
+     */
+    public static ChunkPlan plan(Path inputPath, FinderOptions options) throws IOException {
+        return plan(Collections.singletonList(inputPath), options);
+    }
+
+    /**
+     * Plan a run over the input files, the parse throughput is sampled on the largest plain file
+     * and the chunks are sized for the total size of the files.
+     * @param inputPaths
+     * @param options
+     * @return
+     * @throws IOException
+     */
+    public static ChunkPlan plan(List<Path> inputPaths, FinderOptions options) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int workerThreads = options.getThreadCount() > 0 ? options.getThreadCount() : cores;
+        int readerThreads = options.getReaderThreadCount() > 0 ?
+                options.getReaderThreadCount() : Math.max(1, Math.min(MAX_READER_THREADS, cores / 2));
+        int writerThreads = Math.max(1, workerThreads / 2);
+        int queueCapacity = options.getQueueCapacity() > 0 ? options.getQueueCapacity() : workerThreads;
+        if(options.getChunkBytes() > 0) {
+            return new ChunkPlan(options.getChunkBytes(), readerThreads, workerThreads, writerThreads, queueCapacity);
+        }
+
+        //observe the parse throughput and the average line length on the first lines of a plain file
+        Path inputPath = null;
+        long fileSize = 0;
+        for(Path filePath : inputPaths) {
+            long size = Files.size(filePath);
+            fileSize += size;
+            if(!GzipChunkSource.isGzip(filePath) && (inputPath == null || size > Files.size(inputPath))) {
+                inputPath = filePath;
+            }
+        }
+        boolean compressed = inputPath == null;
+        RangeRead sample = compressed ? RangeRead.ofBytes(0, 0) : FileHelper.sampleByteRange(inputPath, SAMPLE_BYTES);
+        double bytesPerRecord = FileHelper.ESTIMATED_BYTES_PER_LINE;
+        long chunkBytes = compressed ? COMPRESSED_CHUNK_BYTES : MAX_CHUNK_BYTES;
+        if(sample.getLength() > 0) {
+            long sampleNanos = Long.MAX_VALUE;
+            long recordCount = 0;
+            //the first pass runs in the interpreter, keep the faster pass
+            for(int pass = 0; pass < 2; pass++) {
+                long startNanos = System.nanoTime();
+                recordCount = FileHelper.parseRecords(inputPath, sample, (phoneKey, activationDay, deactivationDay) -> { });
+                sampleNanos = Math.min(sampleNanos, Math.max(1, System.nanoTime() - startNanos));
+            }
+            bytesPerRecord = (double) sample.getLength() / Math.max(1, recordCount);
+            chunkBytes = (long) ((double) sample.getLength() * TARGET_CHUNK_NANOS / sampleNanos);
+        }
+
+        //split a small input into several chunks per worker, the size of a compressed input is a lower bound
+        chunkBytes = Math.min(chunkBytes, fileSize / ((long) workerThreads * CHUNKS_PER_WORKER)
+                * (compressed ? ESTIMATED_COMPRESSION_RATIO : 1));
+        chunkBytes = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, chunkBytes));
+
+        //keep the parsed chunks in flight, in the queues and in the stages, within a part of the heap
+        long inFlightHeapBytes = Runtime.getRuntime().maxMemory() / IN_FLIGHT_HEAP_DIVISOR;
+        double heapBytesPerChunkByte = HEAP_BYTES_PER_RECORD_IN_FLIGHT / bytesPerRecord;
+        long stageChunks = readerThreads + 2L * workerThreads + writerThreads;
+        if(options.getQueueCapacity() <= 0) {
+            long fittingChunks = (long) (inFlightHeapBytes / (chunkBytes * heapBytesPerChunkByte));
+            queueCapacity = (int) Math.max(1, Math.min(queueCapacity, (fittingChunks - stageChunks) / 3));
+        }
+        long inFlightChunks = stageChunks + 3L * queueCapacity;
+        chunkBytes = Math.min(chunkBytes, (long) (inFlightHeapBytes / (inFlightChunks * heapBytesPerChunkByte)));
+        chunkBytes = Math.max(MIN_CHUNK_BYTES, chunkBytes);
+        return new ChunkPlan(chunkBytes, readerThreads, workerThreads, writerThreads, queueCapacity);
+    }
+
+    public long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    public int getReaderThreads() {
+        return readerThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkPlan{" +
+                "chunkBytes=" + chunkBytes +
+                ", readerThreads=" + readerThreads +
+                ", workerThreads=" + workerThreads +
+                ", writerThreads=" + writerThreads +
+                ", queueCapacity=" + queueCapacity +
+                '}';
+    }
+}
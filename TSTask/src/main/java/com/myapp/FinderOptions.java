@@ -0,0 +1,340 @@
+package com.myapp;
+
+import com.myapp.cluster.ShardCoordinator;
+import com.myapp.engine.EngineMode;
+import com.myapp.engine.ExternalSortEngine;
+import com.myapp.engine.VirtualThreadRunner;
+
+/**
+ * The options to tune a run of the {@link RealActivationDateFinder} without recompiling.
+ * The sizes of the pipeline which are 0 are planned automatically, see {@link ChunkPlan}.
+ */
+public class FinderOptions {
+
+    /**
+     * The default number of hash partitions of the in memory engine
+     */
+    public static final int DEFAULT_PARTITION_COUNT = 256;
+
+    /**
+     * The default number of bucket files of the separation engine
+     */
+    public static final int DEFAULT_BUCKET_COUNT = 1024;
+
+    /**
+     * The mode of aggregating the records by phone number
+     */
+    private EngineMode engineMode = EngineMode.AUTO;
+
+    /**
+     * The heap bytes which the in memory engine may use, half of the maximum heap by default
+     */
+    private long heapBudgetBytes = Runtime.getRuntime().maxMemory() / 2;
+
+    /**
+     * Number of hash partitions of the in memory engine
+     */
+    private int partitionCount = DEFAULT_PARTITION_COUNT;
+
+    /**
+     * Number of bucket files which the separation engine hashes the phone numbers into
+     */
+    private int bucketCount = DEFAULT_BUCKET_COUNT;
+
+    /**
+     * The maximum number of sorted runs merged at once by the external sort engine
+     */
+    private int mergeFanIn = ExternalSortEngine.DEFAULT_MERGE_FAN_IN;
+
+    /**
+     * The size in bytes of a chunk of the input file read by one task, 0 to plan it automatically
+     */
+    private long chunkBytes = 0;
+
+    /**
+     * Number of threads of the reader stage of the pipeline, 0 to plan it automatically
+     */
+    private int readerThreadCount = 0;
+
+    /**
+     * Number of threads of the parser stage and of the aggregator stage of the pipeline,
+     * 0 to use the number of cores
+     */
+    private int threadCount = 0;
+
+    /**
+     * The capacity of each queue between the stages of the pipeline, 0 to plan it automatically
+     */
+    private int queueCapacity = 0;
+
+    /**
+     * The maximum number of buckets resolved at the same time on virtual threads by the separation engine,
+     * 0 to resolve them on the common pool. The virtual threads need a JDK 21 or newer at runtime, which is checked
+     * here once. They were meant to overlap many small blocking reads of a bucket, but a bucket is now read
+     * at once and then decoded and sorted, so each virtual thread mostly runs CPU-bound work, which the common pool
+     * already spreads over the cores.
+     */
+    private int virtualThreadConcurrency = 0;
+
+    /**
+     * Whether the results are written in ascending order of the phone numbers. The results of all phones are then
+     * kept in the heap until the end of the run, about 16 bytes per phone and up to half more while their arrays grow,
+     * so a run over many millions of phones needs a heap sized for them.
+     */
+    private boolean orderedOutput = false;
+
+    /**
+     * Whether the streaming mode falls back to the automatic mode when the input is not sorted by phone number,
+     * instead of failing
+     */
+    private boolean streamingFallback = true;
+
+    /**
+     * The state file of the phones which the incremental mode applies the input to
+     */
+    private String stateFile;
+
+    /**
+     * The interval of the progress line in seconds, 0 to print no progress
+     */
+    private int progressIntervalSeconds = 0;
+
+    /**
+     * The file which the summary of the metrics of the run is written to in JSON, null to write none
+     */
+    private String metricsFile;
+
+    /**
+     * The directory of the checkpoint of the separation, null to run without checkpoint
+     */
+    private String checkpointDirectory;
+
+    /**
+     * Whether to resume the interrupted run of the checkpoint directory instead of starting a new run
+     */
+    private boolean resume = false;
+
+    /**
+     * The port on which the coordinator of a sharded run waits for the workers, 0 to run in this process only
+     */
+    private int coordinatorPort = 0;
+
+    /**
+     * The address on which the coordinator of a sharded run listens, null for the loopback address
+     */
+    private String coordinatorAddress;
+
+    /**
+     * The time without any connected worker before a sharded run fails
+     */
+    private int workerTimeoutSeconds = (int) (ShardCoordinator.DEFAULT_NO_WORKER_TIMEOUT_MILLIS / 1000);
+
+    /**
+     * The directory shared by the coordinator and the workers of a sharded run, null to use the temporary directory
+     */
+    private String shuffleDirectory;
+
+    public EngineMode getEngineMode() {
+        return engineMode;
+    }
+
+    public void setEngineMode(EngineMode engineMode) {
+        this.engineMode = engineMode;
+    }
+
+    public long getHeapBudgetBytes() {
+        return heapBudgetBytes;
+    }
+
+    public void setHeapBudgetBytes(long heapBudgetBytes) {
+        this.heapBudgetBytes = heapBudgetBytes;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public void setPartitionCount(int partitionCount) {
+        if(partitionCount <= 0) {
+            throw new IllegalArgumentException("The partition count must be greater than 0");
+        }
+        this.partitionCount = partitionCount;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public void setBucketCount(int bucketCount) {
+        if(bucketCount <= 0) {
+            throw new IllegalArgumentException("The bucket count must be greater than 0");
+        }
+        this.bucketCount = bucketCount;
+    }
+
+    public int getMergeFanIn() {
+        return mergeFanIn;
+    }
+
+    public void setMergeFanIn(int mergeFanIn) {
+        if(mergeFanIn < 2) {
+            throw new IllegalArgumentException("The merge fan-in must be at least 2");
+        }
+        this.mergeFanIn = mergeFanIn;
+    }
+
+    public boolean isStreamingFallback() {
+        return streamingFallback;
+    }
+
+    public void setStreamingFallback(boolean streamingFallback) {
+        this.streamingFallback = streamingFallback;
+    }
+
+    public long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    public void setChunkBytes(long chunkBytes) {
+        if(chunkBytes < 0) {
+            throw new IllegalArgumentException("The chunk size must not be negative");
+        }
+        this.chunkBytes = chunkBytes;
+    }
+
+    public int getReaderThreadCount() {
+        return readerThreadCount;
+    }
+
+    public void setReaderThreadCount(int readerThreadCount) {
+        if(readerThreadCount < 0) {
+            throw new IllegalArgumentException("The reader thread count must not be negative");
+        }
+        this.readerThreadCount = readerThreadCount;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        if(threadCount < 0) {
+            throw new IllegalArgumentException("The thread count must not be negative");
+        }
+        this.threadCount = threadCount;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if(queueCapacity < 0) {
+            throw new IllegalArgumentException("The queue capacity must not be negative");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getVirtualThreadConcurrency() {
+        return virtualThreadConcurrency;
+    }
+
+    public void setVirtualThreadConcurrency(int virtualThreadConcurrency) {
+        if(virtualThreadConcurrency < 0) {
+            throw new IllegalArgumentException("The virtual thread concurrency must not be negative");
+        }
+        if(virtualThreadConcurrency > 0 && !VirtualThreadRunner.isAvailable()) {
+            throw new IllegalArgumentException("The virtual threads are not supported by the running JDK, JDK 21 or newer is required");
+        }
+        this.virtualThreadConcurrency = virtualThreadConcurrency;
+    }
+
+    public String getStateFile() {
+        return stateFile;
+    }
+
+    public void setStateFile(String stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    public boolean isOrderedOutput() {
+        return orderedOutput;
+    }
+
+    public void setOrderedOutput(boolean orderedOutput) {
+        this.orderedOutput = orderedOutput;
+    }
+
+    public int getProgressIntervalSeconds() {
+        return progressIntervalSeconds;
+    }
+
+    public void setProgressIntervalSeconds(int progressIntervalSeconds) {
+        if(progressIntervalSeconds < 0) {
+            throw new IllegalArgumentException("The progress interval must not be negative");
+        }
+        this.progressIntervalSeconds = progressIntervalSeconds;
+    }
+
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    public String getCheckpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    public void setCheckpointDirectory(String checkpointDirectory) {
+        this.checkpointDirectory = checkpointDirectory;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    public int getCoordinatorPort() {
+        return coordinatorPort;
+    }
+
+    public void setCoordinatorPort(int coordinatorPort) {
+        if(coordinatorPort < 0 || coordinatorPort > 65535) {
+            throw new IllegalArgumentException("The coordinator port must be between 0 and 65535");
+        }
+        this.coordinatorPort = coordinatorPort;
+    }
+
+    public String getCoordinatorAddress() {
+        return coordinatorAddress;
+    }
+
+    public void setCoordinatorAddress(String coordinatorAddress) {
+        this.coordinatorAddress = coordinatorAddress;
+    }
+
+    public int getWorkerTimeoutSeconds() {
+        return workerTimeoutSeconds;
+    }
+
+    public void setWorkerTimeoutSeconds(int workerTimeoutSeconds) {
+        if(workerTimeoutSeconds <= 0) {
+            throw new IllegalArgumentException("The worker timeout must be positive");
+        }
+        this.workerTimeoutSeconds = workerTimeoutSeconds;
+    }
+
+    public String getShuffleDirectory() {
+        return shuffleDirectory;
+    }
+
+    public void setShuffleDirectory(String shuffleDirectory) {
+        this.shuffleDirectory = shuffleDirectory;
+    }
+}
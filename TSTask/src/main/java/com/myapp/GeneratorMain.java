@@ -0,0 +1,127 @@
+package com.myapp;
+
+import com.myapp.generator.DatasetGenerator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * The entry point of the dataset generator, writes a synthetic input file and optionally
+ * the expected result file to check a run at scale.
+ */
+public class GeneratorMain {
+
+    private static final String USAGE = "Usage: java com.myapp.GeneratorMain <output.csv> [options]\n"
+            + "  --seed <number>              seed of the random generator, 1 by default\n"
+            + "  --phones <count>             distinct phone numbers\n"
+            + "  --records-per-phone <count>  records of each phone\n"
+            + "  --contiguous <fraction>      records starting on the deactivation day of the previous record\n"
+            + "  --open-ended <fraction>      phones whose last record has no deactivation date\n"
+            + "  --skewed <fraction>          phones having the skewed records per phone\n"
+            + "  --skewed-records <count>     records of each skewed phone\n"
+            + "  --threads <count>            generator threads, 0 to use the cores\n"
+            + "  --expected <file>            write the expected real activation dates to the file\n"
+            + "  --sorted                     write the records in order of the phones instead of shuffled";
+
+    public static void main(String[] args) throws IOException {
+        String outputFile = null;
+        String expectedFile = null;
+        int threadCount = 0;
+        DatasetGenerator generator = new DatasetGenerator();
+        try {
+            for(int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if(!arg.startsWith("--")) {
+                    if(outputFile != null) {
+                        throw new IllegalArgumentException("Only one output file is allowed");
+                    }
+                    outputFile = arg;
+                } else if(arg.equals("--sorted")) {
+                    generator.setSorted(true);
+                } else if(i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + arg);
+                } else if(arg.equals("--expected")) {
+                    expectedFile = args[++i];
+                } else if(arg.equals("--threads")) {
+                    threadCount = parseCount(arg, args[++i]);
+                } else {
+                    applyOption(arg, args[++i], generator);
+                }
+            }
+            if(outputFile == null) {
+                throw new IllegalArgumentException("Missing output file");
+            }
+        } catch(IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        if(threadCount == 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        System.out.println("Generating records .... ");
+        Path expectedPath = expectedFile == null ? null : Paths.get(expectedFile);
+        long recordCount = generator.write(Paths.get(outputFile), expectedPath, threadCount);
+        System.out.println(String.format(Locale.ROOT, "Wrote %d records of %d phones to %s",
+                recordCount, generator.getPhoneCount(), outputFile));
+        if(expectedPath != null) {
+            System.out.println("The expected result is located at path:" + expectedPath);
+        }
+    }
+
+    private static int parseCount(String name, String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if(count < 0) {
+                throw new IllegalArgumentException("The value of " + name + " must not be negative");
+            }
+            return count;
+        } catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid value " + value + " of " + name);
+        }
+    }
+
+    /**
+     * Apply an option with its value
+     * @param name
+     * @param value
+     * @param generator
+     */
+    private static void applyOption(String name, String value, DatasetGenerator generator) {
+        try {
+            applyValue(name, value, generator);
+        } catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid value " + value + " of " + name);
+        }
+    }
+
+    private static void applyValue(String name, String value, DatasetGenerator generator) {
+        switch (name) {
+            case "--seed":
+                generator.setSeed(Long.parseLong(value));
+                break;
+            case "--phones":
+                generator.setPhoneCount(Integer.parseInt(value));
+                break;
+            case "--records-per-phone":
+                generator.setRecordsPerPhone(Integer.parseInt(value));
+                break;
+            case "--contiguous":
+                generator.setContiguousFraction(Double.parseDouble(value));
+                break;
+            case "--open-ended":
+                generator.setOpenEndedFraction(Double.parseDouble(value));
+                break;
+            case "--skewed":
+                generator.setSkewedFraction(Double.parseDouble(value));
+                break;
+            case "--skewed-records":
+                generator.setSkewedRecordsPerPhone(Integer.parseInt(value));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + name);
+        }
+    }
+}
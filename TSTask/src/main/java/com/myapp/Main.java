@@ -1,39 +1,187 @@
 package com.myapp;
 
 import com.myapp.csv.FileHelper;
+import com.myapp.engine.EngineMode;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
- * The main entry point of program
+ * The main entry point of program, the input files and the options are given as arguments
+ * so the program can run without an operator.
  */
 public class Main {
 
-    public static void main(String[]args) throws  IOException, InterruptedException{
-        Scanner scanner = new Scanner(System.in);
-        System.out.println("Please input the path in which the csv is located:");
-        String inputFile = scanner.next();
-        if(!FileHelper.isExistedPath(inputFile)) {
-            System.out.println("The input file path is not existed. Please check it.");
-            System.exit(1);
-        }
-        long totalLines = 0;
-        System.out.println("Total lines including the header:");
+    private static final String USAGE = "Usage: java com.myapp.Main <input.csv|directory|glob>... [options]\n"
+            + "  The input lines are PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE with phone numbers of 1 to 15 digits\n"
+            + "  without '+', spaces or dashes and dates as yyyy-MM-dd, the run fails on the first malformed line.\n"
+            + "  --mode <AUTO|IN_MEMORY|EXTERNAL_SORT|STREAMING|SEPARATION|INCREMENTAL>\n"
+            + "  --state <file>               state file of the phones updated by the incremental mode\n"
+            + "  --heap-budget <bytes>        heap used by the in memory engine\n"
+            + "  --chunk-bytes <bytes>        size of a chunk read by one task, 0 to plan it\n"
+            + "  --readers <count>            reader threads, 0 to plan it\n"
+            + "  --threads <count>            parser and aggregator threads, 0 to use the cores\n"
+            + "  --queue <count>              capacity of the pipeline queues, 0 to plan it\n"
+            + "  --partitions <count>         hash partitions of the in memory engine\n"
+            + "  --buckets <count>            bucket files of the separation engine\n"
+            + "  --merge-fan-in <count>       sorted runs merged at once by the external sort engine\n"
+            + "  --virtual-threads <count>    buckets resolved on virtual threads, 0 to use the common pool (JDK 21+)\n"
+            + "  --progress <seconds>         interval of the progress line, 10 by default, 0 to print none\n"
+            + "  --metrics <file>             write the summary of the run metrics in JSON to the file\n"
+            + "  --checkpoint <dir>           separate with a checkpoint in the directory to resume after a crash\n"
+            + "  --resume <dir>               resume the interrupted run of the checkpoint directory\n"
+            + "  --coordinator <port>         coordinate the workers of a sharded run on the port,\n"
+            + "                               see com.myapp.cluster.ShardWorker\n"
+            + "  --coordinator-address <host> address of the coordinator, the loopback address by default\n"
+            + "  --worker-timeout <seconds>   fail the sharded run when no worker is connected, 300 by default\n"
+            + "  --shuffle <dir>              directory shared by the workers of a sharded run\n"
+            + "  --ordered                    write the results in order of the phone numbers\n"
+            + "  --no-streaming-fallback      fail when the streaming mode reads an unsorted input";
+
+    private static final int DEFAULT_PROGRESS_INTERVAL_SECONDS = 10;
+
+    public static void main(String[]args) throws  IOException {
+        List<String> inputFiles = new ArrayList<>();
+        FinderOptions options = new FinderOptions();
+        options.setProgressIntervalSeconds(DEFAULT_PROGRESS_INTERVAL_SECONDS);
         try {
-            totalLines = Long.parseLong(scanner.next());
-        } catch(NumberFormatException ex) {
-            System.out.println("Invalid input total lines");
+            for(int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if(!arg.startsWith("--")) {
+                    inputFiles.add(arg);
+                    continue;
+                }
+                if(applyFlag(arg, options)) {
+                    continue;
+                }
+                if(i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + arg);
+                }
+                applyOption(arg, args[++i], options);
+            }
+            if(inputFiles.isEmpty()) {
+                throw new IllegalArgumentException("Missing input file");
+            }
+        } catch(IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
             System.exit(1);
         }
-        if(totalLines <=1) {
-            System.out.println("Total lines is must greater than 1 including the header");
-            System.exit(1);
+        for(String inputFile : inputFiles) {
+            //a glob pattern is resolved by the finder
+            if(!FileHelper.isGlobPattern(inputFile) && !Files.exists(Paths.get(inputFile))) {
+                System.err.println("The input file path " + inputFile + " is not existed. Please check it.");
+                System.exit(1);
+            }
         }
         System.out.println("Finding real activation dates .... ");
-        RealActivationDateFinder finder = new RealActivationDateFinder(totalLines, inputFile);
+        if(options.getCoordinatorPort() > 0) {
+            System.out.println("Waiting for the workers on " + (options.getCoordinatorAddress() != null ?
+                    options.getCoordinatorAddress() : "the loopback address") + " port " + options.getCoordinatorPort() + " .... ");
+        }
+        RealActivationDateFinder finder = new RealActivationDateFinder(inputFiles, options);
         Path resultOutPath = finder.execute();
         System.out.println("The result is located at path:" + resultOutPath.toString());
     }
+
+    /**
+     * Apply an option without value
+     * @param flag
+     * @param options
+     * @return whether the flag is known
+     */
+    private static boolean applyFlag(String flag, FinderOptions options) {
+        switch (flag) {
+            case "--ordered":
+                options.setOrderedOutput(true);
+                return true;
+            case "--no-streaming-fallback":
+                options.setStreamingFallback(false);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Apply an option with its value
+     * @param name
+     * @param value
+     * @param options
+     */
+    private static void applyOption(String name, String value, FinderOptions options) {
+        try {
+            applyValue(name, value, options);
+        } catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid value " + value + " of " + name);
+        }
+    }
+
+    private static void applyValue(String name, String value, FinderOptions options) {
+        switch (name) {
+            case "--mode":
+                options.setEngineMode(EngineMode.valueOf(value.toUpperCase(Locale.ROOT)));
+                break;
+            case "--state":
+                options.setStateFile(value);
+                break;
+            case "--heap-budget":
+                options.setHeapBudgetBytes(Long.parseLong(value));
+                break;
+            case "--chunk-bytes":
+                options.setChunkBytes(Long.parseLong(value));
+                break;
+            case "--readers":
+                options.setReaderThreadCount(Integer.parseInt(value));
+                break;
+            case "--threads":
+                options.setThreadCount(Integer.parseInt(value));
+                break;
+            case "--queue":
+                options.setQueueCapacity(Integer.parseInt(value));
+                break;
+            case "--partitions":
+                options.setPartitionCount(Integer.parseInt(value));
+                break;
+            case "--buckets":
+                options.setBucketCount(Integer.parseInt(value));
+                break;
+            case "--merge-fan-in":
+                options.setMergeFanIn(Integer.parseInt(value));
+                break;
+            case "--virtual-threads":
+                options.setVirtualThreadConcurrency(Integer.parseInt(value));
+                break;
+            case "--progress":
+                options.setProgressIntervalSeconds(Integer.parseInt(value));
+                break;
+            case "--metrics":
+                options.setMetricsFile(value);
+                break;
+            case "--checkpoint":
+                options.setCheckpointDirectory(value);
+                break;
+            case "--resume":
+                options.setCheckpointDirectory(value);
+                options.setResume(true);
+                break;
+            case "--coordinator":
+                options.setCoordinatorPort(Integer.parseInt(value));
+                break;
+            case "--coordinator-address":
+                options.setCoordinatorAddress(value);
+                break;
+            case "--worker-timeout":
+                options.setWorkerTimeoutSeconds(Integer.parseInt(value));
+                break;
+            case "--shuffle":
+                options.setShuffleDirectory(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + name);
+        }
+    }
 }
@@ -1,62 +1,73 @@
 package com.myapp;
 
+import com.myapp.cluster.ShardCoordinator;
+import com.myapp.csv.ChunkSource;
 import com.myapp.csv.FileHelper;
-import com.myapp.csv.PhoneRecord;
-import com.myapp.task.PhoneSeparationTask;
+import com.myapp.engine.AggregationEngine;
+import com.myapp.engine.EngineMode;
+import com.myapp.engine.ExternalSortEngine;
+import com.myapp.engine.IncrementalEngine;
+import com.myapp.engine.InMemoryAggregationEngine;
+import com.myapp.engine.SeparationEngine;
+import com.myapp.engine.StagedPipeline;
+import com.myapp.engine.StreamingEngine;
+import com.myapp.engine.UnsortedInputException;
+import com.myapp.metrics.RunMetrics;
+import com.myapp.state.PhoneStateStore;
+import com.myapp.state.SeparationCheckpoint;
 import com.myapp.task.RangeRead;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The class is responsible for finding the real activation date.
  */
 public class RealActivationDateFinder {
 
-    private static final ExecutorService tasksPool = Executors.newFixedThreadPool(10);
     /**
-     * The constant value of batch size, increase this batch size to process large file,
-     * but in the limit of memory
+     * The input files, directories or glob patterns to process records
      */
-    private static final int BATCH_SIZE_TO_READ = 2;
-    /**
-     * Number of batches for processing, and each batch is assigned to each task per thread to process
-     * Increase this constant to make more tasks handling the large file.
-     */
-    private static final int NUMBER_OF_BATCH_TO_PROCESS = 3;
-
+    private List<String> inputPaths;
 
     /**
-     * The input file to process records
+     * The options of the run
      */
-    private String inputPath;
+    private FinderOptions options;
 
     /**
-     * Total records of the input file needs to process, this value is not include the header line file.
      *
+     * @param inputFilePath
      */
-    private long totalRecords;
+    public RealActivationDateFinder(String inputFilePath) throws IOException {
+        this(inputFilePath, new FinderOptions());
+    }
 
     /**
      *
+     * @param inputFilePath
+     * @param options
      */
-    private Path separationFolderPath;
+    public RealActivationDateFinder(String inputFilePath, FinderOptions options) throws IOException {
+        this(Collections.singletonList(inputFilePath), options);
+    }
+
     /**
      *
-     * @param totalRecords
-     * @param inputFilePath
+     * @param inputPaths the input files, directories or glob patterns, the records of a phone may be in several files
+     * @param options
      */
-    public RealActivationDateFinder(long totalRecords, String inputFilePath ) throws IOException {
-        this.inputPath = inputFilePath;
-        this.totalRecords = totalRecords;
-        this.separationFolderPath = FileHelper.getSeparationFolderPath();
+    public RealActivationDateFinder(List<String> inputPaths, FinderOptions options) throws IOException {
+        if(inputPaths.isEmpty()) {
+            throw new IllegalArgumentException("No input file");
+        }
+        this.inputPaths = new ArrayList<>(inputPaths);
+        this.options = Objects.requireNonNull(options);
     }
 
     /**
@@ -68,126 +79,155 @@ public class RealActivationDateFinder {
      * and write to output file
      */
     public Path execute() throws IOException{
-        //exclude the header line, and process from the second line
-        long actualTotalRead = totalRecords + 1;
-        RangeRead seedRangeRead = this.totalRecords > BATCH_SIZE_TO_READ ?
-                new RangeRead(2, BATCH_SIZE_TO_READ + 2)
-                : new RangeRead(2, actualTotalRead );
-        //separate the total records into range to read and process
-        List<RangeRead> rangeReads = new LinkedList<>();
-        Stream.iterate(seedRangeRead,
-                rangeRead -> new RangeRead(rangeRead.getExcludeEndPos(),
-                        rangeRead.getExcludeEndPos() + BATCH_SIZE_TO_READ))
-                .filter(rangeRead -> {
-                    boolean isStillLessThan = rangeRead.getExcludeEndPos() <= actualTotalRead;
-                    if(isStillLessThan) {
-                        rangeReads.add(rangeRead);
-                    }
-                    return rangeRead.getExcludeEndPos() > actualTotalRead;
-                }).findFirst().get();
-
-        RangeRead lastRangeRead = rangeReads.get(rangeReads.size() - 1);
-        if(lastRangeRead.getExcludeEndPos() < actualTotalRead) {
-            rangeReads.add(new RangeRead(lastRangeRead.getExcludeEndPos(), actualTotalRead));
+        //separate the files, excluding the header lines, at the line breaks following evenly spaced byte offsets,
+        //so the number of lines is not needed, the ranges of all files share the queue of the pipeline
+        List<Path> fileInputPaths = FileHelper.resolveInputPaths(this.inputPaths);
+        ChunkPlan plan = ChunkPlan.plan(fileInputPaths, this.options);
+        ChunkSource chunkSource = FileHelper.openChunkSource(fileInputPaths, plan.getChunkBytes(), plan.getWorkerThreads());
+        List<RangeRead> rangeReads = chunkSource.split(plan.getChunkBytes());
+
+        if(this.options.getCoordinatorPort() > 0) {
+            return this.executeSharded(fileInputPaths, rangeReads, plan);
         }
 
-        AtomicInteger batchNumberIndex = new AtomicInteger(0);
-        List<RangeRead> bulkRangeReads = new ArrayList<>();
-        Set<String>allPhoneNumberSet = new HashSet<>();
-        rangeReads.forEach(rangeRead -> {
-            bulkRangeReads.add(rangeRead);
-            if(batchNumberIndex.incrementAndGet() == NUMBER_OF_BATCH_TO_PROCESS) {
-                allPhoneNumberSet.addAll(processRangeRead(bulkRangeReads));
-                batchNumberIndex.set(1);
-                bulkRangeReads.clear();
+        EngineMode engineMode = this.options.getEngineMode();
+        if(engineMode == EngineMode.STREAMING && fileInputPaths.size() > 1) {
+            //the files are not ordered by phone against each other
+            if(!this.options.isStreamingFallback()) {
+                throw new IllegalArgumentException("The streaming mode needs a single input file");
+            }
+            engineMode = EngineMode.AUTO;
+        }
+        SeparationCheckpoint checkpoint = null;
+        if(this.options.getCheckpointDirectory() != null) {
+            if(fileInputPaths.size() > 1) {
+                throw new IllegalArgumentException("The checkpoint needs a single input file");
+            }
+            //a checkpointed run keeps the ranges of the first attempt, as the planned chunk size may differ
+            if(engineMode != EngineMode.AUTO && engineMode != EngineMode.SEPARATION) {
+                throw new IllegalArgumentException("The checkpoint needs the separation mode");
+            }
+            engineMode = EngineMode.SEPARATION;
+            Path checkpointPath = Paths.get(this.options.getCheckpointDirectory());
+            Path fileInputPath = fileInputPaths.get(0);
+            checkpoint = this.options.isResume() ?
+                    SeparationCheckpoint.resume(checkpointPath, fileInputPath, this.options.getBucketCount()) :
+                    SeparationCheckpoint.create(checkpointPath, fileInputPath, this.options.getBucketCount(), rangeReads);
+            rangeReads = checkpoint.getRangeReads();
+        }
+        RunMetrics metrics = RunMetrics.start(this.options.getProgressIntervalSeconds());
+        try {
+            Path resultPath = this.execute(fileInputPaths, chunkSource, rangeReads, engineMode, plan, checkpoint);
+            if(checkpoint != null) {
+                checkpoint.delete();
+            }
+            return resultPath;
+        } finally {
+            metrics.close();
+            if(this.options.getMetricsFile() != null) {
+                metrics.writeSummary(Paths.get(this.options.getMetricsFile()));
             }
-        });
-        if(bulkRangeReads.size() > 0) {
-            allPhoneNumberSet.addAll(processRangeRead(bulkRangeReads));
         }
-        return this.writeResultsToOuput(allPhoneNumberSet);
     }
 
     /**
-     *
-     * @param rangeReads
-     * @return
+     * Coordinate the workers of a sharded run, see {@link ShardCoordinator}, the workers separate the ranges
+     * and resolve the partitions while this process only assigns them and concatenates the results
      */
-    private Set<String> processRangeRead(List<RangeRead> rangeReads) {
-        List<CompletableFuture<Set<String>>> phoneSeparationTasks = rangeReads.stream().map(rangeRead -> {
-            try {
-                Path fileInputPath = FileHelper.getOrCreateFile(this.inputPath);
-                List<PhoneRecord> records = FileHelper.readRecords(fileInputPath, rangeRead);
-                return CompletableFuture.supplyAsync(() -> {
-                    PhoneSeparationTask separatePhoneTask = new PhoneSeparationTask(records, this.separationFolderPath);
-                    return separatePhoneTask.execute();
-                });
-            } catch(IOException ex) {
-                throw new RuntimeException(ex);
-            }
-        }).collect(Collectors.toList());
-        //wait until all phone separation tasks completed
-        CompletableFuture.allOf(phoneSeparationTasks.toArray(new CompletableFuture[0]));
-        //aggregate results from completed tasks
-        return phoneSeparationTasks.stream().map(completedTask -> {
-            try {
-                return completedTask.get();
-            } catch(Exception ex) {
-                throw new RuntimeException(ex);
-            }
-        }).reduce(new HashSet<>(), (Set<String> firstSet, Set<String> secondSet)-> {
-            firstSet.addAll(secondSet);
-            return firstSet;
-        });
+    private Path executeSharded(List<Path> fileInputPaths, List<RangeRead> rangeReads, ChunkPlan plan) throws IOException {
+        if(this.options.getCheckpointDirectory() != null || this.options.isOrderedOutput()) {
+            throw new IllegalArgumentException("The sharded run supports neither the checkpoint nor the ordered output");
+        }
+        Path shuffleDirectory = Paths.get(this.options.getShuffleDirectory() != null ?
+                this.options.getShuffleDirectory() : System.getProperty("java.io.tmpdir"));
+        InetAddress bindAddress = this.options.getCoordinatorAddress() != null ?
+                InetAddress.getByName(this.options.getCoordinatorAddress()) : InetAddress.getLoopbackAddress();
+        try (ShardCoordinator coordinator = new ShardCoordinator(bindAddress, this.options.getCoordinatorPort(),
+                fileInputPaths, rangeReads, plan.getChunkBytes(), this.options.getBucketCount(), shuffleDirectory,
+                TimeUnit.SECONDS.toMillis(this.options.getWorkerTimeoutSeconds()))) {
+            return coordinator.execute();
+        }
     }
 
     /**
-     *
-     * @param phoneNumbers
+     * Run an engine over the ranges, the streaming engine falls back to the automatic choice on an unsorted input
+     * if the fallback is enabled
      */
-    private Path writeResultsToOuput(Set<String> phoneNumbers) throws IOException {
-        Objects.requireNonNull(phoneNumbers);
-        return FileHelper.writeResults(writer -> {
-            phoneNumbers.parallelStream().forEach(phone -> {
-                try {
-                    Path phonePath = FileHelper.getOrCreatePhonePath(this.separationFolderPath, phone);
-                    Optional<PhoneRecord> resultOpt = this.findActivationDate(phonePath.toString());
-
-                    if(resultOpt.isPresent()) {
-                        PhoneRecord record = resultOpt.get();
-                        writer.append(record.getPhoneNumber() + "," + record.getActivateDate().toString());
-                        writer.newLine();
-                    }
-                } catch(IOException ex) {
-                    ex.printStackTrace();
-                }
-            });
-        });
+    private Path execute(List<Path> fileInputPaths, ChunkSource chunkSource, List<RangeRead> rangeReads, EngineMode engineMode,
+                         ChunkPlan plan, SeparationCheckpoint checkpoint) throws IOException {
+        try {
+            return this.writeResults(this.createEngine(fileInputPaths, chunkSource, engineMode, plan, checkpoint), rangeReads);
+        } catch(UnsortedInputException ex) {
+            if(engineMode != EngineMode.STREAMING || !this.options.isStreamingFallback()) {
+                throw ex;
+            }
+            return this.writeResults(this.createEngine(fileInputPaths, chunkSource, EngineMode.AUTO, plan, null), rangeReads);
+        }
+    }
 
+    /**
+     * Write the results of an engine to a new result file, the state of the engine is committed only once
+     * the result file is complete, otherwise it is rolled back
+     */
+    private Path writeResults(AggregationEngine engine, List<RangeRead> rangeReads) throws IOException {
+        Path resultPath;
+        try {
+            resultPath = FileHelper.writeResults(this.options.isOrderedOutput(), sink -> engine.execute(rangeReads, sink));
+        } catch(IOException | RuntimeException ex) {
+            engine.rollback();
+            throw ex;
+        }
+        try {
+            engine.commit();
+        } catch(IOException | RuntimeException ex) {
+            //the results of a state which is not committed would be reported again by the next run
+            Files.deleteIfExists(resultPath);
+            throw ex;
+        }
+        return resultPath;
     }
 
     /**
-     *
-     * @param uniquePhoneRecordsPath
+     * Create the engine of the configured mode, the automatic mode chooses the in memory engine when
+     * the estimated records of the files fit in the heap budget, otherwise the external sort engine.
+     * @param fileInputPaths
+     * @param chunkSource
+     * @param engineMode
+     * @param plan
+     * @param checkpoint the checkpoint of the separation mode, null to run without checkpoint
      * @return
      * @throws IOException
      */
-    private Optional<PhoneRecord> findActivationDate(String uniquePhoneRecordsPath) throws IOException {
-        boolean isExisted = FileHelper.isExistedPath(uniquePhoneRecordsPath);
-        if(!isExisted) {
-            return Optional.empty();
+    private AggregationEngine createEngine(List<Path> fileInputPaths, ChunkSource chunkSource, EngineMode engineMode,
+                                           ChunkPlan plan, SeparationCheckpoint checkpoint) throws IOException {
+        if(engineMode == EngineMode.AUTO) {
+            long estimatedRecordCount = 0;
+            for(Path fileInputPath : fileInputPaths) {
+                estimatedRecordCount += FileHelper.estimateRecordCount(fileInputPath);
+            }
+            long estimatedHeapBytes = estimatedRecordCount * InMemoryAggregationEngine.ESTIMATED_BYTES_PER_RECORD;
+            engineMode = estimatedHeapBytes <= this.options.getHeapBudgetBytes() ?
+                    EngineMode.IN_MEMORY : EngineMode.EXTERNAL_SORT;
         }
-        Path filePath =  FileHelper.getOrCreateFile(uniquePhoneRecordsPath);
-        List<PhoneRecord> records = FileHelper.readAllRecords(filePath);
-
-        LinkedList<PhoneRecord>sortedList = records.stream().sorted().collect(Collectors.toCollection(LinkedList::new));
-
-        return sortedList.stream().reduce((firstRecord, secondRecord) -> {
-            if(firstRecord.isNotConsecutiveAndGreaterThan(secondRecord)) {
-                return firstRecord;
+        if(engineMode == EngineMode.STREAMING) {
+            return new StreamingEngine(chunkSource);
+        }
+        StagedPipeline pipeline = new StagedPipeline(chunkSource, plan.getReaderThreads(), plan.getWorkerThreads(),
+                plan.getWriterThreads(), plan.getQueueCapacity());
+        if(engineMode == EngineMode.IN_MEMORY) {
+            return new InMemoryAggregationEngine(pipeline, this.options.getPartitionCount());
+        }
+        if(engineMode == EngineMode.EXTERNAL_SORT) {
+            return new ExternalSortEngine(pipeline, this.options.getMergeFanIn());
+        }
+        if(engineMode == EngineMode.INCREMENTAL) {
+            if(this.options.getStateFile() == null) {
+                throw new IllegalArgumentException("The incremental mode needs a state file");
             }
-            return secondRecord;
-        });
+            return new IncrementalEngine(pipeline, new PhoneStateStore(Paths.get(this.options.getStateFile())));
+        }
+        return new SeparationEngine(pipeline, this.options.getBucketCount(),
+                this.options.getVirtualThreadConcurrency(), checkpoint);
     }
 
 }
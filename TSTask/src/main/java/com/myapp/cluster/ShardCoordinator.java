@@ -0,0 +1,467 @@
+package com.myapp.cluster;
+
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.ResultSink;
+import com.myapp.task.RangeRead;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The coordinator of a sharded run over several worker processes, see {@link ShardWorker}. The workers connect
+ * to the coordinator over TCP and pull their work from it in two phases:
+ * - the separation: a worker takes a byte range of the input, parses it and shuffles the records by the hash
+ * of their phone into the partition files of its own folder under the shuffle directory, then reports the range
+ * - the resolution: once all ranges are reported, a worker takes a partition, reads the partition files
+ * of all workers and writes the real activation dates of the phones of the partition to a part file
+ * The coordinator finally concatenates the part files into the result file. The shuffle directory must be
+ * shared by all workers, e.g. a local directory for several JVMs of one machine or a network file system.
+ * The frames written for a range are tagged with the assignment of the range, so when a worker disconnects,
+ * its ranges and partitions not reported yet are assigned again and the frames it may have written are ignored.
+ * The protocol is not authenticated, so the coordinator listens on the loopback address unless another address
+ * is given, and the run fails when no worker is connected for a while.
+ */
+public class ShardCoordinator implements Closeable {
+
+    /**
+     * The requests of a worker
+     */
+    static final byte NEXT_RANGE = 1;
+    static final byte RANGE_DONE = 2;
+    static final byte NEXT_PARTITION = 3;
+    static final byte PARTITION_DONE = 4;
+
+    /**
+     * The replies of the coordinator
+     */
+    static final byte RANGE = 11;
+    static final byte PARTITION = 12;
+    static final byte WAIT = 13;
+    static final byte SEPARATED = 14;
+    static final byte FINISHED = 15;
+
+    /**
+     * The name of the folder of the part files under the run folder
+     */
+    static final String RESULT_FOLDER = "results";
+
+    /**
+     * The maximum number of assignments of a range or a partition before the run fails
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * The time given to the workers to learn that the run is finished before the coordinator closes
+     */
+    private static final long FINISH_GRACE_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * The default time without any connected worker before the run fails
+     */
+    public static final long DEFAULT_NO_WORKER_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long NOT_COMMITTED = -1;
+
+    private ServerSocket serverSocket;
+
+    private List<Path> inputPaths;
+
+    private List<RangeRead> rangeReads;
+
+    /**
+     * The chunk size of the inflated chunks of a compressed input
+     */
+    private long chunkBytes;
+
+    private int partitionCount;
+
+    /**
+     * The folder of the run under the shuffle directory
+     */
+    private Path runFolderPath;
+
+    /**
+     * The state of the run below is guarded by the coordinator itself
+     */
+    private Deque<Integer> pendingRanges = new ArrayDeque<>();
+
+    private int[] rangeAttempts;
+
+    /**
+     * The tag of the frames of the assignment which reported each range
+     */
+    private long[] committedRangeTags;
+
+    private int committedRangeCount;
+
+    private Deque<Integer> pendingPartitions = new ArrayDeque<>();
+
+    private int[] partitionAttempts;
+
+    private boolean[] resolvedPartitions;
+
+    private int resolvedPartitionCount;
+
+    private int nextAssignment = 1;
+
+    private int nextWorkerIndex;
+
+    private int connectedWorkers;
+
+    private String failure;
+
+    private long noWorkerTimeoutMillis;
+
+    /**
+     * The time since when no worker is connected
+     */
+    private long noWorkerSinceMillis = System.currentTimeMillis();
+
+    /**
+     * Listen on the loopback address
+     * @param port the port to listen on, 0 to choose a free port
+     * @param inputPaths the input files, read by the workers at the same paths
+     * @param rangeReads the ranges of the input files
+     * @param chunkBytes
+     * @param partitionCount number of partitions which the phones are hashed into
+     * @param shuffleDirectory the directory shared by the workers
+     * @throws IOException
+     */
+    public ShardCoordinator(int port, List<Path> inputPaths, List<RangeRead> rangeReads, long chunkBytes,
+                            int partitionCount, Path shuffleDirectory) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, inputPaths, rangeReads, chunkBytes, partitionCount,
+                shuffleDirectory, DEFAULT_NO_WORKER_TIMEOUT_MILLIS);
+    }
+
+    /**
+     *
+     * @param bindAddress the address to listen on
+     * @param port the port to listen on, 0 to choose a free port
+     * @param inputPaths the input files, read by the workers at the same paths
+     * @param rangeReads the ranges of the input files
+     * @param chunkBytes
+     * @param partitionCount number of partitions which the phones are hashed into
+     * @param shuffleDirectory the directory shared by the workers
+     * @param noWorkerTimeoutMillis the time without any connected worker before the run fails
+     * @throws IOException
+     */
+    public ShardCoordinator(InetAddress bindAddress, int port, List<Path> inputPaths, List<RangeRead> rangeReads,
+                            long chunkBytes, int partitionCount, Path shuffleDirectory,
+                            long noWorkerTimeoutMillis) throws IOException {
+        this.serverSocket = new ServerSocket(port, 0, bindAddress);
+        this.noWorkerTimeoutMillis = noWorkerTimeoutMillis;
+        this.inputPaths = new ArrayList<>(inputPaths);
+        this.rangeReads = new ArrayList<>(rangeReads);
+        this.chunkBytes = chunkBytes;
+        this.partitionCount = partitionCount;
+        this.runFolderPath = Files.createDirectories(shuffleDirectory.toAbsolutePath()
+                .resolve("Shuffle_" + Clock.systemDefaultZone().millis()));
+        Files.createDirectories(this.runFolderPath.resolve(RESULT_FOLDER));
+        this.rangeAttempts = new int[rangeReads.size()];
+        this.committedRangeTags = new long[rangeReads.size()];
+        Arrays.fill(this.committedRangeTags, NOT_COMMITTED);
+        for(int range = 0; range < rangeReads.size(); range++) {
+            this.pendingRanges.add(range);
+        }
+        this.partitionAttempts = new int[partitionCount];
+        this.resolvedPartitions = new boolean[partitionCount];
+        for(int partition = 0; partition < partitionCount; partition++) {
+            this.pendingPartitions.add(partition);
+        }
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    public InetAddress getAddress() {
+        return this.serverSocket.getInetAddress();
+    }
+
+    /**
+     * Serve the workers until all partitions are resolved, then concatenate the part files into the result file
+     * @return the path of the result file
+     * @throws IOException if a range or a partition fails on several workers, or if no worker is connected
+     * during the timeout
+     */
+    public Path execute() throws IOException {
+        Thread acceptor = new Thread(this::acceptWorkers, "shard-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        try {
+            synchronized (this) {
+                while(this.resolvedPartitionCount < this.partitionCount && this.failure == null) {
+                    if(this.connectedWorkers > 0) {
+                        this.wait();
+                        continue;
+                    }
+                    long idleMillis = System.currentTimeMillis() - this.noWorkerSinceMillis;
+                    if(idleMillis >= this.noWorkerTimeoutMillis) {
+                        this.fail("No worker has been connected for " + this.noWorkerTimeoutMillis + " ms");
+                    } else {
+                        this.wait(this.noWorkerTimeoutMillis - idleMillis);
+                    }
+                }
+                if(this.failure != null) {
+                    throw new IOException(this.failure);
+                }
+            }
+            Path resultPath = this.concatenateResults();
+            //the polling workers learn that the run is finished at their next request
+            long deadline = System.currentTimeMillis() + FINISH_GRACE_MILLIS;
+            synchronized (this) {
+                long remainingMillis;
+                while(this.connectedWorkers > 0 && (remainingMillis = deadline - System.currentTimeMillis()) > 0) {
+                    this.wait(remainingMillis);
+                }
+            }
+            return resultPath;
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the workers");
+        } finally {
+            this.close();
+            this.deleteRunFolder();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+    }
+
+    private void acceptWorkers() {
+        while(!this.serverSocket.isClosed()) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                Thread connection = new Thread(() -> this.serve(socket), "shard-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch(IOException ex) {
+                if(!this.serverSocket.isClosed()) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Answer the requests of a worker until it disconnects, then assign again the work it has not reported
+     * @param socket
+     */
+    private void serve(Socket socket) {
+        Set<Integer> assignedRanges = new HashSet<>();
+        Set<Integer> assignedPartitions = new HashSet<>();
+        synchronized (this) {
+            this.connectedWorkers++;
+        }
+        try (Socket workerSocket = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(workerSocket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(workerSocket.getOutputStream()))) {
+            this.writeJob(out);
+            out.flush();
+            while(true) {
+                byte request = in.readByte();
+                switch (request) {
+                    case NEXT_RANGE:
+                        this.assignRange(out, assignedRanges);
+                        break;
+                    case RANGE_DONE:
+                        this.commitRange(in.readInt(), in.readLong(), assignedRanges);
+                        break;
+                    case NEXT_PARTITION:
+                        this.assignPartition(out, assignedPartitions);
+                        break;
+                    case PARTITION_DONE:
+                        this.commitPartition(in.readInt(), assignedPartitions);
+                        break;
+                    default:
+                        throw new IOException("Unknown request " + request);
+                }
+                out.flush();
+            }
+        } catch(EOFException | SocketException ex) {
+            //the worker has disconnected
+        } catch(IOException ex) {
+            ex.printStackTrace();
+        } finally {
+            synchronized (this) {
+                this.pendingRanges.addAll(assignedRanges);
+                this.pendingPartitions.addAll(assignedPartitions);
+                if(--this.connectedWorkers == 0) {
+                    this.noWorkerSinceMillis = System.currentTimeMillis();
+                }
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Send the job to a new worker: its index, the run folder, the partition count, the chunk size and the input files
+     */
+    private void writeJob(DataOutputStream out) throws IOException {
+        int workerIndex;
+        synchronized (this) {
+            workerIndex = this.nextWorkerIndex++;
+        }
+        out.writeInt(workerIndex);
+        out.writeUTF(this.runFolderPath.toString());
+        out.writeInt(this.partitionCount);
+        out.writeLong(this.chunkBytes);
+        out.writeInt(this.inputPaths.size());
+        for(Path inputPath : this.inputPaths) {
+            out.writeUTF(inputPath.toString());
+        }
+    }
+
+    private synchronized void assignRange(DataOutputStream out, Set<Integer> assignedRanges) throws IOException {
+        Integer range = this.pendingRanges.poll();
+        if(range != null) {
+            if(++this.rangeAttempts[range] > MAX_ATTEMPTS) {
+                this.fail("The range " + this.rangeReads.get(range) + " failed on " + MAX_ATTEMPTS + " workers");
+                out.writeByte(WAIT);
+                return;
+            }
+            assignedRanges.add(range);
+            RangeRead rangeRead = this.rangeReads.get(range);
+            out.writeByte(RANGE);
+            out.writeInt(range);
+            out.writeLong((long) this.nextAssignment++ << 32 | range);
+            out.writeLong(rangeRead.getIncludeStartPos());
+            out.writeLong(rangeRead.getExcludeEndPos());
+            out.writeUTF(rangeRead.getFilePath() == null ? "" : rangeRead.getFilePath().toString());
+        } else if(this.committedRangeCount == this.rangeReads.size()) {
+            out.writeByte(SEPARATED);
+            out.writeInt(this.committedRangeTags.length);
+            for(long committedRangeTag : this.committedRangeTags) {
+                out.writeLong(committedRangeTag);
+            }
+        } else {
+            out.writeByte(WAIT);
+        }
+    }
+
+    private synchronized void commitRange(int range, long frameTag, Set<Integer> assignedRanges) {
+        if(assignedRanges.remove(range) && this.committedRangeTags[range] == NOT_COMMITTED) {
+            this.committedRangeTags[range] = frameTag;
+            this.committedRangeCount++;
+        }
+    }
+
+    private synchronized void assignPartition(DataOutputStream out, Set<Integer> assignedPartitions) throws IOException {
+        Integer partition = this.committedRangeCount == this.rangeReads.size() ? this.pendingPartitions.poll() : null;
+        if(partition != null) {
+            if(++this.partitionAttempts[partition] > MAX_ATTEMPTS) {
+                this.fail("The partition " + partition + " failed on " + MAX_ATTEMPTS + " workers");
+                out.writeByte(WAIT);
+                return;
+            }
+            assignedPartitions.add(partition);
+            out.writeByte(PARTITION);
+            out.writeInt(partition);
+        } else if(this.resolvedPartitionCount == this.partitionCount) {
+            out.writeByte(FINISHED);
+        } else {
+            out.writeByte(WAIT);
+        }
+    }
+
+    private synchronized void commitPartition(int partition, Set<Integer> assignedPartitions) {
+        if(assignedPartitions.remove(partition) && !this.resolvedPartitions[partition]) {
+            this.resolvedPartitions[partition] = true;
+            this.resolvedPartitionCount++;
+            this.notifyAll();
+        }
+    }
+
+    private void fail(String message) {
+        this.failure = message;
+        this.notifyAll();
+    }
+
+    /**
+     * Write the header line and the part files of all partitions, without their header lines, to the result file
+     * @return
+     * @throws IOException
+     */
+    private Path concatenateResults() throws IOException {
+        byte[] header = ResultSink.HEADER.getBytes(StandardCharsets.UTF_8);
+        Path resultPath = FileHelper.createResultFile();
+        try (FileChannel channel = FileChannel.open(resultPath, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            while(headerBuffer.hasRemaining()) {
+                channel.write(headerBuffer);
+            }
+            for(int partition = 0; partition < this.partitionCount; partition++) {
+                try (FileChannel partChannel = FileChannel.open(getPartPath(this.runFolderPath, partition),
+                        StandardOpenOption.READ)) {
+                    long position = header.length;
+                    long size = partChannel.size();
+                    while(position < size) {
+                        position += partChannel.transferTo(position, size - position, channel);
+                    }
+                }
+            }
+        } catch(IOException | RuntimeException ex) {
+            Files.deleteIfExists(resultPath);
+            throw ex;
+        }
+        return resultPath;
+    }
+
+    /**
+     * Get the path of the part file of the results of a partition
+     * @param runFolderPath
+     * @param partition
+     * @return
+     */
+    static Path getPartPath(Path runFolderPath, int partition) {
+        return runFolderPath.resolve(RESULT_FOLDER).resolve("part_" + partition + ".csv");
+    }
+
+    /**
+     * Get the folder of the partition files written by a worker
+     * @param runFolderPath
+     * @param workerIndex
+     * @return
+     */
+    static Path getWorkerFolderPath(Path runFolderPath, int workerIndex) {
+        return runFolderPath.resolve("worker_" + workerIndex);
+    }
+
+    private void deleteRunFolder() throws IOException {
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(this.runFolderPath)) {
+            for(Path folder : folders) {
+                FileHelper.deleteFolder(folder);
+            }
+        }
+        Files.delete(this.runFolderPath);
+    }
+}
@@ -0,0 +1,283 @@
+package com.myapp.cluster;
+
+import com.myapp.csv.BinaryRecordCodec;
+import com.myapp.csv.ChunkSource;
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.PartitionWriter;
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.PhoneRecordParser;
+import com.myapp.csv.ResultSink;
+import com.myapp.engine.SeparationEngine;
+import com.myapp.task.PhoneSeparationTask;
+import com.myapp.task.RangeRead;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A worker of a sharded run, see {@link ShardCoordinator}. The threads of the worker pull the ranges of the input
+ * from the coordinator and shuffle their records into the partition files of the worker, then pull the partitions
+ * and resolve them from the partition files of all workers. The requests of the threads share one connection.
+ */
+public class ShardWorker implements Closeable {
+
+    private static final String USAGE = "Usage: java com.myapp.cluster.ShardWorker <host:port> [options]\n"
+            + "  --threads <count>            threads separating and resolving, 0 to use the cores";
+
+    /**
+     * The pause of a thread when the coordinator has no work yet
+     */
+    private static final long WAIT_MILLIS = 100;
+
+    private Socket socket;
+
+    private DataInputStream in;
+
+    private DataOutputStream out;
+
+    private int threadCount;
+
+    private int workerIndex;
+
+    private Path runFolderPath;
+
+    private int partitionCount;
+
+    private long chunkBytes;
+
+    private List<Path> inputPaths = new ArrayList<>();
+
+    /**
+     * The tag of the frames of the committed assignment of each range, received at the end of the separation
+     */
+    private volatile long[] committedRangeTags;
+
+    /**
+     * Connect to the coordinator and receive the job
+     * @param host
+     * @param port
+     * @param threadCount
+     * @throws IOException
+     */
+    public ShardWorker(String host, int port, int threadCount) throws IOException {
+        this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        this.socket = new Socket(host, port);
+        this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+        this.workerIndex = this.in.readInt();
+        this.runFolderPath = Paths.get(this.in.readUTF());
+        this.partitionCount = this.in.readInt();
+        this.chunkBytes = this.in.readLong();
+        int inputCount = this.in.readInt();
+        for(int i = 0; i < inputCount; i++) {
+            this.inputPaths.add(Paths.get(this.in.readUTF()));
+        }
+    }
+
+    /**
+     * Separate the ranges and resolve the partitions assigned by the coordinator until the run is finished
+     * @throws IOException
+     */
+    public void execute() throws IOException {
+        ChunkSource chunkSource = FileHelper.openChunkSource(this.inputPaths, this.chunkBytes, this.threadCount);
+        Path workerFolderPath = Files.createDirectories(
+                ShardCoordinator.getWorkerFolderPath(this.runFolderPath, this.workerIndex));
+        ExecutorService executor = Executors.newFixedThreadPool(this.threadCount);
+        try (PartitionWriter partitionWriter = new PartitionWriter(workerFolderPath, this.partitionCount)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int i = 0; i < this.threadCount; i++) {
+                futures.add(executor.submit(() -> {
+                    this.separateRanges(chunkSource, partitionWriter);
+                    this.resolvePartitions();
+                    return null;
+                }));
+            }
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while working for the coordinator");
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            if(ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+
+    /**
+     * Shuffle the records of the assigned ranges into the partition files, a range is reported
+     * once its frames are forced to the storage, so they are visible to the other hosts of a network file system
+     * and survive a crash of this host
+     */
+    private void separateRanges(ChunkSource chunkSource, PartitionWriter partitionWriter) throws Exception {
+        while(true) {
+            int range;
+            long frameTag;
+            RangeRead rangeRead;
+            synchronized (this) {
+                this.out.writeByte(ShardCoordinator.NEXT_RANGE);
+                this.out.flush();
+                byte reply = this.in.readByte();
+                if(reply == ShardCoordinator.SEPARATED) {
+                    long[] committedRangeTags = new long[this.in.readInt()];
+                    for(int i = 0; i < committedRangeTags.length; i++) {
+                        committedRangeTags[i] = this.in.readLong();
+                    }
+                    this.committedRangeTags = committedRangeTags;
+                    return;
+                }
+                if(reply == ShardCoordinator.WAIT) {
+                    range = -1;
+                    frameTag = PartitionWriter.NO_TAG;
+                    rangeRead = null;
+                } else {
+                    range = this.in.readInt();
+                    frameTag = this.in.readLong();
+                    rangeRead = RangeRead.ofBytes(this.in.readLong(), this.in.readLong());
+                    String filePath = this.in.readUTF();
+                    if(!filePath.isEmpty()) {
+                        rangeRead = rangeRead.withFile(Paths.get(filePath));
+                    }
+                }
+            }
+            if(rangeRead == null) {
+                Thread.sleep(WAIT_MILLIS);
+                continue;
+            }
+            chunkSource.read(rangeRead, chunk -> {
+                PhoneRecordBatch batch = new PhoneRecordBatch();
+                PhoneRecordParser.parse(chunk, batch);
+                new PhoneSeparationTask(batch, partitionWriter, this.partitionCount, frameTag).execute();
+            });
+            partitionWriter.sync();
+            synchronized (this) {
+                this.out.writeByte(ShardCoordinator.RANGE_DONE);
+                this.out.writeInt(range);
+                this.out.writeLong(frameTag);
+                this.out.flush();
+            }
+        }
+    }
+
+    /**
+     * Resolve the assigned partitions from the committed frames of the partition files of all workers,
+     * the part file of a partition is forced and moved in place once it is complete
+     */
+    private void resolvePartitions() throws Exception {
+        while(true) {
+            int partition;
+            synchronized (this) {
+                this.out.writeByte(ShardCoordinator.NEXT_PARTITION);
+                this.out.flush();
+                byte reply = this.in.readByte();
+                if(reply == ShardCoordinator.FINISHED) {
+                    return;
+                }
+                partition = reply == ShardCoordinator.PARTITION ? this.in.readInt() : -1;
+            }
+            if(partition < 0) {
+                Thread.sleep(WAIT_MILLIS);
+                continue;
+            }
+            PhoneRecordBatch batch = new PhoneRecordBatch();
+            String partitionFile = PhoneSeparationTask.getBucketName(partition) + ".bin";
+            try (DirectoryStream<Path> workerFolders = Files.newDirectoryStream(this.runFolderPath, "worker_*")) {
+                for(Path workerFolder : workerFolders) {
+                    Path partitionPath = workerFolder.resolve(partitionFile);
+                    if(Files.exists(partitionPath)) {
+                        BinaryRecordCodec.readTagged(partitionPath, this::isCommitted, batch);
+                    }
+                }
+            }
+            Path partPath = ShardCoordinator.getPartPath(this.runFolderPath, partition);
+            Path tempPath = partPath.resolveSibling(partPath.getFileName() + "." + this.workerIndex + ".tmp");
+            try (ResultSink sink = new ResultSink(tempPath, false)) {
+                SeparationEngine.resolve(batch, sink);
+            }
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempPath, partPath, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (this) {
+                this.out.writeByte(ShardCoordinator.PARTITION_DONE);
+                this.out.writeInt(partition);
+                this.out.flush();
+            }
+        }
+    }
+
+    private boolean isCommitted(long frameTag) {
+        int range = (int) frameTag;
+        return range >= 0 && range < this.committedRangeTags.length && this.committedRangeTags[range] == frameTag;
+    }
+
+    /**
+     * Connect to the coordinator and work until the run is finished
+     */
+    public static void main(String[] args) throws IOException {
+        String coordinator = null;
+        String host = null;
+        int port = 0;
+        int threadCount = 0;
+        try {
+            for(int i = 0; i < args.length; i++) {
+                if(!args[i].startsWith("--")) {
+                    coordinator = args[i];
+                } else if(i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + args[i]);
+                } else if(args[i].equals("--threads")) {
+                    threadCount = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            int separator = coordinator == null ? -1 : coordinator.lastIndexOf(':');
+            if(separator <= 0) {
+                throw new IllegalArgumentException("Missing coordinator address host:port");
+            }
+            host = coordinator.substring(0, separator);
+            port = Integer.parseInt(coordinator.substring(separator + 1));
+        } catch(IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        try (ShardWorker worker = new ShardWorker(host, port, threadCount)) {
+            System.out.println("Working as worker " + worker.workerIndex + " of the coordinator " + coordinator + " .... ");
+            worker.execute();
+        }
+        System.out.println("The run is finished");
+    }
+}
@@ -0,0 +1,328 @@
+package com.myapp.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongPredicate;
+
+/**
+ * A compact binary encoding of the records of the intermediate files, about a third of the size of the csv lines
+ * and decoded without any text parsing. The records are encoded by frames, a frame holds the records appended
+ * at once and the frames of a file are simply concatenated. A frame is the number of records followed by the records,
+ * every value is a variable length integer of 7 bits per byte:
+ * - the phone key as the difference to the phone key of the previous record of the frame, the records of a frame
+ * are sorted by phone so the difference is not negative
+ * - the activation day as the zigzag encoded difference to the activation day of the previous record of the frame
+ * - the deactivation day as 0 if the record is not deactivated, otherwise the zigzag encoded difference
+ * to the activation day plus 1
+ * A tagged frame is preceded by a tag, a variable length integer, and by the byte length of the frame in 4 bytes,
+ * so the frames of a tag can be skipped without decoding them and a frame torn by a crash can be detected.
+ * The files are read through a window of a few bytes of the file, so a file can be larger than the heap.
+ */
+public class BinaryRecordCodec {
+
+    /**
+     * The maximum size of the number of records of a frame
+     */
+    private static final int MAX_COUNT_BYTES = 5;
+
+    /**
+     * The maximum size of an encoded record: a phone key and two days
+     */
+    private static final int MAX_RECORD_BYTES = 10 + 5 + 5;
+
+    /**
+     * The maximum size of the tag and the frame length preceding a tagged frame
+     */
+    public static final int MAX_TAG_BYTES = 10 + 4;
+
+    /**
+     * The size of the window of a file being read
+     */
+    private static final int READ_WINDOW_BYTES = 1 << 20;
+
+    /**
+     * A window sliding over a file, refilled from the channel before each value is decoded
+     */
+    private static class FileWindow implements Closeable {
+
+        private FileChannel channel;
+
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_WINDOW_BYTES);
+
+        private long fileSize;
+
+        /**
+         * The position in the file of the end of the bytes read into the buffer
+         */
+        private long readPosition;
+
+        FileWindow(Path filePath) throws IOException {
+            this.channel = FileChannel.open(filePath, StandardOpenOption.READ);
+            this.fileSize = this.channel.size();
+            ((Buffer) this.buffer).limit(0);
+        }
+
+        /**
+         * Get the position in the file of the next byte to decode
+         */
+        long position() {
+            return readPosition - buffer.remaining();
+        }
+
+        /**
+         * Get the bytes of the file after the position
+         */
+        long remaining() {
+            return fileSize - position();
+        }
+
+        /**
+         * Read the file until the buffer holds the given bytes or the end of the file
+         */
+        ByteBuffer ensure(int bytes) throws IOException {
+            if(buffer.remaining() >= bytes || readPosition >= fileSize) {
+                return buffer;
+            }
+            buffer.compact();
+            while(buffer.position() < bytes && readPosition < fileSize) {
+                int read = channel.read(buffer, readPosition);
+                if(read < 0) {
+                    break;
+                }
+                readPosition += read;
+            }
+            ((Buffer) buffer).flip();
+            return buffer;
+        }
+
+        /**
+         * Move the position forward
+         */
+        void skip(long bytes) {
+            if(bytes <= buffer.remaining()) {
+                ((Buffer) buffer).position(buffer.position() + (int) bytes);
+            } else {
+                readPosition = position() + bytes;
+                ((Buffer) buffer).limit(0);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private BinaryRecordCodec() {
+    }
+
+    /**
+     * Get the maximum size of a frame of records
+     * @param recordCount
+     * @return
+     */
+    public static int maxFrameBytes(int recordCount) {
+        return MAX_COUNT_BYTES + recordCount * MAX_RECORD_BYTES;
+    }
+
+    /**
+     * Encode the records of a batch sorted by phone from an included start index to an excluded end index as a frame
+     * @param batch
+     * @param fromIndex
+     * @param toIndex
+     * @param target
+     * @param offset
+     * @return the offset after the frame
+     */
+    public static int encode(PhoneRecordBatch batch, int fromIndex, int toIndex, byte[] target, int offset) {
+        offset = writeVarLong(toIndex - fromIndex, target, offset);
+        long previousPhoneKey = 0;
+        int previousActivationDay = 0;
+        for(int index = fromIndex; index < toIndex; index++) {
+            long phoneKey = batch.getPhoneKey(index);
+            int activationDay = batch.getActivationDay(index);
+            int deactivationDay = batch.getDeactivationDay(index);
+            offset = writeVarLong(phoneKey - previousPhoneKey, target, offset);
+            offset = writeVarLong(zigzag((long) activationDay - previousActivationDay), target, offset);
+            offset = writeVarLong(deactivationDay == EpochDays.NO_DATE ?
+                    0 : zigzag((long) deactivationDay - activationDay) + 1, target, offset);
+            previousPhoneKey = phoneKey;
+            previousActivationDay = activationDay;
+        }
+        return offset;
+    }
+
+    /**
+     * Encode the records as a frame preceded by a tag
+     * @param tag a non negative tag
+     * @param batch
+     * @param fromIndex
+     * @param toIndex
+     * @param target
+     * @param offset
+     * @return the offset after the frame
+     */
+    public static int encodeTagged(long tag, PhoneRecordBatch batch, int fromIndex, int toIndex, byte[] target, int offset) {
+        offset = writeVarLong(tag, target, offset);
+        int frameOffset = encode(batch, fromIndex, toIndex, target, offset + 4);
+        int frameLength = frameOffset - offset - 4;
+        target[offset] = (byte) (frameLength >>> 24);
+        target[offset + 1] = (byte) (frameLength >>> 16);
+        target[offset + 2] = (byte) (frameLength >>> 8);
+        target[offset + 3] = (byte) frameLength;
+        return frameOffset;
+    }
+
+    /**
+     * Read the tagged frames of a file whose tag is accepted, the beginning of a frame torn by a crash
+     * at the end of the file is ignored
+     * @param filePath
+     * @param acceptedTag
+     * @param visitor
+     * @return number of decoded records
+     * @throws IOException
+     */
+    public static long readTagged(Path filePath, LongPredicate acceptedTag, PhoneRecordVisitor visitor) throws IOException {
+        long count = 0;
+        try (FileWindow input = new FileWindow(filePath)) {
+            long tag;
+            while((tag = readTagHeader(input)) >= 0) {
+                int frameLength = input.buffer.getInt();
+                long frameEnd = input.position() + frameLength;
+                if(acceptedTag.test(tag)) {
+                    count += decodeFrame(input, visitor);
+                }
+                input.skip(frameEnd - input.position());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the length of the whole tagged frames at the beginning of a file, the bytes after it
+     * are the beginning of a frame torn by a crash
+     * @param filePath
+     * @return
+     * @throws IOException
+     */
+    public static long wholeTaggedLength(Path filePath) throws IOException {
+        try (FileWindow input = new FileWindow(filePath)) {
+            while(readTagHeader(input) >= 0) {
+                input.skip(input.buffer.getInt());
+            }
+            return input.position();
+        }
+    }
+
+    /**
+     * Read the tag of the next frame if the whole frame is in the file, the frame length is then the next 4 bytes
+     * of the buffer of the window
+     * @param input
+     * @return the tag, or -1 at the end of the whole frames
+     * @throws IOException
+     */
+    private static long readTagHeader(FileWindow input) throws IOException {
+        ByteBuffer buffer = input.ensure(MAX_TAG_BYTES);
+        if(buffer.remaining() < 5) {
+            //the end of the file or a header torn by a crash
+            return -1;
+        }
+        int start = buffer.position();
+        long tag;
+        try {
+            tag = readVarLong(buffer);
+        } catch(IllegalArgumentException ex) {
+            //torn in the tag
+            ((Buffer) buffer).position(start);
+            return -1;
+        }
+        if(buffer.remaining() < 4) {
+            ((Buffer) buffer).position(start);
+            return -1;
+        }
+        int frameLength = buffer.getInt(buffer.position());
+        if(frameLength < 0 || frameLength > input.remaining() - 4) {
+            //the frame is torn by a crash
+            ((Buffer) buffer).position(start);
+            return -1;
+        }
+        return tag;
+    }
+
+    /**
+     * Decode a frame from the position of a window
+     * @param input
+     * @param visitor
+     * @return number of decoded records
+     * @throws IOException
+     */
+    private static long decodeFrame(FileWindow input, PhoneRecordVisitor visitor) throws IOException {
+        long recordCount = readVarLong(input.ensure(MAX_COUNT_BYTES));
+        long phoneKey = 0;
+        long activationDay = 0;
+        for(long i = 0; i < recordCount; i++) {
+            ByteBuffer buffer = input.ensure(MAX_RECORD_BYTES);
+            phoneKey += readVarLong(buffer);
+            activationDay += unzigzag(readVarLong(buffer));
+            long deactivation = readVarLong(buffer);
+            int deactivationDay = deactivation == 0 ?
+                    EpochDays.NO_DATE : (int) (activationDay + unzigzag(deactivation - 1));
+            visitor.visit(phoneKey, (int) activationDay, deactivationDay);
+        }
+        return recordCount;
+    }
+
+    /**
+     * Read all frames of a file
+     * @param filePath
+     * @param visitor
+     * @return number of decoded records
+     * @throws IOException
+     */
+    public static long read(Path filePath, PhoneRecordVisitor visitor) throws IOException {
+        long count = 0;
+        try (FileWindow input = new FileWindow(filePath)) {
+            while(input.ensure(1).hasRemaining()) {
+                count += decodeFrame(input, visitor);
+            }
+        }
+        return count;
+    }
+
+    private static int writeVarLong(long value, byte[] target, int offset) {
+        while((value & ~0x7FL) != 0) {
+            target[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static long readVarLong(ByteBuffer input) {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            if(!input.hasRemaining()) {
+                throw new IllegalArgumentException("Truncated record at byte " + input.position());
+            }
+            byte b = input.get();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer at byte " + input.position());
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
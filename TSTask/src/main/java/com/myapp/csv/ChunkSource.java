@@ -0,0 +1,39 @@
+package com.myapp.csv;
+
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A source of the input as chunks of whole lines, the header line of the input is not part of any chunk.
+ * The input is split into ranges which can be read by different threads, the chunks of a range are read in order.
+ */
+public interface ChunkSource {
+
+    /**
+     * Receive a chunk of whole lines, the chunk is read from its position to its limit
+     */
+    @FunctionalInterface
+    interface ChunkConsumer {
+        void accept(ByteBuffer chunk) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Split the input into ranges of about the chunk size
+     * @param chunkBytes
+     * @return
+     * @throws IOException
+     */
+    List<RangeRead> split(long chunkBytes) throws IOException;
+
+    /**
+     * Read the chunks of a range
+     * @param rangeRead
+     * @param consumer
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    void read(RangeRead rangeRead, ChunkConsumer consumer) throws IOException, InterruptedException;
+}
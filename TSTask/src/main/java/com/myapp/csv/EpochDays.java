@@ -0,0 +1,125 @@
+package com.myapp.csv;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+
+/**
+ * Convert the dates between the ISO format yyyy-MM-dd and the number of days from the epoch 1970-01-01
+ * without creating the date objects.
+ */
+public class EpochDays {
+
+    /**
+     * The sentinel value for an absent date, e.g the deactivation date of a phone which is still active.
+     * It is greater than any valid day, so an absent deactivation date sorts after all other dates.
+     */
+    public static final int NO_DATE = Integer.MAX_VALUE;
+
+    /**
+     * The returned value of parsing invalid bytes
+     */
+    public static final int INVALID = Integer.MIN_VALUE;
+
+    /**
+     * Length of a date in the format yyyy-MM-dd
+     */
+    public static final int ISO_DATE_LENGTH = 10;
+
+    private EpochDays() {
+    }
+
+    /**
+     * Get the epoch day of a date, the fields must be a valid date.
+     * @param year
+     * @param month
+     * @param day
+     * @return
+     */
+    public static int of(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Parse a date in the format yyyy-MM-dd located at the index of the buffer.
+     * @param buffer
+     * @param index
+     * @return the epoch day, or {@link #INVALID} if the bytes are not a valid date
+     */
+    public static int parse(ByteBuffer buffer, int index) {
+        if(buffer.get(index + 4) != '-' || buffer.get(index + 7) != '-') {
+            return INVALID;
+        }
+        int year = digits(buffer, index, 4);
+        int month = digits(buffer, index + 5, 2);
+        int day = digits(buffer, index + 8, 2);
+        if(year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            return INVALID;
+        }
+        return of(year, month, day);
+    }
+
+    /**
+     * Write the epoch day in the format yyyy-MM-dd to the array.
+     * @param epochDay
+     * @param target
+     * @param offset
+     * @return the offset after the written date
+     */
+    public static int write(int epochDay, byte[] target, int offset) {
+        //the inverse of the conversion in the method of()
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        target[offset] = (byte) ('0' + year / 1000 % 10);
+        target[offset + 1] = (byte) ('0' + year / 100 % 10);
+        target[offset + 2] = (byte) ('0' + year / 10 % 10);
+        target[offset + 3] = (byte) ('0' + year % 10);
+        target[offset + 4] = '-';
+        target[offset + 5] = (byte) ('0' + month / 10);
+        target[offset + 6] = (byte) ('0' + month % 10);
+        target[offset + 7] = '-';
+        target[offset + 8] = (byte) ('0' + day / 10);
+        target[offset + 9] = (byte) ('0' + day % 10);
+        return offset + ISO_DATE_LENGTH;
+    }
+
+    public static LocalDate toLocalDate(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    public static int fromLocalDate(LocalDate date) {
+        return (int) date.toEpochDay();
+    }
+
+    private static int digits(ByteBuffer buffer, int index, int count) {
+        int value = 0;
+        for(int i = index; i < index + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if(digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        if(month == 2) {
+            boolean isLeapYear = (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+            return isLeapYear ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+}
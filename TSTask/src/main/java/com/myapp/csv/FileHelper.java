@@ -3,31 +3,75 @@ package com.myapp.csv;
 import com.myapp.task.RangeRead;
 
 import java.io.*;
-import java.nio.charset.Charset;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.time.Clock;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
-import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.Set;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 public class FileHelper {
 
+    /**
+     * Size of the buffer used to seek the line break around a byte offset
+     */
+    private static final int SEEK_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Size of the sample at the beginning of the file to estimate the number of records
+     */
+    private static final int SAMPLE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The estimated length of a line, used to size the batches before reading the lines
+     */
+    public static final int ESTIMATED_BYTES_PER_LINE = 32;
+
+    /**
+     * Maximum length of an encoded record line: the phone number, two dates, two separators and the line break
+     */
+    public static final int MAX_RECORD_LINE_BYTES = PhoneNumberCodec.MAX_DIGITS + 2 * EpochDays.ISO_DATE_LENGTH + 3;
+
+    /**
+     * Maximum size of a memory mapped window of the file
+     */
+    private static final long MAX_MAPPED_WINDOW_BYTES = 1L << 30;
+
+    /**
+     * The characters of a glob pattern in an input argument
+     */
+    private static final Pattern GLOB_CHARACTERS = Pattern.compile("[*?\\[{]");
+
     /**
      * Read records from an included start position to an excluded end position.
+     * Legacy API kept as a baseline of the parse benchmark only, the finder reads the records with {@link #readBatch}.
      * @param rangeRead
      * @return
      * @throws IOException
      */
     public static List<PhoneRecord> readRecords(Path filePath, RangeRead rangeRead) throws IOException {
+        if(rangeRead.isByteOffset()) {
+            return readRecordsInByteRange(filePath, rangeRead);
+        }
         return Files.lines(filePath)
                 .skip(rangeRead.getIncludeStartPos() - 1)
                 .limit(rangeRead.getExcludeEndPos() - rangeRead.getIncludeStartPos())
@@ -38,16 +82,273 @@ public class FileHelper {
     }
 
     /**
-     * Read all lines in file and convert them to phone records
+     * Split the file, excluding the header line, into ranges of byte offsets. Each range is about
+     * the chunk size and is aligned to the line boundaries, so the boundaries are computed once
+     * by seeking in the file instead of reading the whole content.
      * @param filePath
+     * @param chunkBytes
      * @return
      * @throws IOException
      */
-    public static List<PhoneRecord> readAllRecords(Path filePath) throws IOException {
-        return Files.lines(filePath).map(FileHelper::convertToRecord).collect(Collectors.toCollection(LinkedList::new));
+    public static List<RangeRead> splitByteRanges(Path filePath, long chunkBytes) throws IOException {
+        if(chunkBytes <= 0) {
+            throw new IllegalArgumentException("The chunk size must be greater than 0");
+        }
+        List<RangeRead> rangeReads = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            //skip the header line
+            long startOffset = nextLineStart(channel, 0, fileSize);
+            while(startOffset < fileSize) {
+                long endOffset = startOffset + chunkBytes >= fileSize ?
+                        fileSize : nextLineStart(channel, startOffset + chunkBytes - 1, fileSize);
+                rangeReads.add(RangeRead.ofBytes(startOffset, endOffset));
+                startOffset = endOffset;
+            }
+        }
+        return rangeReads;
+    }
+
+    /**
+     * Get the range of the first lines of the file following the header line, the range is at least
+     * the sample size in bytes unless the file is shorter, and is aligned to the line boundaries.
+     * @param filePath
+     * @param sampleBytes
+     * @return
+     * @throws IOException
+     */
+    public static RangeRead sampleByteRange(Path filePath, long sampleBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long startOffset = nextLineStart(channel, 0, fileSize);
+            long endOffset = startOffset + sampleBytes >= fileSize ?
+                    fileSize : nextLineStart(channel, startOffset + sampleBytes - 1, fileSize);
+            return RangeRead.ofBytes(startOffset, endOffset);
+        }
+    }
+
+    /**
+     * Estimate the number of records of the file from the average length of the lines at the beginning of the file.
+     * @param filePath
+     * @return
+     * @throws IOException
+     */
+    public static long estimateRecordCount(Path filePath) throws IOException {
+        if(GzipChunkSource.isGzip(filePath)) {
+            return estimateCompressedRecordCount(filePath);
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_BUFFER_SIZE);
+            int read = Math.max(channel.read(buffer, 0), 0);
+            long lineCount = 0;
+            for(int i = 0; i < read; i++) {
+                if(buffer.get(i) == '\n') {
+                    lineCount++;
+                }
+            }
+            if(lineCount == 0 || read < SAMPLE_BUFFER_SIZE) {
+                //the sample is the whole file, excluding the header line
+                return Math.max(lineCount - 1, 0) + (read > 0 && buffer.get(read - 1) != '\n' ? 1 : 0);
+            }
+            return channel.size() * lineCount / read;
+        }
     }
 
-    private static PhoneRecord convertToRecord(String line) {
+    /**
+     * Estimate the number of records of a gzip file from the lines inflated from the beginning of the file
+     * and the compressed bytes which they are inflated from.
+     * @param filePath
+     * @return
+     * @throws IOException
+     */
+    private static long estimateCompressedRecordCount(Path filePath) throws IOException {
+        long[] compressedBytes = {0};
+        InputStream compressed = new FilterInputStream(Files.newInputStream(filePath)) {
+            @Override
+            public int read() throws IOException {
+                int value = super.read();
+                compressedBytes[0] += value < 0 ? 0 : 1;
+                return value;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                int read = super.read(target, offset, length);
+                compressedBytes[0] += Math.max(read, 0);
+                return read;
+            }
+        };
+        try (InputStream in = new GZIPInputStream(compressed)) {
+            byte[] buffer = new byte[SAMPLE_BUFFER_SIZE];
+            int inflated = 0;
+            int read;
+            while(inflated < buffer.length && (read = in.read(buffer, inflated, buffer.length - inflated)) > 0) {
+                inflated += read;
+            }
+            long lineCount = 0;
+            for(int i = 0; i < inflated; i++) {
+                if(buffer[i] == '\n') {
+                    lineCount++;
+                }
+            }
+            if(lineCount == 0 || inflated < buffer.length) {
+                //the sample is the whole file, excluding the header line
+                return Math.max(lineCount - 1, 0) + (inflated > 0 && buffer[inflated - 1] != '\n' ? 1 : 0);
+            }
+            return Files.size(filePath) * lineCount / Math.max(1, compressedBytes[0]);
+        }
+    }
+
+    /**
+     * Open the chunk source of the input files, a multi file source if there are several files
+     * @param filePaths
+     * @param chunkBytes
+     * @param inflaterThreads
+     * @return
+     * @throws IOException
+     */
+    public static ChunkSource openChunkSource(List<Path> filePaths, long chunkBytes, int inflaterThreads) throws IOException {
+        if(filePaths.size() == 1) {
+            return openChunkSource(filePaths.get(0), chunkBytes, inflaterThreads);
+        }
+        return new MultiFileChunkSource(filePaths, chunkBytes, inflaterThreads);
+    }
+
+    /**
+     * Get the source of the chunks of a file, a gzip file is inflated while it is read
+     * @param filePath
+     * @param chunkBytes the inflated bytes of a chunk of a gzip file
+     * @param inflaterThreads number of threads inflating a block compressed gzip file
+     * @return
+     * @throws IOException
+     */
+    public static ChunkSource openChunkSource(Path filePath, long chunkBytes, int inflaterThreads) throws IOException {
+        if(GzipChunkSource.isGzip(filePath)) {
+            return new GzipChunkSource(filePath, (int) Math.min(chunkBytes, Integer.MAX_VALUE - 8 * 1024), inflaterThreads);
+        }
+        return new MappedChunkSource(filePath);
+    }
+
+    /**
+     * Find the offset of the line following the first line break at or after the given offset.
+     * @param channel
+     * @param fromOffset
+     * @param fileSize
+     * @return the offset of the next line, or the file size if there is no more line break
+     * @throws IOException
+     */
+    private static long nextLineStart(FileChannel channel, long fromOffset, long fileSize) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SEEK_BUFFER_SIZE);
+        long position = fromOffset;
+        while(position < fileSize) {
+            ((Buffer) buffer).clear();
+            int read = channel.read(buffer, position);
+            if(read <= 0) {
+                break;
+            }
+            for(int i = 0; i < read; i++) {
+                if(buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return fileSize;
+    }
+
+    /**
+     * Map a range of byte offsets of the file into memory. A mapped buffer is limited to 2 GB, so a large
+     * range is mapped into several windows, each window is aligned to the line boundaries.
+     * @param filePath
+     * @param rangeRead
+     * @return
+     * @throws IOException
+     */
+    public static List<MappedByteBuffer> mapRange(Path filePath, RangeRead rangeRead) throws IOException {
+        List<MappedByteBuffer> windows = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long startOffset = rangeRead.getIncludeStartPos();
+            long endOffset = Math.min(rangeRead.getExcludeEndPos(), channel.size());
+            while(startOffset < endOffset) {
+                long windowEnd = endOffset - startOffset <= MAX_MAPPED_WINDOW_BYTES ?
+                        endOffset : nextLineStart(channel, startOffset + MAX_MAPPED_WINDOW_BYTES - 1, endOffset);
+                if(windowEnd - startOffset > Integer.MAX_VALUE) {
+                    throw new IOException("The line at offset " + startOffset + " is too long to map");
+                }
+                windows.add(channel.map(FileChannel.MapMode.READ_ONLY, startOffset, windowEnd - startOffset));
+                startOffset = windowEnd;
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Parse the records of a range of byte offsets, only the slice of the range is mapped from the file.
+     * @param filePath
+     * @param rangeRead
+     * @param visitor
+     * @return number of parsed records
+     * @throws IOException
+     */
+    public static long parseRecords(Path filePath, RangeRead rangeRead, PhoneRecordVisitor visitor) throws IOException {
+        long count = 0;
+        for(MappedByteBuffer window : mapRange(filePath, rangeRead)) {
+            count += PhoneRecordParser.parse(window, visitor);
+        }
+        return count;
+    }
+
+    /**
+     * Read the records of a range of byte offsets into a columnar batch.
+     * @param filePath
+     * @param rangeRead
+     * @return
+     * @throws IOException
+     */
+    public static PhoneRecordBatch readBatch(Path filePath, RangeRead rangeRead) throws IOException {
+        PhoneRecordBatch batch = new PhoneRecordBatch((int) Math.min(rangeRead.getLength() / ESTIMATED_BYTES_PER_LINE + 1,
+                Integer.MAX_VALUE - 8));
+        parseRecords(filePath, rangeRead, batch);
+        return batch;
+    }
+
+    /**
+     * Read the records of a range of byte offsets.
+     * @param filePath
+     * @param rangeRead
+     * @return
+     * @throws IOException
+     */
+    private static List<PhoneRecord> readRecordsInByteRange(Path filePath, RangeRead rangeRead) throws IOException {
+        List<PhoneRecord> records = new LinkedList<>();
+        parseRecords(filePath, rangeRead, FileHelper.toRecords(records));
+        return records;
+    }
+
+    /**
+     * Get a visitor which converts the parsed values to phone records and add them to the list
+     * @param records
+     * @return
+     */
+    private static PhoneRecordVisitor toRecords(List<PhoneRecord> records) {
+        return (phoneKey, activationDay, deactivationDay) -> {
+            String phoneNumber = PhoneNumberCodec.decode(phoneKey);
+            LocalDate activateDate = EpochDays.toLocalDate(activationDay);
+            if(deactivationDay == EpochDays.NO_DATE) {
+                records.add(new PhoneRecord(phoneNumber, activateDate));
+            } else {
+                records.add(new PhoneRecord(phoneNumber, activateDate, EpochDays.toLocalDate(deactivationDay)));
+            }
+        };
+    }
+
+    /**
+     * Convert a csv line to a phone record, this is the line by line conversion of the ranges of line numbers.
+     * Legacy API public only for the parse benchmark, the finder parses the lines with {@link PhoneRecordParser}.
+     * @param line
+     * @return
+     */
+    public static PhoneRecord convertToRecord(String line) {
         List<String> rows = Pattern.compile(",").splitAsStream(line).collect(Collectors.toList());
         //required fields
         String phoneNumber = rows.get(0).trim();
@@ -63,103 +364,159 @@ public class FileHelper {
         }
         return new PhoneRecord(phoneNumber, activateDate, deactivateDate);
     }
+
     /**
-     * Write records by appending to the end of position.
-     * @param filePath
-     * @param records
-     * @throws IOException
+     * Encode a record of the batch as a line with format like: PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE
+     * @param batch
+     * @param index
+     * @param target
+     * @param offset
+     * @return the offset after the encoded line
      */
-    public static synchronized void writeRecords(Path filePath, List<PhoneRecord>records) throws IOException{
-
-        Function<PhoneRecord, String> toLine = (record) -> {
-            StringBuilder builder = new StringBuilder();
-            builder.append(record.getPhoneNumber());
-            builder.append(",");
-            builder.append(record.getActivateDate().toString());
-            builder.append(",");
-            if(record.getDeactivateDate().isPresent()) {
-                builder.append(record.getDeactivateDate().get().toString());
-            }
-            return builder.toString();
-        };
-
-        List<String> lines = records
-                .stream()
-                .map(toLine)
-                .collect(Collectors.toCollection(LinkedList::new));
-
-        Files.write(filePath, lines, StandardOpenOption.APPEND);
+    public static int encodeLine(PhoneRecordBatch batch, int index, byte[] target, int offset) {
+        offset = PhoneNumberCodec.write(batch.getPhoneKey(index), target, offset);
+        target[offset++] = ',';
+        offset = EpochDays.write(batch.getActivationDay(index), target, offset);
+        target[offset++] = ',';
+        if(batch.getDeactivationDay(index) != PhoneRecordBatch.NO_DEACTIVATION) {
+            offset = EpochDays.write(batch.getDeactivationDay(index), target, offset);
+        }
+        target[offset++] = '\n';
+        return offset;
     }
 
     /**
-     * Get if the file existed or create new file on the path
-     * @param filePathStr
+     * Resolve the input arguments into the input files: a directory stands for its regular files which are not hidden,
+     * a pattern with glob characters, e.g. data/2017-*.csv, stands for the matching regular files.
+     * A file given twice is read once, an input file is never created.
+     * @param inputs
      * @return
+     * @throws NoSuchFileException if an input file does not exist
      * @throws IOException
      */
-    public static Path getOrCreateFile(String filePathStr) throws IOException{
-        Path filePath = Paths.get(filePathStr);
-        if(Files.exists(filePath)) {
-            return filePath;
+    public static List<Path> resolveInputPaths(List<String> inputs) throws IOException {
+        Set<Path> inputPaths = new LinkedHashSet<>();
+        for(String input : inputs) {
+            List<Path> filePaths = new ArrayList<>();
+            if(isGlobPattern(input)) {
+                filePaths.addAll(findMatchingFiles(input));
+            } else if(Files.isDirectory(Paths.get(input))) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(Paths.get(input))) {
+                    for(Path entry : entries) {
+                        if(Files.isRegularFile(entry) && !entry.getFileName().toString().startsWith(".")) {
+                            filePaths.add(entry);
+                        }
+                    }
+                }
+            } else if(Files.isRegularFile(Paths.get(input))) {
+                filePaths.add(Paths.get(input));
+            } else {
+                throw new NoSuchFileException(input, null, "The input file is not found");
+            }
+            if(filePaths.isEmpty()) {
+                throw new IllegalArgumentException("No input file found for " + input);
+            }
+            filePaths.sort(null);
+            for(Path filePath : filePaths) {
+                inputPaths.add(filePath.toAbsolutePath().normalize());
+            }
         }
-        return Files.createFile(filePath);
+        return new ArrayList<>(inputPaths);
+    }
+
+    /**
+     * Get if the input argument is a glob pattern rather than a path
+     * @param input
+     * @return
+     */
+    public static boolean isGlobPattern(String input) {
+        return GLOB_CHARACTERS.matcher(input).find();
     }
 
-    public static  Path writeResults(Consumer<BufferedWriter> writerConsumer) throws IOException{
-        Path resultFilePath = FileHelper.getOrCreateFile(System.getProperty("java.io.tmpdir")
-                + File.separator + "Result_" + Clock.systemDefaultZone().millis() + ".csv");
-        OutputStream out = Files.newOutputStream(resultFilePath, StandardOpenOption.APPEND);
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")))) {
-            writer.append("PHONE_NUMBER,REAL_ACTIVATION_DATE");
-            writer.newLine();
+    /**
+     * Find the regular files matching a glob pattern, under the directory preceding the first glob character
+     */
+    private static List<Path> findMatchingFiles(String pattern) throws IOException {
+        Matcher globCharacter = GLOB_CHARACTERS.matcher(pattern);
+        int globStart = globCharacter.find() ? globCharacter.start() : pattern.length();
+        int separator = pattern.lastIndexOf(File.separatorChar, globStart);
+        Path baseDirectory = Paths.get(separator < 0 ? "." : pattern.substring(0, separator + 1));
+        String relativePattern = pattern.substring(separator + 1);
+        if(!Files.isDirectory(baseDirectory)) {
+            return new ArrayList<>();
+        }
+        //a single star does not cross the directories, so only a double star needs the whole tree
+        int maxDepth = relativePattern.contains("**") ? Integer.MAX_VALUE
+                : relativePattern.split(Pattern.quote(File.separator), -1).length;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+        try (Stream<Path> paths = Files.walk(baseDirectory, maxDepth)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(baseDirectory.relativize(path)))
+                    .collect(Collectors.toList());
+        }
+    }
 
-            writerConsumer.accept(writer);
+    /**
+     * Write the results to a new result file through a {@link ResultSink},
+     * the partially written file is deleted if the writing fails.
+     * @param orderedByPhone whether the results are written in ascending order of the phone numbers
+     * @param producer
+     * @return
+     * @throws IOException
+     */
+    public static Path writeResults(boolean orderedByPhone, ResultSink.Producer producer) throws IOException{
+        Path resultFilePath = createResultFile();
+        try (ResultSink sink = new ResultSink(resultFilePath, orderedByPhone)) {
+            producer.produce(sink);
+        } catch(IOException | RuntimeException ex) {
+            Files.deleteIfExists(resultFilePath);
+            if(ex instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex).getCause();
+            }
+            throw ex;
         }
         return resultFilePath;
 
     }
     /**
-     *
-     * @param folderPathStr
+     * Create a new result file under the temporary directory, its name is unique even for runs started
+     * in the same millisecond
      * @return
      * @throws IOException
      */
-    public static Path getOrCreateFolder(String folderPathStr) throws IOException{
-        Path folderPath = Paths.get(folderPathStr);
-        if(Files.exists(folderPath)) {
-            return folderPath;
-        }
-        return Files.createDirectories(folderPath);
+    public static Path createResultFile() throws IOException {
+        return Files.createTempFile("Result_", ".csv");
     }
 
     /**
      *
-     * @param filePathStr
      * @return
      * @throws IOException
      */
-    public static boolean isExistedPath(String filePathStr) throws IOException {
-        return Files.exists(Paths.get(filePathStr));
+    public static Path getSeparationFolderPath() throws IOException {
+        return Files.createTempDirectory("PhoneSeparator_");
     }
+
     /**
-     *
+     * Get a new folder for the sorted run files
      * @return
      * @throws IOException
      */
-    public static Path getSeparationFolderPath() throws IOException {
-        return FileHelper.getOrCreateFolder(System.getProperty("java.io.tmpdir")
-                + File.separator + "PhoneSeparator_" + Clock.systemDefaultZone().millis());
+    public static Path getSortedRunFolderPath() throws IOException {
+        return Files.createTempDirectory("SortedRuns_");
     }
 
     /**
-     * Get or create a phone number file path in which is under the separation folder
-     * @param separationFolderPath
-     * @param phoneNumber
-     * @return
+     * Delete a folder and the files directly under it
+     * @param folderPath
      * @throws IOException
      */
-    public static synchronized Path getOrCreatePhonePath(Path separationFolderPath, String phoneNumber) throws IOException{
-        String filePathStr = separationFolderPath.toString() + File.separator + phoneNumber + ".csv";
-        return FileHelper.getOrCreateFile(filePathStr);
+    public static void deleteFolder(Path folderPath) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folderPath)) {
+            for(Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(folderPath);
     }
 }
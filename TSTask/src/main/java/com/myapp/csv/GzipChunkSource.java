@@ -0,0 +1,379 @@
+package com.myapp.csv;
+
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Read a gzip compressed input file. A block compressed file (BGZF, a gzip member per block of at most 64 KB
+ * with the block size in the extra field of its header) is inflated by groups of blocks in parallel, the groups
+ * are consumed in order. Any other gzip file, single or multi member, is inflated as one stream by the thread
+ * reading the range, so the inflating overlaps with the parsing of the previous chunks by the other threads.
+ * The input is read as a single range whatever the chunk size, the chunks are cut at the line boundaries
+ * of the inflated bytes.
+ */
+public class GzipChunkSource implements ChunkSource {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    /**
+     * Size of the fixed part of a gzip member header
+     */
+    private static final int HEADER_BYTES = 12;
+
+    /**
+     * Size of the gzip member footer: the CRC32 and the size of the inflated data
+     */
+    private static final int FOOTER_BYTES = 8;
+
+    /**
+     * The flag of the extra field in a gzip member header
+     */
+    private static final int FLAG_EXTRA = 4;
+
+    /**
+     * The compressed bytes of a group of blocks inflated by one task
+     */
+    private static final int GROUP_COMPRESSED_BYTES = 1024 * 1024;
+
+    /**
+     * The free bytes at the beginning of an inflated chunk, the partial line at the end of the previous chunk
+     * is copied in front of the chunk instead of copying the whole chunk
+     */
+    private static final int HEADROOM_BYTES = 4 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Path filePath;
+
+    /**
+     * The inflated bytes of a chunk of a single stream file
+     */
+    private int chunkBytes;
+
+    /**
+     * Number of threads inflating the blocks of a block compressed file
+     */
+    private int inflaterThreads;
+
+    /**
+     *
+     * @param filePath
+     * @param chunkBytes
+     * @param inflaterThreads
+     */
+    public GzipChunkSource(Path filePath, int chunkBytes, int inflaterThreads) {
+        this.filePath = filePath;
+        this.chunkBytes = chunkBytes;
+        this.inflaterThreads = inflaterThreads;
+    }
+
+    /**
+     * Whether a file starts with the gzip magic number
+     * @param filePath
+     * @return
+     * @throws IOException
+     */
+    public static boolean isGzip(Path filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(2);
+            return channel.read(buffer, 0) == 2 && ((buffer.get(0) & 0xff) | (buffer.get(1) & 0xff) << 8) == GZIP_MAGIC;
+        }
+    }
+
+    /**
+     * The compressed stream can not be split without inflating it, so the whole file is a single range
+     * @param chunkBytes
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public List<RangeRead> split(long chunkBytes) throws IOException {
+        return Collections.singletonList(RangeRead.ofBytes(0, Files.size(this.filePath)));
+    }
+
+    @Override
+    public void read(RangeRead rangeRead, ChunkConsumer consumer) throws IOException, InterruptedException {
+        LineAligner aligner = new LineAligner(consumer);
+        List<long[]> blocks = this.inflaterThreads > 1 ? this.readBlocks() : null;
+        if(blocks == null) {
+            this.inflateStream(aligner);
+        } else {
+            this.inflateBlocks(blocks, aligner);
+        }
+        aligner.finish();
+    }
+
+    /**
+     * Inflate the file as one stream into chunks
+     * @param aligner
+     */
+    private void inflateStream(LineAligner aligner) throws IOException, InterruptedException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(this.filePath), BUFFER_SIZE)) {
+            while(true) {
+                byte[] buffer = new byte[HEADROOM_BYTES + this.chunkBytes];
+                int end = HEADROOM_BYTES;
+                int read;
+                while(end < buffer.length && (read = in.read(buffer, end, buffer.length - end)) > 0) {
+                    end += read;
+                }
+                if(end == HEADROOM_BYTES) {
+                    return;
+                }
+                aligner.accept(buffer, HEADROOM_BYTES, end);
+            }
+        }
+    }
+
+    /**
+     * Read the headers of the blocks of a block compressed file
+     * @return the offset, the size, the inflated size and the offset of the compressed data of each block, or null if the file is not block compressed
+     * @throws IOException
+     */
+    private List<long[]> readBlocks() throws IOException {
+        List<long[]> blocks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(this.filePath, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            ByteBuffer extra = ByteBuffer.allocate(0xffff);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+            long offset = 0;
+            while(offset < fileSize) {
+                ((Buffer) header).clear();
+                if(channel.read(header, offset) != HEADER_BYTES || unsignedShort(header, 0) != GZIP_MAGIC
+                        || (header.get(3) & FLAG_EXTRA) == 0) {
+                    return null;
+                }
+                int extraLength = unsignedShort(header, 10);
+                ((Buffer) extra).clear();
+                ((Buffer) extra).limit(extraLength);
+                if(channel.read(extra, offset + HEADER_BYTES) != extraLength) {
+                    return null;
+                }
+                int blockSize = -1;
+                for(int i = 0; i + 4 <= extraLength; i += 4 + unsignedShort(extra, i + 2)) {
+                    if(extra.get(i) == 'B' && extra.get(i + 1) == 'C' && unsignedShort(extra, i + 2) == 2) {
+                        blockSize = unsignedShort(extra, i + 4) + 1;
+                    }
+                }
+                if(blockSize < HEADER_BYTES + extraLength + FOOTER_BYTES || offset + blockSize > fileSize) {
+                    return null;
+                }
+                ((Buffer) footer).clear();
+                channel.read(footer, offset + blockSize - FOOTER_BYTES);
+                long inflatedSize = littleEndianInt(footer, 4) & 0xffffffffL;
+                blocks.add(new long[]{offset, blockSize, inflatedSize, HEADER_BYTES + extraLength});
+                offset += blockSize;
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Inflate the groups of blocks in parallel and pass the inflated groups to the aligner in order,
+     * the number of groups in flight is bounded.
+     * @param blocks
+     * @param aligner
+     */
+    private void inflateBlocks(List<long[]> blocks, LineAligner aligner) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(this.inflaterThreads, runnable -> {
+            Thread thread = new Thread(runnable, "gzip-inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<byte[]>> inflatedGroups = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(this.filePath, StandardOpenOption.READ)) {
+            int fromBlock = 0;
+            while(fromBlock < blocks.size()) {
+                int toBlock = fromBlock;
+                long compressedBytes = 0;
+                while(toBlock < blocks.size() && compressedBytes < GROUP_COMPRESSED_BYTES) {
+                    compressedBytes += blocks.get(toBlock++)[1];
+                }
+                List<long[]> group = blocks.subList(fromBlock, toBlock);
+                inflatedGroups.add(executor.submit(() -> inflateGroup(channel, group)));
+                if(inflatedGroups.size() >= 2 * this.inflaterThreads) {
+                    byte[] inflated = takeGroup(inflatedGroups);
+                    aligner.accept(inflated, HEADROOM_BYTES, inflated.length);
+                }
+                fromBlock = toBlock;
+            }
+            while(!inflatedGroups.isEmpty()) {
+                byte[] inflated = takeGroup(inflatedGroups);
+                aligner.accept(inflated, HEADROOM_BYTES, inflated.length);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] takeGroup(Deque<Future<byte[]>> inflatedGroups) throws IOException, InterruptedException {
+        try {
+            return inflatedGroups.poll().get();
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Inflate a group of consecutive blocks and check the CRC32 and the size of each block
+     * @param channel
+     * @param group
+     * @return the inflated bytes following the headroom
+     * @throws IOException
+     */
+    private static byte[] inflateGroup(FileChannel channel, List<long[]> group) throws IOException {
+        long firstOffset = group.get(0)[0];
+        long[] lastBlock = group.get(group.size() - 1);
+        ByteBuffer compressed = ByteBuffer.allocate((int) (lastBlock[0] + lastBlock[1] - firstOffset));
+        while(compressed.hasRemaining()) {
+            if(channel.read(compressed, firstOffset + compressed.position()) < 0) {
+                throw new IOException("Unexpected end of file " + firstOffset);
+            }
+        }
+        long inflatedSize = 0;
+        for(long[] block : group) {
+            inflatedSize += block[2];
+        }
+        byte[] inflated = new byte[(int) (HEADROOM_BYTES + inflatedSize)];
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            int position = HEADROOM_BYTES;
+            for(long[] block : group) {
+                int dataOffset = (int) (block[0] - firstOffset + block[3]);
+                int dataLength = (int) (block[1] - block[3] - FOOTER_BYTES);
+                inflater.reset();
+                inflater.setInput(compressed.array(), dataOffset, dataLength);
+                int blockEnd = position + (int) block[2];
+                while(position < blockEnd && !inflater.finished()) {
+                    int inflatedBytes = inflater.inflate(inflated, position, blockEnd - position);
+                    if(inflatedBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    position += inflatedBytes;
+                }
+                crc.reset();
+                crc.update(inflated, blockEnd - (int) block[2], (int) block[2]);
+                int footerOffset = dataOffset + dataLength;
+                if(position != blockEnd || (int) crc.getValue() != littleEndianInt(compressed, footerOffset)) {
+                    throw new IOException("Corrupted gzip block at offset " + block[0]);
+                }
+            }
+        } catch(DataFormatException ex) {
+            throw new IOException("Corrupted gzip block in the group at offset " + firstOffset, ex);
+        } finally {
+            inflater.end();
+        }
+        return inflated;
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xff) | (buffer.get(index + 1) & 0xff) << 8;
+    }
+
+    private static int littleEndianInt(ByteBuffer buffer, int index) {
+        return unsignedShort(buffer, index) | unsignedShort(buffer, index + 2) << 16;
+    }
+
+    /**
+     * Cut the inflated bytes into chunks of whole lines, the header line is skipped.
+     * The partial line at the end of a chunk is kept and prepended to the next chunk in its headroom.
+     */
+    private static class LineAligner {
+
+        private ChunkConsumer consumer;
+
+        private byte[] carry = new byte[HEADROOM_BYTES];
+
+        private int carryLength;
+
+        private boolean headerSkipped;
+
+        LineAligner(ChunkConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        /**
+         * Accept the inflated bytes of a chunk
+         * @param bytes the bytes before the offset are free
+         * @param offset
+         * @param end
+         */
+        void accept(byte[] bytes, int offset, int end) throws IOException, InterruptedException {
+            int lastLineEnd = end;
+            while(lastLineEnd > offset && bytes[lastLineEnd - 1] != '\n') {
+                lastLineEnd--;
+            }
+            if(lastLineEnd == offset) {
+                appendCarry(bytes, offset, end);
+                return;
+            }
+            byte[] chunk = bytes;
+            int start = offset - this.carryLength;
+            int chunkEnd = lastLineEnd;
+            if(start < 0) {
+                //the partial line does not fit in the headroom
+                chunk = new byte[this.carryLength + lastLineEnd - offset];
+                System.arraycopy(bytes, offset, chunk, this.carryLength, lastLineEnd - offset);
+                start = 0;
+                chunkEnd = chunk.length;
+            }
+            System.arraycopy(this.carry, 0, chunk, start, this.carryLength);
+            this.carryLength = 0;
+            if(!this.headerSkipped) {
+                while(chunk[start++] != '\n') {
+                    //skip the header line
+                }
+                this.headerSkipped = true;
+            }
+            if(start < chunkEnd) {
+                this.consumer.accept(ByteBuffer.wrap(chunk, start, chunkEnd - start));
+            }
+            appendCarry(bytes, lastLineEnd, end);
+        }
+
+        /**
+         * Pass the last line without line break
+         */
+        void finish() throws IOException, InterruptedException {
+            if(this.headerSkipped && this.carryLength > 0) {
+                this.consumer.accept(ByteBuffer.wrap(Arrays.copyOf(this.carry, this.carryLength)));
+            }
+            this.carryLength = 0;
+        }
+
+        private void appendCarry(byte[] bytes, int from, int to) {
+            int length = to - from;
+            if(this.carryLength + length > this.carry.length) {
+                this.carry = Arrays.copyOf(this.carry, Math.max(2 * this.carry.length, this.carryLength + length));
+            }
+            System.arraycopy(bytes, from, this.carry, this.carryLength, length);
+            this.carryLength += length;
+        }
+    }
+}
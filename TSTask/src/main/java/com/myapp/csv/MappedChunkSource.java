@@ -0,0 +1,39 @@
+package com.myapp.csv;
+
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Read a plain input file by mapping the ranges of byte offsets aligned to the line boundaries into memory.
+ */
+public class MappedChunkSource implements ChunkSource {
+
+    private Path filePath;
+
+    public MappedChunkSource(Path filePath) {
+        this.filePath = filePath;
+    }
+
+    @Override
+    public List<RangeRead> split(long chunkBytes) throws IOException {
+        return FileHelper.splitByteRanges(this.filePath, chunkBytes);
+    }
+
+    /**
+     * Map the windows of the range and load them, so the consumer does not wait for the disk
+     * @param rangeRead
+     * @param consumer
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Override
+    public void read(RangeRead rangeRead, ChunkConsumer consumer) throws IOException, InterruptedException {
+        for(MappedByteBuffer window : FileHelper.mapRange(this.filePath, rangeRead)) {
+            consumer.accept(window.load());
+        }
+    }
+}
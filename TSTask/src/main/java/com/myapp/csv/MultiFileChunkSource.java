@@ -0,0 +1,65 @@
+package com.myapp.csv;
+
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read an input of several files, each file has its own header line and is read by its own source,
+ * see {@link FileHelper#openChunkSource(Path, long, int)}. The ranges of all files are split into one list,
+ * so the ranges of small and large files share the same work queue, and each range holds its file.
+ */
+public class MultiFileChunkSource implements ChunkSource {
+
+    /**
+     * The source of each file in the order of the input
+     */
+    private Map<Path, ChunkSource> fileSources = new LinkedHashMap<>();
+
+    /**
+     *
+     * @param filePaths
+     * @param chunkBytes
+     * @param inflaterThreads the threads inflating a compressed file
+     * @throws IOException
+     */
+    public MultiFileChunkSource(List<Path> filePaths, long chunkBytes, int inflaterThreads) throws IOException {
+        for(Path filePath : filePaths) {
+            this.fileSources.put(filePath, FileHelper.openChunkSource(filePath, chunkBytes, inflaterThreads));
+        }
+    }
+
+    /**
+     * Split every file into ranges, the ranges are ordered from the longest to the shortest
+     * so the short ranges balance the threads at the end of the run
+     * @param chunkBytes
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public List<RangeRead> split(long chunkBytes) throws IOException {
+        List<RangeRead> rangeReads = new ArrayList<>();
+        for(Map.Entry<Path, ChunkSource> fileSource : this.fileSources.entrySet()) {
+            for(RangeRead rangeRead : fileSource.getValue().split(chunkBytes)) {
+                rangeReads.add(rangeRead.withFile(fileSource.getKey()));
+            }
+        }
+        rangeReads.sort(Comparator.comparingLong(RangeRead::getLength).reversed());
+        return rangeReads;
+    }
+
+    @Override
+    public void read(RangeRead rangeRead, ChunkConsumer consumer) throws IOException, InterruptedException {
+        ChunkSource fileSource = this.fileSources.get(rangeRead.getFilePath());
+        if(fileSource == null) {
+            throw new IllegalArgumentException("The range " + rangeRead + " is not a range of the input files");
+        }
+        fileSource.read(rangeRead, consumer);
+    }
+}
@@ -0,0 +1,286 @@
+package com.myapp.csv;
+
+import com.myapp.metrics.RunMetrics;
+import com.myapp.metrics.Stage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append the records of the partitions to a file per partition under a folder, the records are encoded
+ * by the {@link BinaryRecordCodec} and read back with {@link BinaryRecordCodec#read(Path, PhoneRecordVisitor)}. The partitions are striped by
+ * their index, each stripe has its own lock, its own buffers and its own LRU pool of open channels, so the threads
+ * only contend when they write partitions of the same stripe. The records of a partition are buffered and appended in
+ * large batches, either when the buffer of the partition is full or when the buffers of the stripe exceed its budget.
+ * The pools hold a channel per partition up to a maximum of open files, so the channels are not reopened
+ * on every flush unless there are more partitions than the maximum.
+ */
+public class PartitionWriter implements Closeable {
+
+    public static final int DEFAULT_STRIPE_COUNT = 64;
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 4096;
+
+    /**
+     * The prefix of the names of the partition files
+     */
+    public static final String PARTITION_PREFIX = "bucket_";
+
+    /**
+     * The tag of the frames appended without tag
+     */
+    public static final long NO_TAG = -1;
+
+    /**
+     * Size of the buffer of a partition which triggers the flush of the partition
+     */
+    private static final int PARTITION_FLUSH_BYTES = 16 * 1024;
+
+    /**
+     * Total size of the buffers of a stripe which triggers the flush of the stripe
+     */
+    private static final int STRIPE_BUFFER_BUDGET_BYTES = 1024 * 1024;
+
+    private Path folderPath;
+
+    private Stripe[] stripes;
+
+    /**
+     * The buffers and the open channels of the partitions of a stripe, guarded by the stripe itself
+     */
+    private static class Stripe {
+
+        private Map<Integer, PartitionBuffer> buffers = new HashMap<>();
+
+        /**
+         * The open channels in access order, the eldest is closed when the pool is full
+         */
+        private LinkedHashMap<Integer, FileChannel> openChannels = new LinkedHashMap<>(16, 0.75f, true);
+
+        private int maxOpenChannels;
+
+        /**
+         * The partitions whose channel was closed by an eviction since the last sync
+         */
+        private Set<Integer> unsyncedPartitions = new HashSet<>();
+
+        private int bufferedBytes;
+
+        Stripe(int maxOpenChannels) {
+            this.maxOpenChannels = maxOpenChannels;
+        }
+    }
+
+    /**
+     * The encoded records of a partition waiting to be appended
+     */
+    private static class PartitionBuffer {
+
+        private byte[] bytes = new byte[256];
+
+        private int length;
+
+        void ensureCapacity(int extraBytes) {
+            if(length + extraBytes > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, length + extraBytes)];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+        }
+    }
+
+    /**
+     *
+     * @param folderPath
+     * @param partitionCount
+     */
+    public PartitionWriter(Path folderPath, int partitionCount) {
+        this(folderPath, partitionCount, DEFAULT_STRIPE_COUNT, DEFAULT_MAX_OPEN_FILES);
+    }
+
+    /**
+     *
+     * @param folderPath
+     * @param partitionCount
+     * @param stripeCount
+     * @param maxOpenFiles the maximum number of open channels of all stripes
+     */
+    public PartitionWriter(Path folderPath, int partitionCount, int stripeCount, int maxOpenFiles) {
+        this.folderPath = folderPath;
+        this.stripes = new Stripe[Math.max(1, Math.min(stripeCount, partitionCount))];
+        //the partitions of a stripe are every stripe count partition, so each pool fits its partitions if it can
+        int partitionsPerStripe = (partitionCount + this.stripes.length - 1) / this.stripes.length;
+        int maxOpenChannels = Math.max(1, Math.min(partitionsPerStripe, maxOpenFiles / this.stripes.length));
+        for(int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(maxOpenChannels);
+        }
+    }
+
+    /**
+     * Get the name of the file of a partition under the folder
+     * @param partition
+     * @return
+     */
+    public static String getPartitionFileName(int partition) {
+        return PARTITION_PREFIX + partition + ".bin";
+    }
+
+    /**
+     * Get the path of the file of a partition
+     * @param partition
+     * @return
+     */
+    public Path getPartitionPath(int partition) {
+        return folderPath.resolve(getPartitionFileName(partition));
+    }
+
+    /**
+     * Append the records of a batch sorted by phone from an included start index to an excluded end index
+     * to the partition.
+     * @param partition
+     * @param batch
+     * @param fromIndex
+     * @param toIndex
+     * @throws IOException
+     */
+    public void append(int partition, PhoneRecordBatch batch, int fromIndex, int toIndex) throws IOException {
+        append(partition, batch, fromIndex, toIndex, NO_TAG);
+    }
+
+    /**
+     * Append the records of a batch sorted by phone from an included start index to an excluded end index
+     * to the partition as a tagged frame, see {@link BinaryRecordCodec#encodeTagged}.
+     * @param partition
+     * @param batch
+     * @param fromIndex
+     * @param toIndex
+     * @param frameTag the tag of the frame, {@link #NO_TAG} to append a frame without tag
+     * @throws IOException
+     */
+    public void append(int partition, PhoneRecordBatch batch, int fromIndex, int toIndex, long frameTag) throws IOException {
+        Stripe stripe = stripes[partition % stripes.length];
+        synchronized (stripe) {
+            PartitionBuffer buffer = stripe.buffers.computeIfAbsent(partition, key -> new PartitionBuffer());
+            int lengthBefore = buffer.length;
+            buffer.ensureCapacity(BinaryRecordCodec.MAX_TAG_BYTES + BinaryRecordCodec.maxFrameBytes(toIndex - fromIndex));
+            buffer.length = frameTag == NO_TAG ?
+                    BinaryRecordCodec.encode(batch, fromIndex, toIndex, buffer.bytes, buffer.length) :
+                    BinaryRecordCodec.encodeTagged(frameTag, batch, fromIndex, toIndex, buffer.bytes, buffer.length);
+            stripe.bufferedBytes += buffer.length - lengthBefore;
+            if(buffer.length >= PARTITION_FLUSH_BYTES) {
+                flush(stripe, partition, buffer);
+                stripe.buffers.remove(partition);
+            }
+            if(stripe.bufferedBytes >= STRIPE_BUFFER_BUDGET_BYTES) {
+                flushStripe(stripe);
+            }
+        }
+    }
+
+    /**
+     * Append all buffered records to the files, the records appended before the call are in the files
+     * when it returns and survive a crash of the process. The channels are kept open.
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        for(Stripe stripe : stripes) {
+            synchronized (stripe) {
+                flushStripe(stripe);
+            }
+        }
+    }
+
+    /**
+     * Append all buffered records to the files and force the files to the storage device, the records appended
+     * before the call survive a crash of the operating system or a power loss when it returns.
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        for(Stripe stripe : stripes) {
+            synchronized (stripe) {
+                flushStripe(stripe);
+                for(Map.Entry<Integer, FileChannel> entry : stripe.openChannels.entrySet()) {
+                    entry.getValue().force(false);
+                    stripe.unsyncedPartitions.remove(entry.getKey());
+                }
+                for(int partition : stripe.unsyncedPartitions) {
+                    try (FileChannel channel = FileChannel.open(getPartitionPath(partition), StandardOpenOption.WRITE)) {
+                        channel.force(false);
+                    }
+                }
+                stripe.unsyncedPartitions.clear();
+            }
+        }
+        //the entries of the files created since the last sync are in the folder, some platforms can not open a folder
+        try (FileChannel folder = FileChannel.open(folderPath, StandardOpenOption.READ)) {
+            folder.force(true);
+        } catch(IOException ex) {
+            //the folder can not be forced on this platform
+        }
+    }
+
+    /**
+     * Append all buffered records and close the open channels
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        for(Stripe stripe : stripes) {
+            synchronized (stripe) {
+                flushStripe(stripe);
+                for(FileChannel channel : stripe.openChannels.values()) {
+                    channel.close();
+                }
+                stripe.openChannels.clear();
+            }
+        }
+    }
+
+    private void flushStripe(Stripe stripe) throws IOException {
+        Iterator<Map.Entry<Integer, PartitionBuffer>> entries = stripe.buffers.entrySet().iterator();
+        while(entries.hasNext()) {
+            Map.Entry<Integer, PartitionBuffer> entry = entries.next();
+            flush(stripe, entry.getKey(), entry.getValue());
+            entries.remove();
+        }
+    }
+
+    private void flush(Stripe stripe, int partition, PartitionBuffer buffer) throws IOException {
+        FileChannel channel = stripe.openChannels.get(partition);
+        if(channel == null) {
+            if(stripe.openChannels.size() >= stripe.maxOpenChannels) {
+                //the appended bytes of the eldest channel are lost if it fails to close, so the error is thrown
+                Iterator<Map.Entry<Integer, FileChannel>> eldest = stripe.openChannels.entrySet().iterator();
+                Map.Entry<Integer, FileChannel> eldestEntry = eldest.next();
+                int eldestPartition = eldestEntry.getKey();
+                FileChannel eldestChannel = eldestEntry.getValue();
+                eldest.remove();
+                eldestChannel.close();
+                stripe.unsyncedPartitions.add(eldestPartition);
+            }
+            channel = FileChannel.open(getPartitionPath(partition), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            stripe.openChannels.put(partition, channel);
+        }
+        long startNanos = System.nanoTime();
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.bytes, 0, buffer.length);
+        while(bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        RunMetrics metrics = RunMetrics.current();
+        metrics.recordStage(Stage.WRITE_PARTITION, startNanos);
+        metrics.addTempBytesWritten(buffer.length);
+        stripe.bufferedBytes -= buffer.length;
+        buffer.length = 0;
+    }
+}
@@ -0,0 +1,138 @@
+package com.myapp.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encode a phone number of digits to a long key and decode it back. The key keeps the leading zeros
+ * and the order of keys is the same as the lexicographic order of the phone numbers, so the keys can be
+ * sorted and compared instead of the strings.
+ * The digits are padded on the right to the maximum length, shifted and the length is stored in the lowest 4 bits.
+ * A phone number is 1 to {@value #MAX_DIGITS} ASCII digits, the E.164 number without its leading '+'. A '+', spaces,
+ * dashes, parentheses or more digits are not accepted, such a number is encoded as {@link #INVALID}.
+ */
+public class PhoneNumberCodec {
+
+    /**
+     * Maximum number of digits of a phone number following E.164
+     */
+    public static final int MAX_DIGITS = 15;
+
+    /**
+     * The returned value of encoding invalid characters
+     */
+    public static final long INVALID = -1L;
+
+    private static final int LENGTH_BITS = 4;
+
+    private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for(int i = 1; i <= MAX_DIGITS; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private PhoneNumberCodec() {
+    }
+
+    /**
+     * Encode the digits from an included start index to an excluded end index of the buffer.
+     * @param buffer
+     * @param fromIndex
+     * @param toIndex
+     * @return the key, or {@link #INVALID} if the bytes are not a phone number
+     */
+    public static long encode(ByteBuffer buffer, int fromIndex, int toIndex) {
+        int length = toIndex - fromIndex;
+        if(length <= 0 || length > MAX_DIGITS) {
+            return INVALID;
+        }
+        long value = 0;
+        for(int i = fromIndex; i < toIndex; i++) {
+            int digit = buffer.get(i) - '0';
+            if(digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return toKey(value, length);
+    }
+
+    /**
+     * Encode a phone number string
+     * @param phoneNumber
+     * @return the key, or {@link #INVALID} if the string is not a phone number
+     */
+    public static long encode(CharSequence phoneNumber) {
+        int length = phoneNumber.length();
+        if(length == 0 || length > MAX_DIGITS) {
+            return INVALID;
+        }
+        long value = 0;
+        for(int i = 0; i < length; i++) {
+            int digit = phoneNumber.charAt(i) - '0';
+            if(digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return toKey(value, length);
+    }
+
+    /**
+     * Decode the key to the phone number string
+     * @param key
+     * @return
+     */
+    public static String decode(long key) {
+        byte[] digits = new byte[MAX_DIGITS];
+        int length = write(key, digits, 0);
+        return new String(digits, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Write the digits of the phone number to the array.
+     * @param key
+     * @param target
+     * @param offset
+     * @return the offset after the written digits
+     */
+    public static int write(long key, byte[] target, int offset) {
+        int length = length(key);
+        long value = (key >>> LENGTH_BITS) / POWERS_OF_TEN[MAX_DIGITS - length];
+        for(int i = offset + length - 1; i >= offset; i--) {
+            target[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + length;
+    }
+
+    /**
+     * Get the number of digits of the phone number
+     * @param key
+     * @return
+     */
+    public static int length(long key) {
+        return (int) (key & LENGTH_MASK);
+    }
+
+    /**
+     * Get the partition of a phone key among a number of partitions, the keys are spread evenly
+     * even when the phone numbers share long prefixes.
+     * @param key
+     * @param partitionCount
+     * @return
+     */
+    public static int partition(long key, int partitionCount) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (((hash >>> 32) * partitionCount) >>> 32);
+    }
+
+    private static long toKey(long value, int length) {
+        return (value * POWERS_OF_TEN[MAX_DIGITS - length]) << LENGTH_BITS | length;
+    }
+}
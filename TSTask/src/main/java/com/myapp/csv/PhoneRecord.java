@@ -1,12 +1,13 @@
 package com.myapp.csv;
 
 import java.time.LocalDate;
+import java.util.Objects;
 import java.util.Optional;
 
 /**
  * Represent a record in csv file with format like: PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE
  */
-public class PhoneRecord implements Comparable {
+public class PhoneRecord implements Comparable<PhoneRecord> {
 
     /**
      * Phone number field
@@ -52,24 +53,26 @@ public class PhoneRecord implements Comparable {
     }
 
     /**
-     * Compare the record with the same phone number in descending order.
-     * @param that
+     * Compare the records in a consistent total order: ascending order of the phone number, then descending order
+     * of the activation date, then descending order of the deactivation date in which an absent deactivation date
+     * is the latest. So the records of a phone are contiguous and the latest record comes first.
+     * @param other
      * @return
      */
     @Override
-    public int compareTo(Object that) {
-        PhoneRecord other = (PhoneRecord) that;
-        Optional<LocalDate> deactivateDateOpt = this.getDeactivateDate();
-        if (deactivateDateOpt.isPresent()) {
-            LocalDate deactivateDate = deactivateDateOpt.get();
-            if (deactivateDate.isEqual(other.getActivateDate()) || deactivateDate.isBefore(other.getActivateDate())) {
-                return 1;
-            } else {
-                return -1;
-            }
-        } else {
-            return -1;
+    public int compareTo(PhoneRecord other) {
+        int result = this.getPhoneNumber().compareTo(other.getPhoneNumber());
+        if(result != 0) {
+            return result;
+        }
+        result = other.getActivateDate().compareTo(this.getActivateDate());
+        if(result != 0) {
+            return result;
         }
+        if(this.getDeactivateDate().isPresent() && other.getDeactivateDate().isPresent()) {
+            return other.getDeactivateDate().get().compareTo(this.getDeactivateDate().get());
+        }
+        return Boolean.compare(this.getDeactivateDate().isPresent(), other.getDeactivateDate().isPresent());
     }
 
     @Override
@@ -79,46 +82,11 @@ public class PhoneRecord implements Comparable {
 
         PhoneRecord record = (PhoneRecord) o;
 
-        if (getPhoneNumber() != null ? !getPhoneNumber().equals(record.getPhoneNumber()) : record.getPhoneNumber() != null)
-            return false;
-        if (getActivateDate() != null ? !getActivateDate().isEqual(record.getActivateDate()) : record.getActivateDate() != null)
-            return false;
-        if(getDeactivateDate() != null && record.getDeactivateDate() != null) {
-            if(getDeactivateDate().isPresent() && record.getDeactivateDate().isPresent()) {
-                if(getDeactivateDate().get().isEqual(record.getDeactivateDate().get())){
-                    return true;
-                }
-            }
-        }
-        return false;
+        return Objects.equals(getPhoneNumber(), record.getPhoneNumber())
+                && Objects.equals(getActivateDate(), record.getActivateDate())
+                && Objects.equals(getDeactivateDate(), record.getDeactivateDate());
     }
 
-    /**
-     * Check the record  whether or not the consecutive greater than other record.
-     * @param other
-     * @return boolean
-     */
-    public boolean isConsecutiveAndGreaterThan(PhoneRecord other) {
-        if(other.getDeactivateDate().isPresent()) {
-            if(this.getActivateDate().isEqual(other.getDeactivateDate().get())){
-                return true;
-            }
-        }
-        return false;
-    }
-    /**
-     * Check the record whether or not the not consecutive and greater than other record.
-     * @param other
-     * @return
-     */
-    public boolean isNotConsecutiveAndGreaterThan(PhoneRecord other) {
-        if(other.getDeactivateDate().isPresent()) {
-            if(this.getActivateDate().isAfter(other.getDeactivateDate().get())) {
-                return true;
-            }
-        }
-        return false;
-    }
     @Override
     public int hashCode() {
         int result = getPhoneNumber() != null ? getPhoneNumber().hashCode() : 0;
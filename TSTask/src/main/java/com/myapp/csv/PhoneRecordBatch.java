@@ -0,0 +1,214 @@
+package com.myapp.csv;
+
+import com.myapp.task.IntervalMergeKernel;
+
+import java.util.Arrays;
+
+/**
+ * A columnar batch of phone records, each record is stored as primitive values: the phone key encoded by
+ * {@link PhoneNumberCodec}, the epoch day of the activation date and the epoch day of the deactivation date,
+ * which is {@link #NO_DEACTIVATION} if the phone is still active.
+ * A record takes 16 bytes instead of the objects of a {@link PhoneRecord}.
+ */
+public class PhoneRecordBatch implements PhoneRecordVisitor {
+
+    /**
+     * The deactivation day of a phone which is still active
+     */
+    public static final int NO_DEACTIVATION = EpochDays.NO_DATE;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private long[] phoneKeys;
+
+    private int[] activationDays;
+
+    private int[] deactivationDays;
+
+    private int size;
+
+    public PhoneRecordBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PhoneRecordBatch(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        this.phoneKeys = new long[capacity];
+        this.activationDays = new int[capacity];
+        this.deactivationDays = new int[capacity];
+    }
+
+    /**
+     * Add a record to the end of the batch
+     * @param phoneKey
+     * @param activationDay
+     * @param deactivationDay
+     */
+    public void add(long phoneKey, int activationDay, int deactivationDay) {
+        if(this.size == this.phoneKeys.length) {
+            grow();
+        }
+        this.phoneKeys[this.size] = phoneKey;
+        this.activationDays[this.size] = activationDay;
+        this.deactivationDays[this.size] = deactivationDay;
+        this.size++;
+    }
+
+    /**
+     * Add all records of another batch to the end of the batch
+     * @param other
+     */
+    public void addAll(PhoneRecordBatch other) {
+        addAll(other, 0, other.size);
+    }
+
+    /**
+     * Add the records of another batch from an included start index to an excluded end index to the end of the batch
+     * @param other
+     * @param fromIndex
+     * @param toIndex
+     */
+    public void addAll(PhoneRecordBatch other, int fromIndex, int toIndex) {
+        for(int index = fromIndex; index < toIndex; index++) {
+            add(other.phoneKeys[index], other.activationDays[index], other.deactivationDays[index]);
+        }
+    }
+
+    /**
+     * Copy the records to the target batch grouped by the partition of their phone keys,
+     * see {@link PhoneNumberCodec#partition(long, int)}. The order of the records within a partition is kept.
+     * @param partitionCount
+     * @param target an empty batch
+     * @return the start index of each partition in the target batch, followed by the size of the target batch
+     */
+    public int[] partitionInto(int partitionCount, PhoneRecordBatch target) {
+        int[] partitionOfRecords = new int[this.size];
+        int[] partitionStarts = new int[partitionCount + 1];
+        for(int index = 0; index < this.size; index++) {
+            partitionOfRecords[index] = PhoneNumberCodec.partition(phoneKeys[index], partitionCount);
+            partitionStarts[partitionOfRecords[index] + 1]++;
+        }
+        for(int i = 0; i < partitionCount; i++) {
+            partitionStarts[i + 1] += partitionStarts[i];
+        }
+        //counting sort of the records by partition
+        int[] nextPositions = Arrays.copyOf(partitionStarts, partitionCount);
+        target.ensureCapacity(this.size);
+        for(int index = 0; index < this.size; index++) {
+            int position = nextPositions[partitionOfRecords[index]]++;
+            target.phoneKeys[position] = phoneKeys[index];
+            target.activationDays[position] = activationDays[index];
+            target.deactivationDays[position] = deactivationDays[index];
+        }
+        target.size = this.size;
+        return partitionStarts;
+    }
+
+    @Override
+    public void visit(long phoneKey, int activationDay, int deactivationDay) {
+        add(phoneKey, activationDay, deactivationDay);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public long getPhoneKey(int index) {
+        return phoneKeys[index];
+    }
+
+    public int getActivationDay(int index) {
+        return activationDays[index];
+    }
+
+    public int getDeactivationDay(int index) {
+        return deactivationDays[index];
+    }
+
+    /**
+     * Sort the records in ascending order of the phone key, then the activation day, then the deactivation day,
+     * so the records of a phone are contiguous and ordered by time.
+     */
+    public void sort() {
+        IntervalMergeKernel.sort(phoneKeys, activationDays, deactivationDays, 0, this.size);
+    }
+
+    /**
+     * Get the excluded end index of the records having the same phone key as the record at the index,
+     * the batch must be sorted.
+     * @param fromIndex
+     * @return
+     */
+    public int phoneGroupEnd(int fromIndex) {
+        long phoneKey = phoneKeys[fromIndex];
+        int index = fromIndex + 1;
+        while(index < this.size && phoneKeys[index] == phoneKey) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Merge the consecutive records of a sorted phone group in place, see {@link IntervalMergeKernel}.
+     * The merged records are stored from the included start index, the records after the returned index
+     * until the excluded end index are obsolete.
+     * @param fromIndex
+     * @param toIndex
+     * @return the excluded end index of the merged records
+     */
+    public int mergeConsecutive(int fromIndex, int toIndex) {
+        return IntervalMergeKernel.mergeConsecutive(activationDays, deactivationDays, fromIndex, toIndex);
+    }
+
+    /**
+     * Sort the batch and merge the consecutive records of every phone, so each phone keeps only
+     * its chains of consecutive records. This bounds the size of a batch which accumulates the records of many ranges.
+     */
+    public void compact() {
+        sort();
+        int writeIndex = 0;
+        int fromIndex = 0;
+        while(fromIndex < this.size) {
+            int toIndex = phoneGroupEnd(fromIndex);
+            int mergedToIndex = mergeConsecutive(fromIndex, toIndex);
+            for(int index = fromIndex; index < mergedToIndex; index++, writeIndex++) {
+                phoneKeys[writeIndex] = phoneKeys[index];
+                activationDays[writeIndex] = activationDays[index];
+                deactivationDays[writeIndex] = deactivationDays[index];
+            }
+            fromIndex = toIndex;
+        }
+        this.size = writeIndex;
+    }
+
+    /**
+     * Find the real activation day of a sorted phone group, see {@link IntervalMergeKernel}.
+     * @param fromIndex
+     * @param toIndex
+     * @return
+     */
+    public int findActivationDay(int fromIndex, int toIndex) {
+        return IntervalMergeKernel.findActivationDay(activationDays, deactivationDays, fromIndex, toIndex);
+    }
+
+    private void grow() {
+        ensureCapacity(this.phoneKeys.length + (this.phoneKeys.length >> 1) + 1);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity <= this.phoneKeys.length) {
+            return;
+        }
+        this.phoneKeys = Arrays.copyOf(this.phoneKeys, capacity);
+        this.activationDays = Arrays.copyOf(this.activationDays, capacity);
+        this.deactivationDays = Arrays.copyOf(this.deactivationDays, capacity);
+    }
+}
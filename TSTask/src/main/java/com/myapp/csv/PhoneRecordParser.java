@@ -0,0 +1,114 @@
+package com.myapp.csv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parse the lines with format like: PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE directly from the bytes
+ * of a buffer (e.g a memory mapped slice of the file) into primitive values, without creating any intermediate object.
+ * Spaces around the fields and the carriage return at the end of a line are ignored, blank lines are skipped.
+ * The phone number is accepted as {@link PhoneNumberCodec} encodes it: 1 to 15 digits without any '+', space or dash.
+ * The dates are ISO dates yyyy-MM-dd. A malformed line throws an IllegalArgumentException, which fails the run.
+ */
+public class PhoneRecordParser {
+
+    private PhoneRecordParser() {
+    }
+
+    /**
+     * Parse all lines from the position to the limit of the buffer, the buffer position is not changed.
+     * @param buffer
+     * @param visitor
+     * @return number of parsed records
+     */
+    public static long parse(ByteBuffer buffer, PhoneRecordVisitor visitor) {
+        int limit = buffer.limit();
+        int index = buffer.position();
+        long count = 0;
+        while(index < limit) {
+            index = skipSpaces(buffer, index, limit);
+            if(index < limit && buffer.get(index) == '\n') {
+                index++;
+                continue;
+            }
+            if(index >= limit) {
+                break;
+            }
+            //phone number
+            int phoneStart = index;
+            while(index < limit && isDigit(buffer.get(index))) {
+                index++;
+            }
+            long phoneKey = PhoneNumberCodec.encode(buffer, phoneStart, index);
+            if(phoneKey == PhoneNumberCodec.INVALID) {
+                throw invalidRecord(buffer, phoneStart, "phone number");
+            }
+            index = expectSeparator(buffer, index, limit);
+            //activation date, required field
+            index = skipSpaces(buffer, index, limit);
+            int activationDay = parseDate(buffer, index, limit);
+            if(activationDay == EpochDays.INVALID) {
+                throw invalidRecord(buffer, index, "activation date");
+            }
+            index = skipSpaces(buffer, index + EpochDays.ISO_DATE_LENGTH, limit);
+            //deactivation date, optional field
+            int deactivationDay = EpochDays.NO_DATE;
+            if(index < limit && buffer.get(index) == ',') {
+                index = skipSpaces(buffer, index + 1, limit);
+                if(index < limit && buffer.get(index) != '\n') {
+                    deactivationDay = parseDate(buffer, index, limit);
+                    if(deactivationDay == EpochDays.INVALID) {
+                        throw invalidRecord(buffer, index, "deactivation date");
+                    }
+                    index = skipSpaces(buffer, index + EpochDays.ISO_DATE_LENGTH, limit);
+                }
+            }
+            if(index < limit) {
+                if(buffer.get(index) != '\n') {
+                    throw invalidRecord(buffer, index, "end of line");
+                }
+                index++;
+            }
+            visitor.visit(phoneKey, activationDay, deactivationDay);
+            count++;
+        }
+        return count;
+    }
+
+    private static int parseDate(ByteBuffer buffer, int index, int limit) {
+        if(index + EpochDays.ISO_DATE_LENGTH > limit) {
+            return EpochDays.INVALID;
+        }
+        return EpochDays.parse(buffer, index);
+    }
+
+    private static int expectSeparator(ByteBuffer buffer, int index, int limit) {
+        index = skipSpaces(buffer, index, limit);
+        if(index >= limit || buffer.get(index) != ',') {
+            throw invalidRecord(buffer, index, "separator");
+        }
+        return index + 1;
+    }
+
+    /**
+     * Skip the spaces, tabs and carriage returns
+     */
+    private static int skipSpaces(ByteBuffer buffer, int index, int limit) {
+        while(index < limit) {
+            byte value = buffer.get(index);
+            if(value != ' ' && value != '\t' && value != '\r') {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isDigit(byte value) {
+        return value >= '0' && value <= '9';
+    }
+
+    private static IllegalArgumentException invalidRecord(ByteBuffer buffer, int index, String field) {
+        return new IllegalArgumentException("Invalid " + field + " at byte " + index
+                + " of the buffer with limit " + buffer.limit());
+    }
+}
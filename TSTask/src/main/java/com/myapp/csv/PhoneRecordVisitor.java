@@ -0,0 +1,16 @@
+package com.myapp.csv;
+
+/**
+ * Receive the fields of the parsed records as primitive values
+ */
+@FunctionalInterface
+public interface PhoneRecordVisitor {
+
+    /**
+     * Visit a parsed record
+     * @param phoneKey the phone number encoded by {@link PhoneNumberCodec}
+     * @param activationDay the epoch day of the activation date
+     * @param deactivationDay the epoch day of the deactivation date, or {@link EpochDays#NO_DATE} if absent
+     */
+    void visit(long phoneKey, int activationDay, int deactivationDay);
+}
@@ -0,0 +1,314 @@
+package com.myapp.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The sink of the result lines with format like: PHONE_NUMBER,REAL_ACTIVATION_DATE. It can be written by many threads
+ * at the same time without any lock: each thread encodes its lines into its own byte buffer, and a full buffer is
+ * written at a position reserved atomically in the file, so the lines never interleave.
+ * A task calls {@link #release()} when it has written its results, so its buffer is flushed and reused by the next
+ * task instead of staying with its thread until the sink is closed.
+ * When the output is ordered by phone, the results are kept in memory per thread and written in ascending order
+ * of the phone numbers when the sink is closed: the results of the threads are sorted in parallel, then merged.
+ * All results are then held in the heap until the sink is closed, about 16 bytes per phone.
+ */
+public class ResultSink implements Closeable {
+
+    /**
+     * Produce the results into the sink
+     */
+    @FunctionalInterface
+    public interface Producer {
+        void produce(ResultSink sink) throws IOException;
+    }
+
+    public static final String HEADER = "PHONE_NUMBER,REAL_ACTIVATION_DATE\n";
+
+    /**
+     * Size of the byte buffer of each thread
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximum length of a result line: the phone number, the date, the separator and the line break
+     */
+    private static final int MAX_LINE_BYTES = PhoneNumberCodec.MAX_DIGITS + EpochDays.ISO_DATE_LENGTH + 2;
+
+    private FileChannel channel;
+
+    /**
+     * The next position to write in the file
+     */
+    private AtomicLong nextPosition;
+
+    private boolean orderedByPhone;
+
+    /**
+     * The buffer of the current thread, the thread does not keep it once released
+     */
+    private ThreadLocal<LocalBuffer> localBuffer = new ThreadLocal<>();
+
+    /**
+     * The buffers held by threads, flushed when the sink is closed
+     */
+    private Set<LocalBuffer> heldBuffers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The released byte buffers, reused by the next threads
+     */
+    private Queue<LocalBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The results of the released buffers when the output is ordered by phone
+     */
+    private Queue<PhoneRecordBatch> releasedResults = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The results of a thread
+     */
+    private class LocalBuffer {
+
+        private byte[] bytes;
+
+        private int length;
+
+        /**
+         * The results kept in memory when the output is ordered by phone
+         */
+        private PhoneRecordBatch results;
+
+        LocalBuffer() {
+            if(orderedByPhone) {
+                this.results = new PhoneRecordBatch();
+            } else {
+                this.bytes = new byte[BUFFER_SIZE];
+            }
+        }
+    }
+
+    /**
+     * Create the result file and write the header line
+     * @param resultPath
+     * @param orderedByPhone
+     * @throws IOException
+     */
+    public ResultSink(Path resultPath, boolean orderedByPhone) throws IOException {
+        this.orderedByPhone = orderedByPhone;
+        this.channel = FileChannel.open(resultPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        byte[] header = HEADER.getBytes(StandardCharsets.UTF_8);
+        this.nextPosition = new AtomicLong(header.length);
+        writeFully(header, header.length, 0);
+    }
+
+    /**
+     * Write the result of a phone
+     * @param phoneKey the phone number encoded by {@link PhoneNumberCodec}
+     * @param activationDay the epoch day of the real activation date
+     * @throws UncheckedIOException if a full buffer cannot be written
+     */
+    public void write(long phoneKey, int activationDay) {
+        LocalBuffer buffer = localBuffer.get();
+        if(buffer == null) {
+            buffer = acquireBuffer();
+        }
+        if(orderedByPhone) {
+            buffer.results.add(phoneKey, activationDay, PhoneRecordBatch.NO_DEACTIVATION);
+            return;
+        }
+        if(buffer.length + MAX_LINE_BYTES > buffer.bytes.length) {
+            flush(buffer);
+        }
+        buffer.length = encodeLine(phoneKey, activationDay, buffer.bytes, buffer.length);
+    }
+
+    /**
+     * Write the result of a phone
+     * @param phoneNumber
+     * @param activationDay the epoch day of the real activation date
+     */
+    public void write(String phoneNumber, int activationDay) {
+        long phoneKey = PhoneNumberCodec.encode(phoneNumber);
+        if(phoneKey == PhoneNumberCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid phone number: " + phoneNumber);
+        }
+        write(phoneKey, activationDay);
+    }
+
+    /**
+     * Release the buffer of the current thread once its task has written its results: the lines are written to the
+     * file, or the results kept for the merge when the output is ordered, and the buffer is given to the next task.
+     * @throws UncheckedIOException if the lines cannot be written
+     */
+    public void release() {
+        LocalBuffer buffer = localBuffer.get();
+        if(buffer == null) {
+            return;
+        }
+        localBuffer.remove();
+        heldBuffers.remove(buffer);
+        if(orderedByPhone) {
+            if(!buffer.results.isEmpty()) {
+                releasedResults.add(buffer.results);
+            }
+            return;
+        }
+        flush(buffer);
+        freeBuffers.add(buffer);
+    }
+
+    /**
+     * Write the remaining results of all threads and close the file, the threads must have finished writing.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if(orderedByPhone) {
+                writeOrderedResults();
+            } else {
+                for(LocalBuffer buffer : heldBuffers) {
+                    flush(buffer);
+                }
+            }
+        } catch(UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            //a thread which has not released its buffer may keep it in its thread locals, so only an empty one is left
+            for(LocalBuffer buffer : heldBuffers) {
+                buffer.bytes = null;
+                buffer.results = null;
+            }
+            heldBuffers.clear();
+            freeBuffers.clear();
+            releasedResults.clear();
+            channel.close();
+        }
+    }
+
+    /**
+     * Take a released buffer, or create one, for the current thread
+     */
+    private LocalBuffer acquireBuffer() {
+        LocalBuffer buffer = orderedByPhone ? null : freeBuffers.poll();
+        if(buffer == null) {
+            buffer = new LocalBuffer();
+        }
+        heldBuffers.add(buffer);
+        localBuffer.set(buffer);
+        return buffer;
+    }
+
+    /**
+     * Sort the results of every thread in parallel, then merge the sorted results of the threads into the file,
+     * so the results are neither copied into one batch nor sorted by a single thread
+     */
+    private void writeOrderedResults() {
+        List<PhoneRecordBatch> runs = new ArrayList<>(releasedResults);
+        for(LocalBuffer buffer : heldBuffers) {
+            if(!buffer.results.isEmpty()) {
+                runs.add(buffer.results);
+            }
+        }
+        runs.parallelStream().forEach(PhoneRecordBatch::sort);
+        //the next index of each run, the heap holds the runs not merged yet ordered by the phone key of their next index
+        int[] nextIndexes = new int[runs.size()];
+        int[] heap = new int[runs.size()];
+        long[] heapKeys = new long[runs.size()];
+        int heapSize = runs.size();
+        for(int run = 0; run < heapSize; run++) {
+            heap[run] = run;
+            heapKeys[run] = runs.get(run).getPhoneKey(0);
+        }
+        for(int node = heapSize / 2 - 1; node >= 0; node--) {
+            siftDown(heap, heapKeys, heapSize, node);
+        }
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int length = 0;
+        while(heapSize > 0) {
+            int run = heap[0];
+            PhoneRecordBatch results = runs.get(run);
+            int index = nextIndexes[run]++;
+            if(length + MAX_LINE_BYTES > bytes.length) {
+                writeFully(bytes, length, nextPosition.getAndAdd(length));
+                length = 0;
+            }
+            length = encodeLine(results.getPhoneKey(index), results.getActivationDay(index), bytes, length);
+            if(nextIndexes[run] < results.size()) {
+                heapKeys[0] = results.getPhoneKey(nextIndexes[run]);
+            } else {
+                heapSize--;
+                heap[0] = heap[heapSize];
+                heapKeys[0] = heapKeys[heapSize];
+            }
+            siftDown(heap, heapKeys, heapSize, 0);
+        }
+        writeFully(bytes, length, nextPosition.getAndAdd(length));
+    }
+
+    /**
+     * Move a node of a binary min heap of run indexes down to its place, the keys are the phone keys of the runs
+     */
+    private static void siftDown(int[] heap, long[] heapKeys, int heapSize, int node) {
+        int run = heap[node];
+        long key = heapKeys[node];
+        int child;
+        while((child = 2 * node + 1) < heapSize) {
+            if(child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if(key <= heapKeys[child]) {
+                break;
+            }
+            heap[node] = heap[child];
+            heapKeys[node] = heapKeys[child];
+            node = child;
+        }
+        heap[node] = run;
+        heapKeys[node] = key;
+    }
+
+    private void flush(LocalBuffer buffer) {
+        if(buffer.length == 0) {
+            return;
+        }
+        writeFully(buffer.bytes, buffer.length, nextPosition.getAndAdd(buffer.length));
+        buffer.length = 0;
+    }
+
+    /**
+     * Write the bytes at the position, the positional write does not take the lock of the channel position
+     */
+    private void writeFully(byte[] bytes, int length, long position) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        try {
+            while(buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static int encodeLine(long phoneKey, int activationDay, byte[] target, int offset) {
+        offset = PhoneNumberCodec.write(phoneKey, target, offset);
+        target[offset++] = ',';
+        offset = EpochDays.write(activationDay, target, offset);
+        target[offset++] = '\n';
+        return offset;
+    }
+}
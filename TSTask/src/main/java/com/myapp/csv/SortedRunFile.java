@@ -0,0 +1,148 @@
+package com.myapp.csv;
+
+import com.myapp.metrics.RunMetrics;
+import com.myapp.metrics.Stage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A run file holds the records of a sorted batch in a compact binary format: each record is the phone key,
+ * the activation day and the deactivation day in fixed width, 16 bytes per record.
+ * The runs are merged by streaming through them with a {@link Reader} per run, a merged run is written
+ * record by record with a {@link Writer}.
+ */
+public class SortedRunFile {
+
+    /**
+     * Size of the buffer of each run reader and writer
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int RECORD_BYTES = 16;
+
+    private SortedRunFile() {
+    }
+
+    /**
+     * Write the records of a sorted batch to a run file
+     * @param filePath
+     * @param batch
+     * @throws IOException
+     */
+    public static void write(Path filePath, PhoneRecordBatch batch) throws IOException {
+        try (Writer writer = new Writer(filePath)) {
+            for(int index = 0; index < batch.size(); index++) {
+                writer.write(batch.getPhoneKey(index), batch.getActivationDay(index), batch.getDeactivationDay(index));
+            }
+        }
+    }
+
+    /**
+     * Write the records of a run file one by one, the records must be written in sorted order.
+     */
+    public static class Writer implements Closeable {
+
+        private DataOutputStream out;
+
+        private long recordCount;
+
+        private long startNanos = System.nanoTime();
+
+        public Writer(Path filePath) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(filePath), BUFFER_SIZE));
+        }
+
+        /**
+         * Write the next record
+         * @param phoneKey
+         * @param activationDay
+         * @param deactivationDay
+         * @throws IOException
+         */
+        public void write(long phoneKey, int activationDay, int deactivationDay) throws IOException {
+            out.writeLong(phoneKey);
+            out.writeInt(activationDay);
+            out.writeInt(deactivationDay);
+            recordCount++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            RunMetrics metrics = RunMetrics.current();
+            metrics.recordStage(Stage.WRITE_PARTITION, startNanos);
+            metrics.addTempBytesWritten(recordCount * RECORD_BYTES);
+        }
+    }
+
+    /**
+     * Read the records of a run file one by one, the fields of the current record are kept as primitive values.
+     */
+    public static class Reader implements Closeable, Comparable<Reader> {
+
+        private DataInputStream in;
+
+        private long phoneKey;
+
+        private int activationDay;
+
+        private int deactivationDay;
+
+        public Reader(Path filePath) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filePath), BUFFER_SIZE));
+        }
+
+        /**
+         * Move to the next record
+         * @return false if there is no more record
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+            try {
+                this.phoneKey = in.readLong();
+            } catch(EOFException ex) {
+                return false;
+            }
+            this.activationDay = in.readInt();
+            this.deactivationDay = in.readInt();
+            return true;
+        }
+
+        public long getPhoneKey() {
+            return phoneKey;
+        }
+
+        public int getActivationDay() {
+            return activationDay;
+        }
+
+        public int getDeactivationDay() {
+            return deactivationDay;
+        }
+
+        /**
+         * Compare the current records of the readers by the phone key, then the activation day, then the deactivation day
+         * @param other
+         * @return
+         */
+        @Override
+        public int compareTo(Reader other) {
+            int result = Long.compare(this.phoneKey, other.phoneKey);
+            if(result != 0) {
+                return result;
+            }
+            result = Integer.compare(this.activationDay, other.activationDay);
+            if(result != 0) {
+                return result;
+            }
+            return Integer.compare(this.deactivationDay, other.deactivationDay);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.myapp.engine;
+
+import com.myapp.csv.ResultSink;
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An engine aggregates the records of the ranges by phone number, finds the real activation date of each phone
+ * and writes the results to the sink.
+ */
+public interface AggregationEngine {
+
+    /**
+     * Process the ranges of the input file
+     * @param rangeReads
+     * @param sink
+     * @throws IOException
+     */
+    void execute(List<RangeRead> rangeReads, ResultSink sink) throws IOException;
+
+    /**
+     * Publish the state kept by the engine for the next runs, once the results are written
+     * @throws IOException
+     */
+    default void commit() throws IOException {
+    }
+
+    /**
+     * Drop the state kept by the engine for the next runs, when the results fail to be written
+     * @throws IOException
+     */
+    default void rollback() throws IOException {
+    }
+}
@@ -0,0 +1,33 @@
+package com.myapp.engine;
+
+/**
+ * The modes of aggregating the records by phone number
+ */
+public enum EngineMode {
+    /**
+     * Choose the in memory engine when the estimated records fit in the heap budget,
+     * otherwise spill the records to sorted runs
+     */
+    AUTO,
+    /**
+     * Aggregate all records in memory, see {@link InMemoryAggregationEngine}
+     */
+    IN_MEMORY,
+    /**
+     * Spill the records to sorted run files and merge them, see {@link ExternalSortEngine}
+     */
+    EXTERNAL_SORT,
+    /**
+     * Read an input sorted by phone number in a single pass, see {@link StreamingEngine}
+     */
+    STREAMING,
+    /**
+     * Separate the records to hash bucket files of the phone numbers, see {@link SeparationEngine}
+     */
+    SEPARATION,
+    /**
+     * Apply a delta file to the persisted state of the phones and write only the changed phones,
+     * see {@link IncrementalEngine}
+     */
+    INCREMENTAL
+}
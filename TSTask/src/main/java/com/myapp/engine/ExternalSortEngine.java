@@ -0,0 +1,228 @@
+package com.myapp.engine;
+
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.ResultSink;
+import com.myapp.csv.SortedRunFile;
+import com.myapp.metrics.RunMetrics;
+import com.myapp.metrics.Stage;
+import com.myapp.task.IntervalMergeKernel;
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The engine spills the records to sorted run files for inputs larger than the heap. Each range is sorted
+ * by the phone key and the activation day, its consecutive records are merged and it is written as a run.
+ * A k-way merge then streams through the runs, so the records of a phone arrive together and in order,
+ * and the real activation date is found without keeping more than one record per run. At most a fan-in of runs
+ * is merged at once: while there are more runs, groups of runs are merged into intermediate runs first.
+ * The memory use and the open files are bounded by the ranges being sorted at the same time and the fan-in
+ * whatever the input size.
+ */
+public class ExternalSortEngine implements AggregationEngine {
+
+    public static final int DEFAULT_MERGE_FAN_IN = 64;
+
+    /**
+     * Receive the merged records in order
+     */
+    @FunctionalInterface
+    private interface MergedRecordConsumer {
+        void accept(long phoneKey, int activationDay, int deactivationDay) throws IOException;
+    }
+
+    /**
+     * Find the real activation date of the merged records of each phone, the result of a phone is written
+     * when the next phone starts
+     */
+    private static class PhoneResolver implements MergedRecordConsumer {
+
+        private ResultSink sink;
+
+        private boolean hasPhone;
+
+        private long phoneKey;
+
+        private int activationDay;
+
+        private int chainDeactivationDay;
+
+        PhoneResolver(ResultSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void accept(long nextPhoneKey, int nextActivationDay, int deactivationDay) {
+            if(!hasPhone || nextPhoneKey != phoneKey) {
+                finish();
+                phoneKey = nextPhoneKey;
+                activationDay = nextActivationDay;
+                chainDeactivationDay = deactivationDay;
+                hasPhone = true;
+            } else {
+                activationDay = IntervalMergeKernel.nextActivationDay(activationDay,
+                        chainDeactivationDay, nextActivationDay);
+                chainDeactivationDay = IntervalMergeKernel.nextChainDeactivationDay(chainDeactivationDay,
+                        nextActivationDay, deactivationDay);
+            }
+        }
+
+        void finish() {
+            if(hasPhone) {
+                sink.write(phoneKey, activationDay);
+            }
+        }
+    }
+
+    /**
+     * The pipeline reading and parsing the ranges of the input file
+     */
+    private StagedPipeline pipeline;
+
+    /**
+     * The maximum number of runs merged at once
+     */
+    private int mergeFanIn;
+
+    /**
+     *
+     * @param pipeline
+     */
+    public ExternalSortEngine(StagedPipeline pipeline) {
+        this(pipeline, DEFAULT_MERGE_FAN_IN);
+    }
+
+    /**
+     *
+     * @param pipeline
+     * @param mergeFanIn the maximum number of runs merged at once, at least 2
+     */
+    public ExternalSortEngine(StagedPipeline pipeline, int mergeFanIn) {
+        if(mergeFanIn < 2) {
+            throw new IllegalArgumentException("The merge fan-in must be at least 2");
+        }
+        this.pipeline = pipeline;
+        this.mergeFanIn = mergeFanIn;
+    }
+
+    /**
+     * Write a sorted run per range, then merge the runs and write the results to the sink
+     * @param rangeReads
+     * @param sink
+     * @throws IOException
+     */
+    @Override
+    public void execute(List<RangeRead> rangeReads, ResultSink sink) throws IOException {
+        Path runFolderPath = FileHelper.getSortedRunFolderPath();
+        try {
+            List<Path> runPaths = this.writeSortedRuns(rangeReads, runFolderPath);
+            runPaths = this.mergeIntermediateRuns(runPaths, runFolderPath);
+            long startNanos = System.nanoTime();
+            this.resolveRuns(runPaths, sink);
+            RunMetrics.current().recordStage(Stage.RESOLVE, startNanos);
+        } finally {
+            FileHelper.deleteFolder(runFolderPath);
+        }
+    }
+
+    /**
+     * Sort and merge the consecutive records of each batch in the aggregator stage, and write it as a run
+     * in the writer stage.
+     * @param rangeReads
+     * @param runFolderPath
+     * @return the paths of the run files
+     * @throws IOException
+     */
+    private List<Path> writeSortedRuns(List<RangeRead> rangeReads, Path runFolderPath) throws IOException {
+        AtomicInteger runIndex = new AtomicInteger(0);
+        List<Path> runPaths = Collections.synchronizedList(new ArrayList<>());
+        this.pipeline.run(rangeReads, batch -> {
+            batch.compact();
+            return batch;
+        }, batch -> {
+            Path runPath = runFolderPath.resolve("run_" + runIndex.getAndIncrement() + ".bin");
+            SortedRunFile.write(runPath, batch);
+            runPaths.add(runPath);
+        });
+        return runPaths;
+    }
+
+    /**
+     * Merge groups of at most the fan-in of runs into intermediate runs, pass after pass, until
+     * the remaining runs can be merged at once. The merged runs are deleted.
+     * @param runPaths
+     * @param runFolderPath
+     * @return the paths of the remaining runs
+     * @throws IOException
+     */
+    private List<Path> mergeIntermediateRuns(List<Path> runPaths, Path runFolderPath) throws IOException {
+        int pass = 0;
+        while(runPaths.size() > this.mergeFanIn) {
+            List<Path> mergedPaths = new ArrayList<>();
+            for(int from = 0; from < runPaths.size(); from += this.mergeFanIn) {
+                List<Path> groupPaths = runPaths.subList(from, Math.min(from + this.mergeFanIn, runPaths.size()));
+                Path mergedPath = runFolderPath.resolve("merge_" + pass + "_" + mergedPaths.size() + ".bin");
+                try (SortedRunFile.Writer writer = new SortedRunFile.Writer(mergedPath)) {
+                    this.mergeRuns(groupPaths, writer::write);
+                }
+                for(Path groupPath : groupPaths) {
+                    Files.delete(groupPath);
+                }
+                mergedPaths.add(mergedPath);
+            }
+            runPaths = mergedPaths;
+            pass++;
+        }
+        return runPaths;
+    }
+
+    /**
+     * Merge the sorted runs and find the real activation date of each phone as soon as the phone key changes.
+     * @param runPaths
+     * @param sink
+     * @throws IOException
+     */
+    private void resolveRuns(List<Path> runPaths, ResultSink sink) throws IOException {
+        PhoneResolver resolver = new PhoneResolver(sink);
+        this.mergeRuns(runPaths, resolver);
+        resolver.finish();
+    }
+
+    /**
+     * Merge the sorted runs into one sorted stream of records
+     * @param runPaths
+     * @param consumer
+     * @throws IOException
+     */
+    private void mergeRuns(List<Path> runPaths, MergedRecordConsumer consumer) throws IOException {
+        PriorityQueue<SortedRunFile.Reader> readers = new PriorityQueue<>();
+        List<SortedRunFile.Reader> openedReaders = new ArrayList<>();
+        try {
+            for(Path runPath : runPaths) {
+                SortedRunFile.Reader reader = new SortedRunFile.Reader(runPath);
+                openedReaders.add(reader);
+                if(reader.next()) {
+                    readers.add(reader);
+                }
+            }
+            while(!readers.isEmpty()) {
+                SortedRunFile.Reader reader = readers.poll();
+                consumer.accept(reader.getPhoneKey(), reader.getActivationDay(), reader.getDeactivationDay());
+                if(reader.next()) {
+                    readers.add(reader);
+                }
+            }
+        } finally {
+            for(SortedRunFile.Reader reader : openedReaders) {
+                reader.close();
+            }
+        }
+    }
+}
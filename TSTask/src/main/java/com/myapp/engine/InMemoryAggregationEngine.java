@@ -0,0 +1,116 @@
+package com.myapp.engine;
+
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.ResultSink;
+import com.myapp.metrics.RunMetrics;
+import com.myapp.metrics.Stage;
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The engine keeps the interval state of every phone in memory and finds the real activation dates
+ * without any temporary file. The phones are hash partitioned, each partition is a columnar batch guarded
+ * by its own lock, so the tasks reading the ranges only contend when they append to the same partition.
+ * A partition is compacted to the chains of consecutive records of its phones whenever it doubles in size.
+ */
+public class InMemoryAggregationEngine implements AggregationEngine {
+
+    /**
+     * The estimated heap bytes taken by a record, including the growth of the batches and the copies while partitioning
+     */
+    public static final long ESTIMATED_BYTES_PER_RECORD = 48;
+
+    /**
+     * The pipeline reading and parsing the ranges of the input file
+     */
+    private StagedPipeline pipeline;
+
+    /**
+     * The partitions of the phone records by the hash of the phone keys
+     */
+    private PhoneRecordBatch[] partitions;
+
+    /**
+     * The size of each partition after its last compaction
+     */
+    private int[] compactedSizes;
+
+    /**
+     *
+     * @param pipeline
+     * @param partitionCount
+     */
+    public InMemoryAggregationEngine(StagedPipeline pipeline, int partitionCount) {
+        this.pipeline = pipeline;
+        this.partitions = new PhoneRecordBatch[partitionCount];
+        this.compactedSizes = new int[partitionCount];
+        for(int i = 0; i < partitionCount; i++) {
+            this.partitions[i] = new PhoneRecordBatch();
+        }
+    }
+
+    /**
+     * Read all ranges in parallel into the partitions, then resolve the partitions in parallel
+     * and write the results to the sink
+     * @param rangeReads
+     * @param sink
+     * @throws IOException
+     */
+    @Override
+    public void execute(List<RangeRead> rangeReads, ResultSink sink) throws IOException {
+        this.pipeline.run(rangeReads, batch -> {
+            this.addToPartitions(batch);
+            return null;
+        }, value -> {
+        });
+
+        Arrays.stream(this.partitions).parallel().forEach(partition -> this.resolvePartition(partition, sink));
+    }
+
+    /**
+     * Scatter the records of a batch into the partitions, the records are grouped by partition first
+     * so each partition lock is taken once per batch.
+     * @param batch
+     */
+    private void addToPartitions(PhoneRecordBatch batch) {
+        int partitionCount = this.partitions.length;
+        PhoneRecordBatch partitionedBatch = new PhoneRecordBatch(batch.size());
+        int[] partitionStarts = batch.partitionInto(partitionCount, partitionedBatch);
+        for(int i = 0; i < partitionCount; i++) {
+            if(partitionStarts[i] == partitionStarts[i + 1]) {
+                continue;
+            }
+            PhoneRecordBatch partition = this.partitions[i];
+            synchronized (partition) {
+                partition.addAll(partitionedBatch, partitionStarts[i], partitionStarts[i + 1]);
+                if(partition.size() > 2 * Math.max(this.compactedSizes[i], batch.size())) {
+                    partition.compact();
+                    this.compactedSizes[i] = partition.size();
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the real activation date of every phone of the partition
+     * @param partition
+     * @param sink
+     */
+    private void resolvePartition(PhoneRecordBatch partition, ResultSink sink) {
+        long startNanos = System.nanoTime();
+        partition.sort();
+        int fromIndex = 0;
+        while(fromIndex < partition.size()) {
+            int toIndex = partition.phoneGroupEnd(fromIndex);
+            int activationDay = partition.findActivationDay(fromIndex, toIndex);
+            sink.write(partition.getPhoneKey(fromIndex), activationDay);
+            fromIndex = toIndex;
+        }
+        partition.clear();
+        sink.release();
+        RunMetrics.current().recordStage(Stage.RESOLVE, startNanos);
+    }
+}
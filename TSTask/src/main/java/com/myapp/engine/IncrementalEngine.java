@@ -0,0 +1,85 @@
+package com.myapp.engine;
+
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.ResultSink;
+import com.myapp.metrics.RunMetrics;
+import com.myapp.metrics.Stage;
+import com.myapp.state.PhoneStateStore;
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The engine reads a delta file holding only the new records, applies it to the persisted state of the phones
+ * and writes only the phones whose real activation date has changed, see {@link PhoneStateStore}.
+ * The first run with a missing state file processes the full history and writes all phones.
+ * The records of a delta are added to the state like new lines of the history, so a delta must be applied once.
+ * The new state is only published by {@link #commit()} once the changed phones are written, so a run whose results
+ * fail keeps the previous state and the delta can be applied again.
+ */
+public class IncrementalEngine implements AggregationEngine {
+
+    /**
+     * The pipeline reading and parsing the ranges of the delta file
+     */
+    private StagedPipeline pipeline;
+
+    /**
+     *
+     */
+    private PhoneStateStore stateStore;
+
+    /**
+     * The update of the state of the last execution, not committed yet
+     */
+    private PhoneStateStore.StateUpdate stateUpdate;
+
+    /**
+     *
+     * @param pipeline
+     * @param stateStore
+     */
+    public IncrementalEngine(StagedPipeline pipeline, PhoneStateStore stateStore) {
+        this.pipeline = pipeline;
+        this.stateStore = stateStore;
+    }
+
+    /**
+     * Compact the records of the ranges into one batch, then apply the batch to the state and write the changed phones
+     * @param rangeReads
+     * @param sink
+     * @throws IOException
+     */
+    @Override
+    public void execute(List<RangeRead> rangeReads, ResultSink sink) throws IOException {
+        PhoneRecordBatch delta = new PhoneRecordBatch();
+        this.pipeline.run(rangeReads, batch -> {
+            batch.compact();
+            return batch;
+        }, batch -> {
+            synchronized (delta) {
+                delta.addAll(batch);
+            }
+        });
+        long startNanos = System.nanoTime();
+        this.stateUpdate = this.stateStore.apply(delta, sink);
+        RunMetrics.current().recordStage(Stage.RESOLVE, startNanos);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        if(this.stateUpdate != null) {
+            this.stateUpdate.commit();
+            this.stateUpdate = null;
+        }
+    }
+
+    @Override
+    public void rollback() throws IOException {
+        if(this.stateUpdate != null) {
+            this.stateUpdate.discard();
+            this.stateUpdate = null;
+        }
+    }
+}
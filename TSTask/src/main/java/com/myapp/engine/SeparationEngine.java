@@ -0,0 +1,211 @@
+package com.myapp.engine;
+
+import com.myapp.csv.BinaryRecordCodec;
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.PartitionWriter;
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.ResultSink;
+import com.myapp.metrics.RunMetrics;
+import com.myapp.metrics.Stage;
+import com.myapp.state.SeparationCheckpoint;
+import com.myapp.task.PhoneSeparationTask;
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The engine separates the records to a fixed number of bucket files under the separation folder,
+ * the phone numbers are hashed into the buckets, then resolves each bucket in memory to find the real activation dates.
+ * With a {@link SeparationCheckpoint}, the bucket files are kept in the checkpoint directory and only the ranges
+ * not committed by a previous attempt are separated.
+ */
+public class SeparationEngine implements AggregationEngine {
+    /**
+     * The pipeline reading and parsing the ranges of the input file
+     */
+    private StagedPipeline pipeline;
+
+    /**
+     * Number of bucket files which the phone numbers are hashed into
+     */
+    private int bucketCount;
+
+    /**
+     * The maximum number of buckets resolved at the same time on virtual threads,
+     * 0 to resolve the buckets on the common pool
+     */
+    private int virtualThreadConcurrency;
+
+    /**
+     * The checkpoint of the separated ranges, null to separate all ranges into a temporary folder
+     */
+    private SeparationCheckpoint checkpoint;
+
+    /**
+     *
+     * @param pipeline
+     * @param bucketCount
+     */
+    public SeparationEngine(StagedPipeline pipeline, int bucketCount) {
+        this(pipeline, bucketCount, 0);
+    }
+
+    /**
+     *
+     * @param pipeline
+     * @param bucketCount
+     * @param virtualThreadConcurrency
+     */
+    public SeparationEngine(StagedPipeline pipeline, int bucketCount, int virtualThreadConcurrency) {
+        this(pipeline, bucketCount, virtualThreadConcurrency, null);
+    }
+
+    /**
+     *
+     * @param pipeline
+     * @param bucketCount
+     * @param virtualThreadConcurrency the buckets resolved at the same time on virtual threads, 0 to use the common pool,
+     *                                 see {@link com.myapp.FinderOptions#setVirtualThreadConcurrency(int)}
+     * @param checkpoint
+     */
+    public SeparationEngine(StagedPipeline pipeline, int bucketCount, int virtualThreadConcurrency,
+                            SeparationCheckpoint checkpoint) {
+        this.pipeline = pipeline;
+        this.bucketCount = bucketCount;
+        this.virtualThreadConcurrency = virtualThreadConcurrency;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Separate the ranges into bucket files, then resolve the buckets and write the real activation dates to the sink
+     * @param rangeReads
+     * @param sink
+     * @throws IOException
+     */
+    @Override
+    public void execute(List<RangeRead> rangeReads, ResultSink sink) throws IOException {
+        if(this.checkpoint != null) {
+            this.executeFromCheckpoint(rangeReads, sink);
+            return;
+        }
+        Path separationFolderPath = FileHelper.getSeparationFolderPath();
+
+        try {
+            //each batch is separated by a task of the aggregator stage, the bucket files are flushed when the writer closes
+            PartitionWriter partitionWriter = new PartitionWriter(separationFolderPath, this.bucketCount);
+            try {
+                this.pipeline.run(rangeReads,
+                        batch -> new PhoneSeparationTask(batch, partitionWriter, this.bucketCount).execute(),
+                        recordCount -> { });
+            } finally {
+                partitionWriter.close();
+            }
+            this.writeResultsToOuput(separationFolderPath, sink);
+        } finally {
+            FileHelper.deleteFolder(separationFolderPath);
+        }
+    }
+
+    /**
+     * Separate the ranges not committed yet into the bucket files of the checkpoint, each range is committed
+     * when its frames are flushed, then resolve the buckets from the committed frames
+     * @param rangeReads all ranges of the checkpoint
+     * @param sink
+     * @throws IOException
+     */
+    private void executeFromCheckpoint(List<RangeRead> rangeReads, ResultSink sink) throws IOException {
+        List<Integer> pendingRanges = this.checkpoint.getPendingRanges();
+        List<RangeRead> pendingRangeReads = pendingRanges.stream().map(rangeReads::get).collect(Collectors.toList());
+        PartitionWriter partitionWriter = new PartitionWriter(this.checkpoint.getDirectory(), this.bucketCount);
+        try {
+            this.pipeline.run(pendingRangeReads,
+                    (rangeIndex, batch) -> new PhoneSeparationTask(batch, partitionWriter, this.bucketCount,
+                            this.checkpoint.getFrameTag(pendingRanges.get(rangeIndex))).execute(),
+                    recordCount -> { },
+                    rangeIndex -> this.checkpoint.rangeCompleted(pendingRanges.get(rangeIndex), partitionWriter));
+            this.checkpoint.commit(partitionWriter);
+        } finally {
+            partitionWriter.close();
+        }
+        this.writeResultsToOuput(this.checkpoint.getDirectory(), sink);
+    }
+
+    /**
+     * Resolve every bucket and write the results, each bucket is resolved on a virtual thread when
+     * the virtual threads are enabled and supported by the running JDK, otherwise on the common pool.
+     * The bucket files are taken from the listing of the folder, largest first so the small buckets
+     * balance the threads at the end, and each bucket file is read at once.
+     * @param bucketFolderPath
+     * @param sink
+     */
+    private void writeResultsToOuput(Path bucketFolderPath, ResultSink sink) throws IOException {
+        List<Path> bucketPaths = new ArrayList<>();
+        Map<Path, Long> bucketSizes = new HashMap<>();
+        try (DirectoryStream<Path> bucketFiles = Files.newDirectoryStream(bucketFolderPath,
+                PhoneSeparationTask.BUCKET_PREFIX + "*.bin")) {
+            for(Path bucketPath : bucketFiles) {
+                bucketPaths.add(bucketPath);
+                bucketSizes.put(bucketPath, Files.size(bucketPath));
+            }
+        }
+        bucketPaths.sort(Comparator.comparing(bucketSizes::get, Comparator.reverseOrder()));
+        if(this.virtualThreadConcurrency > 0) {
+            VirtualThreadRunner.forEach(bucketPaths, this.virtualThreadConcurrency,
+                    bucketPath -> this.resolveBucket(bucketPath, sink));
+            return;
+        }
+        bucketPaths.parallelStream().forEach(bucketPath -> {
+            try {
+                this.resolveBucket(bucketPath, sink);
+            } catch(IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * Read the records of a bucket file, sort them by phone and find the real activation date of every phone
+     * @param bucketPath
+     * @param sink
+     * @throws IOException
+     */
+    private void resolveBucket(Path bucketPath, ResultSink sink) throws IOException {
+        long startNanos = System.nanoTime();
+        PhoneRecordBatch batch = new PhoneRecordBatch();
+        if(this.checkpoint != null) {
+            BinaryRecordCodec.readTagged(bucketPath, this.checkpoint::isCommitted, batch);
+        } else {
+            BinaryRecordCodec.read(bucketPath, batch);
+        }
+        resolve(batch, sink);
+        //a virtual thread ends with its bucket, a thread of the pool goes on with another task
+        sink.release();
+        RunMetrics.current().recordStage(Stage.RESOLVE, startNanos);
+    }
+
+    /**
+     * Sort the records of a bucket by phone and write the real activation date of every phone
+     * @param batch all records of the phones of a bucket
+     * @param sink
+     */
+    public static void resolve(PhoneRecordBatch batch, ResultSink sink) {
+        batch.sort();
+        int fromIndex = 0;
+        while(fromIndex < batch.size()) {
+            int toIndex = batch.phoneGroupEnd(fromIndex);
+            sink.write(batch.getPhoneKey(fromIndex), batch.findActivationDay(fromIndex, toIndex));
+            fromIndex = toIndex;
+        }
+    }
+
+}
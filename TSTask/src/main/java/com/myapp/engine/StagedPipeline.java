@@ -0,0 +1,310 @@
+package com.myapp.engine;
+
+import com.myapp.csv.ChunkSource;
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.MappedChunkSource;
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.PhoneRecordParser;
+import com.myapp.metrics.RunMetrics;
+import com.myapp.metrics.Stage;
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A pipeline of stages connected by bounded queues: the reader stage reads the ranges of the input into chunks
+ * from a {@link ChunkSource}, the parser stage parses the loaded windows into batches, the aggregator stage processes
+ * the batches and the writer stage writes the aggregated values. Every stage runs on its own threads of a dedicated
+ * executor, so reading overlaps with parsing and aggregating instead of alternating with them, and a full queue
+ * blocks the upstream stage to bound the memory in use. The time of each stage, the bytes read, the parsed batches
+ * and the queue depths are recorded in the {@link RunMetrics} of the current run.
+ */
+public class StagedPipeline {
+
+    /**
+     * Process a parsed batch in the aggregator stage
+     * @param <T> the type of the aggregated value
+     */
+    @FunctionalInterface
+    public interface Aggregator<T> {
+        T aggregate(PhoneRecordBatch batch) throws IOException;
+    }
+
+    /**
+     * Process a parsed batch of a range in the aggregator stage
+     * @param <T> the type of the aggregated value
+     */
+    @FunctionalInterface
+    public interface RangeAggregator<T> {
+        T aggregate(int rangeIndex, PhoneRecordBatch batch) throws IOException;
+    }
+
+    /**
+     * Receive the index of a range whose batches have all been aggregated
+     */
+    @FunctionalInterface
+    public interface RangeListener {
+        void completed(int rangeIndex) throws IOException;
+    }
+
+    /**
+     * Write an aggregated value in the writer stage
+     * @param <T> the type of the aggregated value
+     */
+    @FunctionalInterface
+    public interface Writer<T> {
+        void write(T value) throws IOException;
+    }
+
+    /**
+     * Process an item of a stage
+     */
+    @FunctionalInterface
+    private interface Step {
+        void process(Object item, BlockingQueue<Object> output) throws Exception;
+    }
+
+    /**
+     * The marker of the end of a queue
+     */
+    private static final Object END = new Object();
+
+    /**
+     * A range being processed, the range is completed when its last chunk is aggregated
+     * and the reader has finished reading it
+     */
+    private static class RangeProgress {
+
+        private int rangeIndex;
+
+        private RangeRead rangeRead;
+
+        /**
+         * The chunks of the range not aggregated yet, plus one while the range is being read
+         */
+        private AtomicInteger pending = new AtomicInteger(1);
+
+        RangeProgress(int rangeIndex, RangeRead rangeRead) {
+            this.rangeIndex = rangeIndex;
+            this.rangeRead = rangeRead;
+        }
+
+        void release(RangeListener listener) throws IOException {
+            if(pending.decrementAndGet() == 0 && listener != null) {
+                listener.completed(rangeIndex);
+            }
+        }
+    }
+
+    /**
+     * A chunk or a parsed batch of a range
+     */
+    private static class RangeItem {
+
+        private RangeProgress range;
+
+        private Object payload;
+
+        RangeItem(RangeProgress range, Object payload) {
+            this.range = range;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * The source of the chunks of the input
+     */
+    private ChunkSource chunkSource;
+
+    private int readerThreads;
+
+    private int workerThreads;
+
+    private int writerThreads;
+
+    /**
+     * The capacity of each queue between the stages
+     */
+    private int queueCapacity;
+
+    /**
+     *
+     * @param inputPath
+     * @param readerThreads number of threads of the reader stage
+     * @param workerThreads number of threads of the parser stage and of the aggregator stage
+     * @param writerThreads number of threads of the writer stage
+     * @param queueCapacity
+     */
+    public StagedPipeline(Path inputPath, int readerThreads, int workerThreads, int writerThreads, int queueCapacity) {
+        this(new MappedChunkSource(inputPath), readerThreads, workerThreads, writerThreads, queueCapacity);
+    }
+
+    /**
+     *
+     * @param chunkSource
+     * @param readerThreads number of threads of the reader stage
+     * @param workerThreads number of threads of the parser stage and of the aggregator stage
+     * @param writerThreads number of threads of the writer stage
+     * @param queueCapacity
+     */
+    public StagedPipeline(ChunkSource chunkSource, int readerThreads, int workerThreads, int writerThreads, int queueCapacity) {
+        this.chunkSource = chunkSource;
+        this.readerThreads = readerThreads;
+        this.workerThreads = workerThreads;
+        this.writerThreads = writerThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public ChunkSource getChunkSource() {
+        return chunkSource;
+    }
+
+    /**
+     * Run all ranges through the stages and wait until every aggregated value is written.
+     * @param rangeReads
+     * @param aggregator
+     * @param writer
+     * @param <T>
+     * @throws IOException
+     */
+    public <T> void run(List<RangeRead> rangeReads, Aggregator<T> aggregator, Writer<T> writer) throws IOException {
+        run(rangeReads, (rangeIndex, batch) -> aggregator.aggregate(batch), writer, null);
+    }
+
+    /**
+     * Run all ranges through the stages and wait until every aggregated value is written, the listener
+     * receives the index of each range in the list once all batches of the range are aggregated.
+     * @param rangeReads
+     * @param aggregator
+     * @param writer
+     * @param rangeListener null to receive no completed range
+     * @param <T>
+     * @throws IOException
+     */
+    public <T> void run(List<RangeRead> rangeReads, RangeAggregator<T> aggregator, Writer<T> writer,
+                        RangeListener rangeListener) throws IOException {
+        BlockingQueue<Object> rangeQueue = new LinkedBlockingQueue<>();
+        for(int i = 0; i < rangeReads.size(); i++) {
+            rangeQueue.add(new RangeProgress(i, rangeReads.get(i)));
+        }
+        BlockingQueue<Object> readQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> parsedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> aggregatedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        for(int i = 0; i < readerThreads; i++) {
+            rangeQueue.add(END);
+        }
+        RunMetrics metrics = RunMetrics.current();
+        metrics.setQueues(readQueue, parsedQueue, aggregatedQueue);
+
+        ExecutorService executor = Executors.newFixedThreadPool(readerThreads + 2 * workerThreads + writerThreads,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "pipeline-stage");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        startStage(executor, failure, readerThreads, rangeQueue, readQueue, workerThreads, (item, output) -> {
+            //the time of a chunk excludes the wait for the space in the queue
+            RangeProgress range = (RangeProgress) item;
+            long[] startNanos = {System.nanoTime()};
+            this.chunkSource.read(range.rangeRead, chunk -> {
+                metrics.recordStage(Stage.READ, startNanos[0]);
+                metrics.addBytesRead(chunk.remaining());
+                range.pending.incrementAndGet();
+                output.put(new RangeItem(range, chunk));
+                startNanos[0] = System.nanoTime();
+            });
+            range.release(rangeListener);
+        });
+        startStage(executor, failure, workerThreads, readQueue, parsedQueue, workerThreads, (item, output) -> {
+            long startNanos = System.nanoTime();
+            RangeItem chunk = (RangeItem) item;
+            ByteBuffer window = (ByteBuffer) chunk.payload;
+            PhoneRecordBatch batch = new PhoneRecordBatch(window.remaining() / FileHelper.ESTIMATED_BYTES_PER_LINE + 1);
+            try {
+                PhoneRecordParser.parse(window, batch);
+            } catch(IllegalArgumentException ex) {
+                metrics.addFailedParseChunk();
+                throw ex;
+            }
+            metrics.recordStage(Stage.PARSE, startNanos);
+            metrics.addBatch(batch.size());
+            output.put(new RangeItem(chunk.range, batch));
+        });
+        startStage(executor, failure, workerThreads, parsedQueue, aggregatedQueue, writerThreads, (item, output) -> {
+            long startNanos = System.nanoTime();
+            RangeItem batch = (RangeItem) item;
+            T value = aggregator.aggregate(batch.range.rangeIndex, (PhoneRecordBatch) batch.payload);
+            metrics.recordStage(Stage.SEPARATE, startNanos);
+            batch.range.release(rangeListener);
+            if(value != null) {
+                output.put(value);
+            }
+        });
+        startStage(executor, failure, writerThreads, aggregatedQueue, null, 0, (item, output) -> {
+            @SuppressWarnings("unchecked")
+            T value = (T) item;
+            writer.write(value);
+        });
+
+        executor.shutdown();
+        try {
+            while(!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                //wait for the stages
+            }
+        } catch(InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("The pipeline is interrupted", ex);
+        } finally {
+            metrics.setQueues(null, null, null);
+        }
+        Throwable error = failure.get();
+        if(error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if(error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if(error != null) {
+            throw new IOException(error);
+        }
+    }
+
+    /**
+     * Start the threads of a stage, the last thread finishing the stage puts an end marker
+     * for each thread of the next stage. When a thread fails, all stages are stopped.
+     */
+    private static void startStage(ExecutorService executor, AtomicReference<Throwable> failure, int threads,
+                                   BlockingQueue<Object> input, BlockingQueue<Object> output,
+                                   int nextStageThreads, Step step) {
+        AtomicInteger runningThreads = new AtomicInteger(threads);
+        for(int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    Object item;
+                    while((item = input.take()) != END) {
+                        step.process(item, output);
+                    }
+                    if(runningThreads.decrementAndGet() == 0) {
+                        for(int j = 0; j < nextStageThreads; j++) {
+                            output.put(END);
+                        }
+                    }
+                } catch(InterruptedException ex) {
+                    //stopped by the failure of another stage
+                } catch(Throwable ex) {
+                    if(failure.compareAndSet(null, ex)) {
+                        executor.shutdownNow();
+                    }
+                }
+            });
+        }
+    }
+}
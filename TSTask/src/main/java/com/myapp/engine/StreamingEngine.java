@@ -0,0 +1,143 @@
+package com.myapp.engine;
+
+import com.myapp.csv.ChunkSource;
+import com.myapp.csv.PhoneNumberCodec;
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.PhoneRecordParser;
+import com.myapp.csv.PhoneRecordVisitor;
+import com.myapp.csv.ResultSink;
+import com.myapp.metrics.RunMetrics;
+import com.myapp.metrics.Stage;
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The engine reads an input which is already sorted by phone number in a single sequential pass.
+ * Only the records of the current phone are kept, and the result of a phone is written as soon as the phone
+ * number changes, so neither temporary file nor memory proportional to the input is needed.
+ * The records of a phone are chained as in {@link com.myapp.task.IntervalMergeKernel}: in order of activation,
+ * a record continues the chain when it is activated at or before the latest deactivation day of the chain,
+ * and the real activation date is the activation date of the first record of the last chain. A phone with many
+ * records is compacted into its chains while it is read, so it keeps one record per chain instead of all its records.
+ * The order is checked while reading, an {@link UnsortedInputException} is thrown as soon as a phone number
+ * is lower than the previous one.
+ */
+public class StreamingEngine implements AggregationEngine {
+
+    /**
+     * The source of the chunks of the input
+     */
+    private ChunkSource chunkSource;
+
+    /**
+     *
+     * @param chunkSource
+     */
+    public StreamingEngine(ChunkSource chunkSource) {
+        this.chunkSource = chunkSource;
+    }
+
+    /**
+     * Read the ranges in order and write the result of each phone to the sink
+     * @param rangeReads
+     * @param sink
+     * @throws IOException
+     */
+    @Override
+    public void execute(List<RangeRead> rangeReads, ResultSink sink) throws IOException {
+        PhoneStream phoneStream = new PhoneStream(sink);
+        RunMetrics metrics = RunMetrics.current();
+        try {
+            for(RangeRead rangeRead : rangeReads) {
+                long[] startNanos = {System.nanoTime()};
+                this.chunkSource.read(rangeRead, chunk -> {
+                    metrics.recordStage(Stage.READ, startNanos[0]);
+                    metrics.addBytesRead(chunk.remaining());
+                    //the phones are resolved while parsing
+                    long parseStartNanos = System.nanoTime();
+                    long recordCount;
+                    try {
+                        recordCount = PhoneRecordParser.parse(chunk, phoneStream);
+                    } catch(IllegalArgumentException ex) {
+                        metrics.addFailedParseChunk();
+                        throw ex;
+                    }
+                    metrics.recordStage(Stage.PARSE, parseStartNanos);
+                    metrics.addBatch(recordCount);
+                    startNanos[0] = System.nanoTime();
+                });
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The streaming is interrupted", ex);
+        }
+        phoneStream.writeCurrentPhone();
+    }
+
+    /**
+     * Receive the records in order and keep the records of the current phone
+     */
+    private static class PhoneStream implements PhoneRecordVisitor {
+
+        /**
+         * Number of records of the current phone above which they are merged into their chains
+         */
+        private static final int COMPACTION_THRESHOLD = 1024;
+
+        private ResultSink sink;
+
+        /**
+         * The records of the current phone, they are not required to be sorted by the activation date
+         */
+        private PhoneRecordBatch currentRecords = new PhoneRecordBatch(16);
+
+        /**
+         * Number of records of the current phone at which they are compacted next, it grows with the chains left
+         * by a compaction so a phone with many gaps is not compacted at every record
+         */
+        private int compactionSize = COMPACTION_THRESHOLD;
+
+        private long recordCount;
+
+        PhoneStream(ResultSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void visit(long phoneKey, int activationDay, int deactivationDay) {
+            recordCount++;
+            if(!currentRecords.isEmpty()) {
+                long currentPhoneKey = currentRecords.getPhoneKey(0);
+                if(phoneKey < currentPhoneKey) {
+                    throw new UnsortedInputException("The input is not sorted by phone number: the record "
+                            + recordCount + " with phone " + PhoneNumberCodec.decode(phoneKey) + " follows the phone "
+                            + PhoneNumberCodec.decode(currentPhoneKey));
+                }
+                if(phoneKey != currentPhoneKey) {
+                    writeCurrentPhone();
+                }
+            }
+            currentRecords.add(phoneKey, activationDay, deactivationDay);
+            if(currentRecords.size() >= compactionSize) {
+                currentRecords.compact();
+                compactionSize = Math.max(COMPACTION_THRESHOLD, 2 * currentRecords.size());
+            }
+        }
+
+        /**
+         * Find the real activation date of the current phone and write it
+         */
+        void writeCurrentPhone() {
+            if(currentRecords.isEmpty()) {
+                return;
+            }
+            currentRecords.sort();
+            int activationDay = currentRecords.findActivationDay(0, currentRecords.size());
+            sink.write(currentRecords.getPhoneKey(0), activationDay);
+            currentRecords.clear();
+            compactionSize = COMPACTION_THRESHOLD;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.myapp.engine;
+
+/**
+ * Thrown when the input of the streaming engine is not sorted by phone number
+ */
+public class UnsortedInputException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public UnsortedInputException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,115 @@
+package com.myapp.engine;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Run tasks on virtual threads with a limit of concurrent tasks, without tying up the platform threads
+ * of the common pool. The virtual threads need a JDK 21 or newer at runtime, they are looked up by reflection
+ * so the project still compiles for Java 8.
+ */
+public class VirtualThreadRunner {
+
+    /**
+     * Process an item on a virtual thread
+     * @param <T> the type of the items
+     */
+    @FunctionalInterface
+    public interface Action<T> {
+        void run(T item) throws IOException;
+    }
+
+    /**
+     * The factory method of the executor starting a virtual thread per task, null if it is not available
+     */
+    private static final Method NEW_EXECUTOR_METHOD = findExecutorMethod();
+
+    private VirtualThreadRunner() {
+    }
+
+    /**
+     * Whether the running JDK supports the virtual threads
+     * @return
+     */
+    public static boolean isAvailable() {
+        return NEW_EXECUTOR_METHOD != null;
+    }
+
+    /**
+     * Run the action for every item on a virtual thread, at most the given number of actions run at the same time.
+     * The method returns when all actions have completed, the first failure is thrown.
+     * @param items
+     * @param maxConcurrency
+     * @param action
+     * @param <T>
+     * @throws IOException
+     * @throws IllegalArgumentException if the running JDK does not support the virtual threads, as rejected
+     * by {@link com.myapp.FinderOptions#setVirtualThreadConcurrency(int)}
+     */
+    public static <T> void forEach(Iterable<T> items, int maxConcurrency, Action<T> action) throws IOException {
+        if(!isAvailable()) {
+            throw new IllegalArgumentException("The virtual threads are not supported by the running JDK, JDK 21 or newer is required");
+        }
+        Semaphore permits = new Semaphore(maxConcurrency);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService executor = newExecutor();
+        try {
+            for(T item : items) {
+                permits.acquire();
+                if(failure.get() != null) {
+                    permits.release();
+                    break;
+                }
+                executor.execute(() -> {
+                    try {
+                        action.run(item);
+                    } catch(Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            //wait for the running actions
+            permits.acquire(maxConcurrency);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The virtual threads are interrupted", ex);
+        } finally {
+            executor.shutdown();
+        }
+        Throwable error = failure.get();
+        if(error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if(error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if(error != null) {
+            throw new IOException(error);
+        }
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) NEW_EXECUTOR_METHOD.invoke(null);
+        } catch(ReflectiveOperationException ex) {
+            throw new IllegalStateException("Cannot create the executor of virtual threads", ex);
+        }
+    }
+
+    private static Method findExecutorMethod() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            //the method exists as a preview feature before JDK 21 and fails when the preview is not enabled
+            ((ExecutorService) method.invoke(null)).shutdown();
+            return method;
+        } catch(ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.myapp.generator;
+
+import com.myapp.csv.EpochDays;
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.PhoneNumberCodec;
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.ResultSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generate synthetic records from a seeded random generator, the same seed and options always give the same records.
+ * Each phone is generated by its own random generator derived from the seed and the index of the phone,
+ * so the phones can be generated in any order and by many threads.
+ * The records of a phone follow each other in time, a record starts either on the deactivation day
+ * of the previous record (a contiguous handover) or after a gap, and the last record may have no deactivation day.
+ * A few skewed phones may have thousands of records, their records are shorter so the history of a phone
+ * always fits in a few decades.
+ */
+public class DatasetGenerator {
+
+    public static final String HEADER = "PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE";
+
+    /**
+     * The phone numbers are 09 followed by the phone index on 9 digits
+     */
+    public static final int MAX_PHONE_COUNT = 1_000_000_000;
+
+    /**
+     * Number of phones generated by one task of {@link #write(Path, Path, int)}
+     */
+    private static final int PHONES_PER_BLOCK = 16 * 1024;
+
+    /**
+     * Maximum length of an expected result line: the phone number, the date, the separator and the line break
+     */
+    private static final int MAX_RESULT_LINE_BYTES = PhoneNumberCodec.MAX_DIGITS + EpochDays.ISO_DATE_LENGTH + 2;
+
+    /**
+     * The earliest activation day of the first record of a phone
+     */
+    private static final int FIRST_DAY = EpochDays.of(2000, 1, 1);
+
+    /**
+     * Number of days in which the first record of a phone starts
+     */
+    private static final int FIRST_DAY_SPAN = 3650;
+
+    private static final int MAX_GAP_DAYS = 90;
+
+    private static final int MAX_DURATION_DAYS = 720;
+
+    /**
+     * The days over which the records of a phone are spread, the duration and the gap of the records of a phone
+     * with many records are shortened to keep the dates in the range of the date format
+     */
+    private static final int HISTORY_DAYS = 20 * 365;
+
+    private long seed = 1;
+
+    /**
+     * Number of distinct phone numbers
+     */
+    private int phoneCount = 1000;
+
+    /**
+     * Number of records of each phone
+     */
+    private int recordsPerPhone = 4;
+
+    /**
+     * The fraction of the records starting on the deactivation day of the previous record of the phone
+     */
+    private double contiguousFraction = 0.5;
+
+    /**
+     * The fraction of the phones whose last record has no deactivation day
+     */
+    private double openEndedFraction = 0;
+
+    /**
+     * The fraction of the phones having {@link #skewedRecordsPerPhone} records instead of {@link #recordsPerPhone}
+     */
+    private double skewedFraction = 0;
+
+    /**
+     * Number of records of each skewed phone
+     */
+    private int skewedRecordsPerPhone = 2000;
+
+    /**
+     * Whether the records are written in order of the phones and of the activation days instead of a shuffled order
+     */
+    private boolean sorted;
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getPhoneCount() {
+        return phoneCount;
+    }
+
+    public void setPhoneCount(int phoneCount) {
+        if(phoneCount <= 0 || phoneCount > MAX_PHONE_COUNT) {
+            throw new IllegalArgumentException("The phone count must be between 1 and " + MAX_PHONE_COUNT);
+        }
+        this.phoneCount = phoneCount;
+    }
+
+    public int getRecordsPerPhone() {
+        return recordsPerPhone;
+    }
+
+    public void setRecordsPerPhone(int recordsPerPhone) {
+        if(recordsPerPhone <= 0) {
+            throw new IllegalArgumentException("The records per phone must be greater than 0");
+        }
+        this.recordsPerPhone = recordsPerPhone;
+    }
+
+    public double getContiguousFraction() {
+        return contiguousFraction;
+    }
+
+    public void setContiguousFraction(double contiguousFraction) {
+        if(contiguousFraction < 0 || contiguousFraction > 1) {
+            throw new IllegalArgumentException("The contiguous fraction must be between 0 and 1");
+        }
+        this.contiguousFraction = contiguousFraction;
+    }
+
+    public double getOpenEndedFraction() {
+        return openEndedFraction;
+    }
+
+    public void setOpenEndedFraction(double openEndedFraction) {
+        if(openEndedFraction < 0 || openEndedFraction > 1) {
+            throw new IllegalArgumentException("The open ended fraction must be between 0 and 1");
+        }
+        this.openEndedFraction = openEndedFraction;
+    }
+
+    public double getSkewedFraction() {
+        return skewedFraction;
+    }
+
+    public void setSkewedFraction(double skewedFraction) {
+        if(skewedFraction < 0 || skewedFraction > 1) {
+            throw new IllegalArgumentException("The skewed fraction must be between 0 and 1");
+        }
+        this.skewedFraction = skewedFraction;
+    }
+
+    public int getSkewedRecordsPerPhone() {
+        return skewedRecordsPerPhone;
+    }
+
+    public void setSkewedRecordsPerPhone(int skewedRecordsPerPhone) {
+        if(skewedRecordsPerPhone <= 0) {
+            throw new IllegalArgumentException("The skewed records per phone must be greater than 0");
+        }
+        this.skewedRecordsPerPhone = skewedRecordsPerPhone;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+    /**
+     * Get the phone number of a phone index, the numbers keep the leading zero of the mobile numbers
+     * @param phoneIndex
+     * @return
+     */
+    public static String phoneNumber(long phoneIndex) {
+        String digits = Long.toString(phoneIndex);
+        StringBuilder phoneNumber = new StringBuilder("09");
+        for(int i = digits.length(); i < 9; i++) {
+            phoneNumber.append('0');
+        }
+        return phoneNumber.append(digits).toString();
+    }
+
+    /**
+     * Generate the records of a phone in ascending order of the activation day
+     * @param phoneIndex
+     * @param target
+     * @return the real activation day of the phone
+     */
+    public int generatePhone(long phoneIndex, PhoneRecordBatch target) {
+        SplittableRandom random = new SplittableRandom(this.seed * 0x9E3779B97F4A7C15L + phoneIndex);
+        long phoneKey = PhoneNumberCodec.encode(phoneNumber(phoneIndex));
+        int recordCount = random.nextDouble() < this.skewedFraction ? this.skewedRecordsPerPhone : this.recordsPerPhone;
+        boolean openEnded = random.nextDouble() < this.openEndedFraction;
+        int maxDurationDays = Math.max(1, Math.min(MAX_DURATION_DAYS, HISTORY_DAYS / recordCount));
+        int maxGapDays = Math.max(1, Math.min(MAX_GAP_DAYS, maxDurationDays / 8));
+        int activationDay = FIRST_DAY + random.nextInt(FIRST_DAY_SPAN);
+        int realActivationDay = activationDay;
+        for(int i = 0; i < recordCount; i++) {
+            boolean last = i + 1 == recordCount;
+            int deactivationDay = activationDay + 1 + random.nextInt(maxDurationDays);
+            target.add(phoneKey, activationDay, last && openEnded ? EpochDays.NO_DATE : deactivationDay);
+            boolean contiguous = random.nextDouble() < this.contiguousFraction;
+            activationDay = contiguous ? deactivationDay : deactivationDay + 1 + random.nextInt(maxGapDays);
+            if(!contiguous && !last) {
+                realActivationDay = activationDay;
+            }
+        }
+        return realActivationDay;
+    }
+
+    /**
+     * Generate the records of all phones in a shuffled order, or in order of the phones if the output is sorted
+     * @return
+     */
+    public PhoneRecordBatch generate() {
+        PhoneRecordBatch ordered = new PhoneRecordBatch(this.phoneCount * this.recordsPerPhone);
+        for(int phoneIndex = 0; phoneIndex < this.phoneCount; phoneIndex++) {
+            this.generatePhone(phoneIndex, ordered);
+        }
+        return this.sorted ? ordered : shuffle(ordered, new Random(this.seed));
+    }
+
+    /**
+     * Write the records of all phones to a csv file and the real activation dates to an expected result file,
+     * the phones are generated by blocks on many threads and the blocks are written in order.
+     * A large file cannot be shuffled as a whole: the records are shuffled within a block
+     * of {@value #PHONES_PER_BLOCK} phones and the blocks are written in a shuffled order.
+     * The expected results are written in the same order of the phones as the records.
+     * @param filePath
+     * @param expectedPath the expected result file, null to skip it
+     * @param threadCount
+     * @return number of written records
+     * @throws IOException
+     */
+    public long write(Path filePath, Path expectedPath, int threadCount) throws IOException {
+        int blockCount = (this.phoneCount + PHONES_PER_BLOCK - 1) / PHONES_PER_BLOCK;
+        int[] blockOrder = identity(blockCount);
+        if(!this.sorted) {
+            shuffle(blockOrder, new Random(this.seed));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try (OutputStream output = Files.newOutputStream(filePath);
+             OutputStream expectedOutput = expectedPath == null ? null : Files.newOutputStream(expectedPath)) {
+            output.write((HEADER + "\n").getBytes(StandardCharsets.US_ASCII));
+            if(expectedOutput != null) {
+                expectedOutput.write(ResultSink.HEADER.getBytes(StandardCharsets.US_ASCII));
+            }
+            //keep a few blocks ahead of the writer so the threads do not wait for it
+            Deque<Future<Block>> pending = new ArrayDeque<>();
+            int nextBlock = 0;
+            long recordCount = 0;
+            while(nextBlock < blockCount || !pending.isEmpty()) {
+                while(nextBlock < blockCount && pending.size() < 2 * threadCount) {
+                    int blockIndex = blockOrder[nextBlock++];
+                    pending.add(executor.submit(() -> this.generateBlock(blockIndex, expectedOutput != null)));
+                }
+                Block block = pending.poll().get();
+                output.write(block.records, 0, block.recordsLength);
+                if(expectedOutput != null) {
+                    expectedOutput.write(block.results, 0, block.resultsLength);
+                }
+                recordCount += block.recordCount;
+            }
+            return recordCount;
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The generation is interrupted", ex);
+        } catch(ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The encoded lines of a block of phones
+     */
+    private static class Block {
+
+        private byte[] records;
+
+        private int recordsLength;
+
+        private byte[] results;
+
+        private int resultsLength;
+
+        private int recordCount;
+    }
+
+    private Block generateBlock(int blockIndex, boolean withResults) {
+        long fromPhone = (long) blockIndex * PHONES_PER_BLOCK;
+        long toPhone = Math.min(this.phoneCount, fromPhone + PHONES_PER_BLOCK);
+        PhoneRecordBatch ordered = new PhoneRecordBatch((int) (toPhone - fromPhone) * this.recordsPerPhone);
+        Block block = new Block();
+        if(withResults) {
+            block.results = new byte[(int) (toPhone - fromPhone) * MAX_RESULT_LINE_BYTES];
+        }
+        for(long phoneIndex = fromPhone; phoneIndex < toPhone; phoneIndex++) {
+            int fromIndex = ordered.size();
+            int realActivationDay = this.generatePhone(phoneIndex, ordered);
+            if(withResults) {
+                block.resultsLength = PhoneNumberCodec.write(ordered.getPhoneKey(fromIndex), block.results, block.resultsLength);
+                block.results[block.resultsLength++] = ',';
+                block.resultsLength = EpochDays.write(realActivationDay, block.results, block.resultsLength);
+                block.results[block.resultsLength++] = '\n';
+            }
+        }
+        PhoneRecordBatch records = this.sorted ? ordered : shuffle(ordered, new Random(this.seed * 31 + blockIndex));
+        block.recordCount = records.size();
+        block.records = new byte[records.size() * FileHelper.MAX_RECORD_LINE_BYTES];
+        for(int index = 0; index < records.size(); index++) {
+            block.recordsLength = FileHelper.encodeLine(records, index, block.records, block.recordsLength);
+        }
+        return block;
+    }
+
+    private static PhoneRecordBatch shuffle(PhoneRecordBatch ordered, Random random) {
+        int[] order = shuffle(identity(ordered.size()), random);
+        PhoneRecordBatch shuffled = new PhoneRecordBatch(ordered.size());
+        for(int index : order) {
+            shuffled.add(ordered.getPhoneKey(index), ordered.getActivationDay(index), ordered.getDeactivationDay(index));
+        }
+        return shuffled;
+    }
+
+    private static int[] identity(int length) {
+        int[] order = new int[length];
+        for(int i = 0; i < length; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    /**
+     * Fisher-Yates shuffle
+     */
+    private static int[] shuffle(int[] order, Random random) {
+        for(int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swapped = order[i];
+            order[i] = order[j];
+            order[j] = swapped;
+        }
+        return order;
+    }
+
+    /**
+     * Write the header line and the records of a batch to a csv file
+     * @param filePath
+     * @param batch
+     * @throws IOException
+     */
+    public static void write(Path filePath, PhoneRecordBatch batch) throws IOException {
+        Files.write(filePath, (HEADER + "\n").getBytes(StandardCharsets.US_ASCII));
+        writeRecords(filePath, batch);
+    }
+
+    /**
+     * Append the records of a batch to a csv file, the lines are encoded directly from the primitive values of the batch
+     * @param filePath
+     * @param batch
+     * @throws IOException
+     */
+    private static void writeRecords(Path filePath, PhoneRecordBatch batch) throws IOException {
+        byte[] bytes = new byte[batch.size() * FileHelper.MAX_RECORD_LINE_BYTES];
+        int length = 0;
+        for(int index = 0; index < batch.size(); index++) {
+            length = FileHelper.encodeLine(batch, index, bytes, length);
+        }
+        try (OutputStream out = Files.newOutputStream(filePath, StandardOpenOption.APPEND)) {
+            out.write(bytes, 0, length);
+        }
+    }
+}
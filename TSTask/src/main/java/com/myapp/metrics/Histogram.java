@@ -0,0 +1,101 @@
+package com.myapp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of non negative values, e.g. latencies in nanoseconds. The values are counted in buckets
+ * of 8 sub-buckets per power of two, so a percentile is known within 12.5% whatever the range of the values.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+    private LongAdder count = new LongAdder();
+
+    private LongAdder sum = new LongAdder();
+
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value, a negative value is recorded as 0
+     * @param value
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long currentMax;
+        while(value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            //retry
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    /**
+     * Get the upper bound of the bucket holding the percentile
+     * @param percentile between 0 and 100
+     * @return
+     */
+    public long getPercentile(double percentile) {
+        long n = getCount();
+        if(n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for(int bucket = 0; bucket < counts.length(); bucket++) {
+            seen += counts.get(bucket);
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * The values below {@link #SUB_BUCKETS} have a bucket each, a greater value is bucketed
+     * by its highest bit and the next {@link #SUB_BUCKET_BITS} bits.
+     */
+    private static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        if(subBucket == SUB_BUCKETS - 1 && shift + SUB_BUCKET_BITS + 1 >= 63) {
+            return Long.MAX_VALUE;
+        }
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
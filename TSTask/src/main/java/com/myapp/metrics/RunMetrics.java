@@ -0,0 +1,416 @@
+package com.myapp.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and the latency histograms of a run. The hot paths record into the metrics of the current run,
+ * {@link #current()}, with a few uncontended adds per chunk or per batch, never per record.
+ * A started run is registered as an MXBean, samples the heap and the queue depths every second,
+ * optionally prints a progress line and can write a summary in JSON when it is closed.
+ * Only one run is current at a time, the metrics of concurrent runs are mixed.
+ */
+public class RunMetrics implements RunMetricsMXBean, AutoCloseable {
+
+    public static final String OBJECT_NAME = "com.myapp:type=RunMetrics";
+
+    private static final long SAMPLE_MILLIS = 1000;
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    /**
+     * The time given to a running sample or progress line to finish when the run is closed
+     */
+    private static final long SAMPLER_TERMINATION_MILLIS = 5000;
+
+    /**
+     * The metrics recorded outside of a started run, e.g. by a benchmark
+     */
+    private static final RunMetrics IDLE = new RunMetrics();
+
+    /**
+     * The metrics of the started run, the idle metrics once it is closed
+     */
+    private static final AtomicReference<RunMetrics> CURRENT = new AtomicReference<>(IDLE);
+
+    /**
+     * The metrics registered under {@link #OBJECT_NAME}, guarded by the class
+     */
+    private static RunMetrics registered;
+
+    private long startNanos = System.nanoTime();
+
+    private volatile long endNanos;
+
+    private LongAdder bytesRead = new LongAdder();
+
+    private LongAdder linesRead = new LongAdder();
+
+    /**
+     * The chunks which failed to parse, a malformed line fails the run so it is 0 for a completed run
+     */
+    private LongAdder failedParseChunks = new LongAdder();
+
+    private LongAdder tempBytesWritten = new LongAdder();
+
+    private Histogram recordsPerBatch = new Histogram();
+
+    private Map<Stage, Histogram> stageNanos = new EnumMap<>(Stage.class);
+
+    /**
+     * The queues between the stages of the running pipeline: read, parsed and aggregated
+     */
+    private volatile Queue<?>[] queues;
+
+    /**
+     * The peak depths of the queues, written by the sampler thread and read by the summary
+     */
+    private AtomicIntegerArray peakQueueDepths = new AtomicIntegerArray(3);
+
+    private AtomicLong heapHighWaterBytes = new AtomicLong();
+
+    private ScheduledExecutorService sampler;
+
+    public RunMetrics() {
+        for(Stage stage : Stage.values()) {
+            this.stageNanos.put(stage, new Histogram());
+        }
+    }
+
+    /**
+     * Get the metrics of the current run
+     * @return
+     */
+    public static RunMetrics current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Start the metrics of a new run as the current metrics, register them as an MXBean and start sampling
+     * @param progressIntervalSeconds the interval of the progress line, 0 to print none
+     * @return
+     */
+    public static RunMetrics start(int progressIntervalSeconds) {
+        RunMetrics metrics = new RunMetrics();
+        CURRENT.set(metrics);
+        metrics.register();
+        metrics.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "run-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.sampler.scheduleAtFixedRate(metrics::sample, 0, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        if(progressIntervalSeconds > 0) {
+            metrics.sampler.scheduleAtFixedRate(() -> System.out.println(metrics.progressLine()),
+                    progressIntervalSeconds, progressIntervalSeconds, TimeUnit.SECONDS);
+        }
+        return metrics;
+    }
+
+    /**
+     * Add the bytes of a chunk read from the input
+     * @param bytes
+     */
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Add a parsed batch
+     * @param recordCount
+     */
+    public void addBatch(long recordCount) {
+        linesRead.add(recordCount);
+        recordsPerBatch.record(recordCount);
+    }
+
+    /**
+     * Add a chunk which failed to parse, the run fails with the error
+     */
+    public void addFailedParseChunk() {
+        failedParseChunks.increment();
+    }
+
+    /**
+     * Add the bytes written to a temporary file
+     * @param bytes
+     */
+    public void addTempBytesWritten(long bytes) {
+        tempBytesWritten.add(bytes);
+    }
+
+    /**
+     * Record the time of a stage from a start time of {@link System#nanoTime()} to now
+     * @param stage
+     * @param startNanos
+     */
+    public void recordStage(Stage stage, long startNanos) {
+        stageNanos.get(stage).record(System.nanoTime() - startNanos);
+    }
+
+    public Histogram getStageHistogram(Stage stage) {
+        return stageNanos.get(stage);
+    }
+
+    /**
+     * Set the queues between the stages of the running pipeline, null when the pipeline has finished
+     * @param readQueue
+     * @param parsedQueue
+     * @param aggregatedQueue
+     */
+    public void setQueues(Queue<?> readQueue, Queue<?> parsedQueue, Queue<?> aggregatedQueue) {
+        this.queues = readQueue == null ? null : new Queue<?>[] {readQueue, parsedQueue, aggregatedQueue};
+    }
+
+    /**
+     * Stop sampling, unregister the MXBean, take the last sample once the sampler has stopped and restore
+     * the idle metrics as the current metrics, unless a newer run has started
+     */
+    @Override
+    public void close() {
+        if(endNanos != 0) {
+            return;
+        }
+        endNanos = System.nanoTime();
+        if(sampler != null) {
+            sampler.shutdownNow();
+            try {
+                sampler.awaitTermination(SAMPLER_TERMINATION_MILLIS, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        unregister();
+        sample();
+        CURRENT.compareAndSet(this, IDLE);
+    }
+
+    /**
+     * Write the summary of the run in JSON
+     * @param filePath
+     * @throws IOException
+     */
+    public void writeSummary(Path filePath) throws IOException {
+        Files.write(filePath, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the summary of the run in JSON
+     * @return
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"elapsedMillis\": ").append(getElapsedMillis()).append(",\n");
+        json.append("  \"bytesRead\": ").append(getBytesRead()).append(",\n");
+        json.append("  \"bytesReadPerSecond\": ").append(format(getBytesReadPerSecond())).append(",\n");
+        json.append("  \"linesRead\": ").append(getLinesRead()).append(",\n");
+        json.append("  \"linesReadPerSecond\": ").append(format(getLinesReadPerSecond())).append(",\n");
+        json.append("  \"failedParseChunks\": ").append(getFailedParseChunks()).append(",\n");
+        json.append("  \"batches\": {\"count\": ").append(getBatchCount())
+                .append(", \"meanRecords\": ").append(format(getMeanRecordsPerBatch()))
+                .append(", \"maxRecords\": ").append(recordsPerBatch.getMax()).append("},\n");
+        json.append("  \"stages\": {\n");
+        for(Stage stage : Stage.values()) {
+            Histogram histogram = stageNanos.get(stage);
+            json.append("    \"").append(stage.name().toLowerCase(Locale.ROOT)).append("\": {")
+                    .append("\"count\": ").append(histogram.getCount())
+                    .append(", \"totalMillis\": ").append(format(histogram.getSum() / NANOS_PER_MILLI))
+                    .append(", \"meanMillis\": ").append(format(histogram.getMean() / NANOS_PER_MILLI))
+                    .append(", \"p50Millis\": ").append(format(histogram.getPercentile(50) / NANOS_PER_MILLI))
+                    .append(", \"p99Millis\": ").append(format(histogram.getPercentile(99) / NANOS_PER_MILLI))
+                    .append(", \"maxMillis\": ").append(format(histogram.getMax() / NANOS_PER_MILLI))
+                    .append(stage.ordinal() + 1 < Stage.values().length ? "},\n" : "}\n");
+        }
+        json.append("  },\n");
+        json.append("  \"peakQueueDepths\": {\"read\": ").append(peakQueueDepths.get(0))
+                .append(", \"parsed\": ").append(peakQueueDepths.get(1))
+                .append(", \"aggregated\": ").append(peakQueueDepths.get(2)).append("},\n");
+        json.append("  \"tempBytesWritten\": ").append(getTempBytesWritten()).append(",\n");
+        json.append("  \"heapHighWaterBytes\": ").append(getHeapHighWaterBytes()).append("\n");
+        return json.append("}\n").toString();
+    }
+
+    /**
+     * Get a one line summary of the progress
+     * @return
+     */
+    public String progressLine() {
+        return String.format(Locale.ROOT, "[%.0f s] read %s (%s/s), %d lines (%.0f/s), queues %d/%d/%d, temp %s, heap %s",
+                getElapsedMillis() / 1000.0, formatBytes(getBytesRead()), formatBytes((long) getBytesReadPerSecond()),
+                getLinesRead(), getLinesReadPerSecond(), getReadQueueDepth(), getParsedQueueDepth(),
+                getAggregatedQueueDepth(), formatBytes(getTempBytesWritten()), formatBytes(getHeapHighWaterBytes()));
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public double getBytesReadPerSecond() {
+        return perSecond(getBytesRead());
+    }
+
+    @Override
+    public long getLinesRead() {
+        return linesRead.sum();
+    }
+
+    @Override
+    public double getLinesReadPerSecond() {
+        return perSecond(getLinesRead());
+    }
+
+    @Override
+    public long getFailedParseChunks() {
+        return failedParseChunks.sum();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return recordsPerBatch.getCount();
+    }
+
+    @Override
+    public double getMeanRecordsPerBatch() {
+        return recordsPerBatch.getMean();
+    }
+
+    @Override
+    public int getReadQueueDepth() {
+        return queueDepth(0);
+    }
+
+    @Override
+    public int getParsedQueueDepth() {
+        return queueDepth(1);
+    }
+
+    @Override
+    public int getAggregatedQueueDepth() {
+        return queueDepth(2);
+    }
+
+    @Override
+    public long getTempBytesWritten() {
+        return tempBytesWritten.sum();
+    }
+
+    @Override
+    public long getHeapHighWaterBytes() {
+        return heapHighWaterBytes.get();
+    }
+
+    @Override
+    public Map<String, Double> getStageTotalMillis() {
+        Map<String, Double> totals = new LinkedHashMap<>();
+        for(Stage stage : Stage.values()) {
+            totals.put(stage.name(), stageNanos.get(stage).getSum() / NANOS_PER_MILLI);
+        }
+        return totals;
+    }
+
+    @Override
+    public Map<String, Double> getStageP99Millis() {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for(Stage stage : Stage.values()) {
+            percentiles.put(stage.name(), stageNanos.get(stage).getPercentile(99) / NANOS_PER_MILLI);
+        }
+        return percentiles;
+    }
+
+    /**
+     * Sample the used heap and the queue depths
+     */
+    private void sample() {
+        long usedHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        heapHighWaterBytes.accumulateAndGet(usedHeap, Math::max);
+        for(int i = 0; i < peakQueueDepths.length(); i++) {
+            peakQueueDepths.accumulateAndGet(i, queueDepth(i), Math::max);
+        }
+    }
+
+    private int queueDepth(int index) {
+        Queue<?>[] pipelineQueues = this.queues;
+        return pipelineQueues == null ? 0 : pipelineQueues[index].size();
+    }
+
+    private double perSecond(long value) {
+        long elapsedMillis = getElapsedMillis();
+        return elapsedMillis == 0 ? 0 : value * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * Register the metrics under {@link #OBJECT_NAME}, replacing the metrics of a previous run
+     */
+    private void register() {
+        synchronized (RunMetrics.class) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if(server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                registered = null;
+                server.registerMBean(this, name);
+                registered = this;
+            } catch(JMException ex) {
+                //the metrics are still printed and written without JMX
+                System.err.println("The run metrics are not registered: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Unregister the metrics unless they have been replaced by the metrics of a newer run
+     */
+    private void unregister() {
+        synchronized (RunMetrics.class) {
+            if(registered != this) {
+                return;
+            }
+            registered = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch(JMException ex) {
+                //unregistered outside of the runs, e.g. by a JMX client
+            }
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String formatBytes(long bytes) {
+        if(bytes < 1024) {
+            return bytes + " B";
+        }
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format(Locale.ROOT, "%.1f %sB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+    }
+}
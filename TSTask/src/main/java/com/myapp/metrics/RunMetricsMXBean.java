@@ -0,0 +1,48 @@
+package com.myapp.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics of the current run exposed through JMX under the name {@value RunMetrics#OBJECT_NAME}
+ */
+public interface RunMetricsMXBean {
+
+    long getElapsedMillis();
+
+    long getBytesRead();
+
+    double getBytesReadPerSecond();
+
+    long getLinesRead();
+
+    double getLinesReadPerSecond();
+
+    /**
+     * @return the chunks which failed to parse, the run fails on the first malformed line
+     */
+    long getFailedParseChunks();
+
+    long getBatchCount();
+
+    double getMeanRecordsPerBatch();
+
+    int getReadQueueDepth();
+
+    int getParsedQueueDepth();
+
+    int getAggregatedQueueDepth();
+
+    long getTempBytesWritten();
+
+    long getHeapHighWaterBytes();
+
+    /**
+     * @return the total time spent in each stage by all threads
+     */
+    Map<String, Double> getStageTotalMillis();
+
+    /**
+     * @return the 99th percentile of the time of a stage, in milliseconds
+     */
+    Map<String, Double> getStageP99Millis();
+}
@@ -0,0 +1,27 @@
+package com.myapp.metrics;
+
+/**
+ * The timed phases of a run
+ */
+public enum Stage {
+    /**
+     * Reading a chunk of the input, including the inflation of a compressed input
+     */
+    READ,
+    /**
+     * Parsing a chunk into a batch of records
+     */
+    PARSE,
+    /**
+     * Processing a parsed batch in the aggregator stage: the separation into partitions, bucket files or runs
+     */
+    SEPARATE,
+    /**
+     * Writing the records of the partitions or of the runs to the temporary files
+     */
+    WRITE_PARTITION,
+    /**
+     * Finding the real activation dates of a partition, a bucket or the merged runs
+     */
+    RESOLVE
+}
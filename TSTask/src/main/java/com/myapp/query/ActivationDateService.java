@@ -0,0 +1,121 @@
+package com.myapp.query;
+
+import com.myapp.csv.EpochDays;
+import com.myapp.csv.PhoneNumberCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Look up the real activation date of a phone from a {@link ResultIndex}, the recent lookups are kept
+ * in a least recently used cache in front of the index. The cache is striped by phone key, each stripe has its own
+ * lock and its own share of the cache size, so the concurrent lookups only contend on phones of the same stripe.
+ */
+public class ActivationDateService implements Closeable {
+
+    /**
+     * The default number of phones kept in the cache
+     */
+    public static final int DEFAULT_CACHE_SIZE = 100_000;
+
+    /**
+     * The number of stripes of the cache is 2 to the power of the stripe bits
+     */
+    private static final int STRIPE_BITS = 6;
+
+    private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+
+    /**
+     * A stripe of the cache in access order, so the eldest entry is the least recently used of the stripe
+     */
+    private static class Stripe extends LinkedHashMap<Long, Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private int maxSize;
+
+        Stripe(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    private ResultIndex index;
+
+    /**
+     * The stripes of the cache of the epoch days by phone key, none if the cache is disabled
+     */
+    private Stripe[] stripes;
+
+    /**
+     *
+     * @param index
+     * @param cacheSize the phones kept in the cache, 0 to look up every phone in the index
+     */
+    public ActivationDateService(ResultIndex index, int cacheSize) {
+        if(cacheSize < 0) {
+            throw new IllegalArgumentException("The cache size must not be negative");
+        }
+        this.index = index;
+        if(cacheSize == 0) {
+            return;
+        }
+        int stripeSize = Math.max(1, cacheSize / STRIPE_COUNT);
+        this.stripes = new Stripe[STRIPE_COUNT];
+        for(int i = 0; i < STRIPE_COUNT; i++) {
+            this.stripes[i] = new Stripe(stripeSize);
+        }
+    }
+
+    /**
+     * Find the real activation date of a phone
+     * @param phoneNumber
+     * @return the date, or null if the phone is not found
+     * @throws IllegalArgumentException if the phone number is not valid
+     */
+    public LocalDate find(String phoneNumber) {
+        long phoneKey = PhoneNumberCodec.encode(phoneNumber);
+        if(phoneKey == PhoneNumberCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid phone number " + phoneNumber);
+        }
+        int activationDay = this.findActivationDay(phoneKey);
+        return activationDay == EpochDays.NO_DATE ? null : EpochDays.toLocalDate(activationDay);
+    }
+
+    /**
+     * Find the real activation day of a phone key
+     * @param phoneKey
+     * @return the epoch day, or {@link EpochDays#NO_DATE} if the phone is not found
+     */
+    public int findActivationDay(long phoneKey) {
+        if(this.stripes == null) {
+            return this.index.findActivationDay(phoneKey);
+        }
+        //the high bits of a multiplicative hash spread the consecutive phones over the stripes
+        Stripe stripe = this.stripes[(int) (phoneKey * 0x9E3779B97F4A7C15L >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            Integer cachedDay = stripe.get(phoneKey);
+            if(cachedDay != null) {
+                return cachedDay;
+            }
+        }
+        int activationDay = this.index.findActivationDay(phoneKey);
+        synchronized (stripe) {
+            stripe.put(phoneKey, activationDay);
+        }
+        return activationDay;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.index.close();
+    }
+}
@@ -0,0 +1,155 @@
+package com.myapp.query;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A small local HTTP endpoint of the {@link ActivationDateService}:
+ * GET /activation-date?phone=0987000001 answers the line PHONE_NUMBER,REAL_ACTIVATION_DATE,
+ * or the status 404 if the phone is not found and 400 if the phone number is not valid.
+ */
+public class QueryServer implements AutoCloseable {
+
+    public static final String CONTEXT_PATH = "/activation-date";
+
+    private static final String USAGE = "Usage: java com.myapp.query.QueryServer <result.csv|result.idx> [options]\n"
+            + "  --port <port>                the local port, 8080 by default\n"
+            + "  --cache <count>              phones kept in the cache, 0 to disable it";
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     *
+     * @param service
+     * @param port the local port, 0 to choose a free port
+     * @param threadCount
+     * @throws IOException
+     */
+    public QueryServer(ActivationDateService service, int port, int threadCount) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(threadCount);
+        this.server.setExecutor(this.executor);
+        this.server.createContext(CONTEXT_PATH, exchange -> {
+            try {
+                handle(service, exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdown();
+    }
+
+    private static void handle(ActivationDateService service, HttpExchange exchange) throws IOException {
+        if(!"GET".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Only GET is allowed\n");
+            return;
+        }
+        String phoneNumber = getQueryParameter(exchange.getRequestURI().getRawQuery(), "phone");
+        if(phoneNumber == null) {
+            respond(exchange, 400, "Missing parameter phone\n");
+            return;
+        }
+        LocalDate activationDate;
+        try {
+            activationDate = service.find(phoneNumber);
+        } catch(IllegalArgumentException ex) {
+            respond(exchange, 400, ex.getMessage() + "\n");
+            return;
+        }
+        if(activationDate == null) {
+            respond(exchange, 404, "Phone number " + phoneNumber + " is not found\n");
+            return;
+        }
+        respond(exchange, 200, phoneNumber + "," + activationDate + "\n");
+    }
+
+    private static String getQueryParameter(String rawQuery, String name) throws IOException {
+        if(rawQuery == null) {
+            return null;
+        }
+        for(String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            if(separator > 0 && parameter.substring(0, separator).equals(name)) {
+                return URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8.name());
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Serve the lookups of a result file, the index is built next to a result file if the index file is not given
+     */
+    public static void main(String[] args) throws IOException {
+        String inputFile = null;
+        int port = 8080;
+        int cacheSize = ActivationDateService.DEFAULT_CACHE_SIZE;
+        try {
+            for(int i = 0; i < args.length; i++) {
+                if(!args[i].startsWith("--")) {
+                    inputFile = args[i];
+                } else if(i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + args[i]);
+                } else if(args[i].equals("--port")) {
+                    port = Integer.parseInt(args[++i]);
+                } else if(args[i].equals("--cache")) {
+                    cacheSize = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if(inputFile == null) {
+                throw new IllegalArgumentException("Missing result file");
+            }
+        } catch(IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        Path indexPath = Paths.get(inputFile);
+        if(!inputFile.endsWith(".idx")) {
+            indexPath = Paths.get(inputFile + ".idx");
+            System.out.println("Building the index " + indexPath + " .... ");
+            ResultIndex.build(Paths.get(inputFile), indexPath);
+        }
+        ActivationDateService service = new ActivationDateService(ResultIndex.open(indexPath), cacheSize);
+        QueryServer server = new QueryServer(service, port, Runtime.getRuntime().availableProcessors());
+        server.start();
+        System.out.println("Serving http://localhost:" + server.getPort() + CONTEXT_PATH + "?phone=<phone number>");
+    }
+}
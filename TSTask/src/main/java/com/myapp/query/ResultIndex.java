@@ -0,0 +1,222 @@
+package com.myapp.query;
+
+import com.myapp.csv.EpochDays;
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.SortedRunFile;
+import com.myapp.task.RangeRead;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A sorted index of the results for the point lookups of the real activation date of a phone.
+ * The index file holds a header with the magic number and the number of entries, followed by an entry per phone
+ * in ascending order of the phone key: the phone key and the real activation day in fixed width, 12 bytes per entry.
+ * The day is kept inline, so a lookup is a binary search over the memory mapped entries without reading the result file.
+ * A mapped buffer is limited to 2 GB, so the entries are mapped in windows of a whole number of entries.
+ */
+public class ResultIndex implements Closeable {
+
+    /**
+     * The magic number at the beginning of an index file
+     */
+    private static final int MAGIC = 0x52494458;
+
+    private static final int HEADER_BYTES = 4 + 8;
+
+    private static final int ENTRY_BYTES = 8 + 4;
+
+    /**
+     * Number of entries of a mapped window
+     */
+    private static final long WINDOW_ENTRIES = (1L << 30) / ENTRY_BYTES;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Bytes of the result file sorted in the heap at once when the index is built
+     */
+    private static final long RUN_BYTES = 64L * 1024 * 1024;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer[] windows;
+
+    private long entryCount;
+
+    private ResultIndex(FileChannel channel, MappedByteBuffer[] windows, long entryCount) {
+        this.channel = channel;
+        this.windows = windows;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Build the index file of a result file with format like: PHONE_NUMBER,REAL_ACTIVATION_DATE.
+     * The result file is sorted in runs of bounded size, so the heap holds the results of one run whatever the size
+     * of the result file: a single run is written directly, otherwise each run is spilled to a {@link SortedRunFile}
+     * and the runs are merged into the index.
+     * @param resultPath
+     * @param indexPath
+     * @throws IOException
+     */
+    public static void build(Path resultPath, Path indexPath) throws IOException {
+        build(resultPath, indexPath, RUN_BYTES);
+    }
+
+    /**
+     * Build the index file of a result file sorted in runs of about the run size in bytes
+     * @param resultPath
+     * @param indexPath
+     * @param runBytes
+     * @throws IOException
+     */
+    static void build(Path resultPath, Path indexPath, long runBytes) throws IOException {
+        List<RangeRead> runRanges = FileHelper.splitByteRanges(resultPath, runBytes);
+        if(runRanges.size() <= 1) {
+            PhoneRecordBatch batch = runRanges.isEmpty() ? new PhoneRecordBatch()
+                    : FileHelper.readBatch(resultPath, runRanges.get(0));
+            batch.sort();
+            try (DataOutputStream out = openIndex(indexPath, batch.size())) {
+                for(int index = 0; index < batch.size(); index++) {
+                    out.writeLong(batch.getPhoneKey(index));
+                    out.writeInt(batch.getActivationDay(index));
+                }
+            }
+            return;
+        }
+        Path runFolderPath = FileHelper.getSortedRunFolderPath();
+        try {
+            List<Path> runPaths = new ArrayList<>();
+            long entryCount = 0;
+            for(RangeRead runRange : runRanges) {
+                PhoneRecordBatch batch = FileHelper.readBatch(resultPath, runRange);
+                batch.sort();
+                Path runPath = runFolderPath.resolve("run_" + runPaths.size() + ".bin");
+                SortedRunFile.write(runPath, batch);
+                runPaths.add(runPath);
+                entryCount += batch.size();
+            }
+            try (DataOutputStream out = openIndex(indexPath, entryCount)) {
+                mergeRuns(runPaths, out);
+            }
+        } finally {
+            FileHelper.deleteFolder(runFolderPath);
+        }
+    }
+
+    /**
+     * Create the index file and write its header
+     */
+    private static DataOutputStream openIndex(Path indexPath, long entryCount) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath), BUFFER_SIZE));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(entryCount);
+            return out;
+        } catch(IOException ex) {
+            out.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Merge the sorted runs into the entries of the index
+     */
+    private static void mergeRuns(List<Path> runPaths, DataOutputStream out) throws IOException {
+        PriorityQueue<SortedRunFile.Reader> readers = new PriorityQueue<>();
+        List<SortedRunFile.Reader> openedReaders = new ArrayList<>();
+        try {
+            for(Path runPath : runPaths) {
+                SortedRunFile.Reader reader = new SortedRunFile.Reader(runPath);
+                openedReaders.add(reader);
+                if(reader.next()) {
+                    readers.add(reader);
+                }
+            }
+            while(!readers.isEmpty()) {
+                SortedRunFile.Reader reader = readers.poll();
+                out.writeLong(reader.getPhoneKey());
+                out.writeInt(reader.getActivationDay());
+                if(reader.next()) {
+                    readers.add(reader);
+                }
+            }
+        } finally {
+            for(SortedRunFile.Reader reader : openedReaders) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Map an index file into memory
+     * @param indexPath
+     * @return
+     * @throws IOException
+     */
+    public static ResultIndex open(Path indexPath) throws IOException {
+        FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER_BYTES, channel.size()));
+            if(header.limit() < HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IOException("The file " + indexPath + " is not a result index file");
+            }
+            long entryCount = header.getLong(4);
+            if(HEADER_BYTES + entryCount * ENTRY_BYTES > channel.size()) {
+                throw new IOException("The index file " + indexPath + " is truncated");
+            }
+            MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((entryCount + WINDOW_ENTRIES - 1) / WINDOW_ENTRIES)];
+            for(int i = 0; i < windows.length; i++) {
+                long firstEntry = i * WINDOW_ENTRIES;
+                long entries = Math.min(WINDOW_ENTRIES, entryCount - firstEntry);
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + firstEntry * ENTRY_BYTES,
+                        entries * ENTRY_BYTES);
+            }
+            return new ResultIndex(channel, windows, entryCount);
+        } catch(IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Find the real activation day of a phone by a binary search, the index can be searched by many threads
+     * @param phoneKey
+     * @return the epoch day, or {@link EpochDays#NO_DATE} if the phone is not in the index
+     */
+    public int findActivationDay(long phoneKey) {
+        long low = 0;
+        long high = this.entryCount - 1;
+        while(low <= high) {
+            long middle = (low + high) >>> 1;
+            MappedByteBuffer window = this.windows[(int) (middle / WINDOW_ENTRIES)];
+            int offset = (int) (middle % WINDOW_ENTRIES) * ENTRY_BYTES;
+            long middleKey = window.getLong(offset);
+            if(middleKey < phoneKey) {
+                low = middle + 1;
+            } else if(middleKey > phoneKey) {
+                high = middle - 1;
+            } else {
+                return window.getInt(offset + 8);
+            }
+        }
+        return EpochDays.NO_DATE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,237 @@
+package com.myapp.state;
+
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.ResultSink;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The persisted state of every phone seen by the previous runs, so a run only has to apply the records of a delta file.
+ * The state file holds the phones in ascending order of the phone key, each phone in a compact binary format:
+ * the phone key, the resolved real activation day, the number of chains and the chains of consecutive records
+ * as pairs of activation day and deactivation day. The chains are enough to apply any later record,
+ * even one bridging two chains, without the full history.
+ * The new state is written to a temporary file next to the state file and only moved over it atomically when
+ * the update is committed, once the results of the run are written, so a failed run keeps the previous state.
+ */
+public class PhoneStateStore {
+
+    /**
+     * The magic number at the beginning of a state file
+     */
+    private static final int MAGIC = 0x50535431;
+
+    /**
+     * Size of the buffer of the reader and the writer of the state file
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     *
+     */
+    private Path statePath;
+
+    /**
+     *
+     * @param statePath the state file, a missing file is an empty state
+     */
+    public PhoneStateStore(Path statePath) {
+        this.statePath = statePath;
+    }
+
+    public Path getStatePath() {
+        return statePath;
+    }
+
+    /**
+     * The new state written by {@link #apply}, which replaces the state file when it is committed
+     */
+    public static class StateUpdate {
+
+        private Path tempPath;
+
+        private Path statePath;
+
+        private long changedPhones;
+
+        StateUpdate(Path tempPath, Path statePath, long changedPhones) {
+            this.tempPath = tempPath;
+            this.statePath = statePath;
+            this.changedPhones = changedPhones;
+        }
+
+        public long getChangedPhones() {
+            return changedPhones;
+        }
+
+        /**
+         * Replace the state file with the new state, once the changed phones are written
+         * @throws IOException
+         */
+        public void commit() throws IOException {
+            try {
+                Files.move(tempPath, statePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch(AtomicMoveNotSupportedException ex) {
+                Files.move(tempPath, statePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        /**
+         * Delete the new state and keep the state file, when the changed phones fail to be written
+         * @throws IOException
+         */
+        public void discard() throws IOException {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Apply the records of a delta to the state in one sequential pass over the state file, and write the
+     * real activation date of each phone whose date has changed to the sink. The state file is not changed
+     * until the returned update is committed.
+     * @param delta the records of the delta, the batch is compacted
+     * @param sink
+     * @return the update of the state
+     * @throws IOException
+     */
+    public StateUpdate apply(PhoneRecordBatch delta, ResultSink sink) throws IOException {
+        delta.compact();
+        Path tempPath = this.statePath.resolveSibling(this.statePath.getFileName() + ".tmp");
+        long changedPhones = 0;
+        try (Reader reader = new Reader(this.statePath);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            PhoneRecordBatch chains = new PhoneRecordBatch();
+            boolean hasState = reader.next();
+            int deltaIndex = 0;
+            while(hasState || deltaIndex < delta.size()) {
+                boolean inState = hasState && (deltaIndex == delta.size() || reader.getPhoneKey() <= delta.getPhoneKey(deltaIndex));
+                boolean inDelta = deltaIndex < delta.size() && (!hasState || delta.getPhoneKey(deltaIndex) <= reader.getPhoneKey());
+                long phoneKey = inState ? reader.getPhoneKey() : delta.getPhoneKey(deltaIndex);
+                int previousActivationDay = inState ? reader.getActivationDay() : 0;
+                chains.clear();
+                if(inState) {
+                    reader.readChains(chains);
+                    hasState = reader.next();
+                }
+                if(!inDelta) {
+                    write(out, phoneKey, previousActivationDay, chains);
+                    continue;
+                }
+                int deltaEnd = delta.phoneGroupEnd(deltaIndex);
+                chains.addAll(delta, deltaIndex, deltaEnd);
+                deltaIndex = deltaEnd;
+                chains.compact();
+                int activationDay = chains.findActivationDay(0, chains.size());
+                write(out, phoneKey, activationDay, chains);
+                if(!inState || activationDay != previousActivationDay) {
+                    sink.write(phoneKey, activationDay);
+                    changedPhones++;
+                }
+            }
+        } catch(IOException | RuntimeException ex) {
+            Files.deleteIfExists(tempPath);
+            throw ex;
+        }
+        return new StateUpdate(tempPath, this.statePath, changedPhones);
+    }
+
+    private static void write(DataOutputStream out, long phoneKey, int activationDay, PhoneRecordBatch chains) throws IOException {
+        out.writeLong(phoneKey);
+        out.writeInt(activationDay);
+        out.writeInt(chains.size());
+        for(int index = 0; index < chains.size(); index++) {
+            out.writeInt(chains.getActivationDay(index));
+            out.writeInt(chains.getDeactivationDay(index));
+        }
+    }
+
+    /**
+     * Read the phones of a state file one by one, the chains of the current phone are read on demand.
+     */
+    public static class Reader implements Closeable {
+
+        private DataInputStream in;
+
+        private long phoneKey;
+
+        private int activationDay;
+
+        /**
+         * Number of the chains of the current phone which are not read yet
+         */
+        private int unreadChains;
+
+        /**
+         *
+         * @param statePath the state file, a missing file is read as an empty state
+         * @throws IOException
+         */
+        public Reader(Path statePath) throws IOException {
+            if(!Files.exists(statePath)) {
+                return;
+            }
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(statePath), BUFFER_SIZE));
+            try {
+                if(in.readInt() != MAGIC) {
+                    throw new IOException("The file " + statePath + " is not a phone state file");
+                }
+            } catch(IOException ex) {
+                in.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Move to the next phone, the chains of the current phone which are not read are skipped
+         * @return false if there is no more phone
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+            if(in == null) {
+                return false;
+            }
+            for(; unreadChains > 0; unreadChains--) {
+                in.readLong();
+            }
+            try {
+                this.phoneKey = in.readLong();
+            } catch(EOFException ex) {
+                return false;
+            }
+            this.activationDay = in.readInt();
+            this.unreadChains = in.readInt();
+            return true;
+        }
+
+        public long getPhoneKey() {
+            return phoneKey;
+        }
+
+        public int getActivationDay() {
+            return activationDay;
+        }
+
+        /**
+         * Add the chains of the current phone to the batch
+         * @param target
+         * @throws IOException
+         */
+        public void readChains(PhoneRecordBatch target) throws IOException {
+            for(; unreadChains > 0; unreadChains--) {
+                target.add(phoneKey, in.readInt(), in.readInt());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(in != null) {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.myapp.state;
+
+import com.myapp.csv.BinaryRecordCodec;
+import com.myapp.csv.PartitionWriter;
+import com.myapp.task.PhoneSeparationTask;
+import com.myapp.task.RangeRead;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The checkpoint of a separation run, so a run killed by a crash or an out of memory error can be resumed
+ * without separating again the ranges already committed to the bucket files. The checkpoint directory holds
+ * the bucket files and a small manifest: the input file, the ranges of the input and the ranges committed so far.
+ * Every frame of the bucket files is tagged with its range and the attempt which wrote it, see
+ * {@link BinaryRecordCodec#encodeTagged}. A range is committed once all its frames are forced to the bucket files,
+ * the manifest then records the attempt of the range and is replaced atomically. When the buckets are resolved,
+ * only the frames of the committed attempt of each range are read, so the frames of the ranges interrupted
+ * by a crash are ignored and the ranges are simply separated again by the next attempt.
+ */
+public class SeparationCheckpoint {
+
+    public static final String MANIFEST_FILE = "manifest.properties";
+
+    private static final int VERSION = 1;
+
+    /**
+     * The minimum interval between two commits of the completed ranges
+     */
+    private static final long COMMIT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * The attempt of a range not committed yet
+     */
+    private static final int NOT_COMMITTED = 0;
+
+    private Path directory;
+
+    private Path inputPath;
+
+    private long inputSize;
+
+    private long inputModifiedMillis;
+
+    private int bucketCount;
+
+    private List<RangeRead> rangeReads;
+
+    /**
+     * The attempt which committed each range
+     */
+    private int[] committedAttempts;
+
+    /**
+     * The attempt of the running process, starting at 1
+     */
+    private int attempt;
+
+    /**
+     * The ranges completed by the running attempt and not committed yet
+     */
+    private Queue<Integer> completedRanges = new ConcurrentLinkedQueue<>();
+
+    private ReentrantLock commitLock = new ReentrantLock();
+
+    private volatile long lastCommitNanos = System.nanoTime();
+
+    private SeparationCheckpoint(Path directory, Path inputPath, int bucketCount, List<RangeRead> rangeReads,
+                                 int[] committedAttempts, int attempt) throws IOException {
+        this.directory = directory;
+        this.inputPath = inputPath.toAbsolutePath();
+        this.inputSize = Files.size(inputPath);
+        this.inputModifiedMillis = Files.getLastModifiedTime(inputPath).toMillis();
+        this.bucketCount = bucketCount;
+        this.rangeReads = rangeReads;
+        this.committedAttempts = committedAttempts;
+        this.attempt = attempt;
+    }
+
+    /**
+     * Create the checkpoint of a new run in an empty or missing directory
+     * @param directory
+     * @param inputPath
+     * @param bucketCount
+     * @param rangeReads all ranges of the input
+     * @return
+     * @throws IOException
+     */
+    public static SeparationCheckpoint create(Path directory, Path inputPath, int bucketCount,
+                                              List<RangeRead> rangeReads) throws IOException {
+        if(Files.exists(directory.resolve(MANIFEST_FILE))) {
+            throw new IllegalArgumentException("The checkpoint directory " + directory
+                    + " already holds a run, resume it or choose another directory");
+        }
+        Files.createDirectories(directory);
+        SeparationCheckpoint checkpoint = new SeparationCheckpoint(directory, inputPath, bucketCount,
+                new ArrayList<>(rangeReads), new int[rangeReads.size()], 1);
+        checkpoint.writeManifest();
+        return checkpoint;
+    }
+
+    /**
+     * Resume the checkpoint of an interrupted run: the next attempt is recorded in the manifest
+     * and the frames torn by the crash are cut from the end of the bucket files.
+     * @param directory
+     * @param inputPath the input file of the interrupted run, it must not have changed
+     * @param bucketCount
+     * @return
+     * @throws IOException
+     */
+    public static SeparationCheckpoint resume(Path directory, Path inputPath, int bucketCount) throws IOException {
+        Path manifestPath = directory.resolve(MANIFEST_FILE);
+        if(!Files.exists(manifestPath)) {
+            throw new IllegalArgumentException("The checkpoint directory " + directory + " has no manifest to resume");
+        }
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(manifestPath)) {
+            manifest.load(in);
+        }
+        if(Integer.parseInt(manifest.getProperty("version")) != VERSION) {
+            throw new IllegalArgumentException("Unsupported version of the checkpoint manifest " + manifestPath);
+        }
+        if(!Files.isSameFile(Paths.get(manifest.getProperty("input")), inputPath)
+                || Long.parseLong(manifest.getProperty("inputSize")) != Files.size(inputPath)
+                || Long.parseLong(manifest.getProperty("inputModified")) != Files.getLastModifiedTime(inputPath).toMillis()) {
+            throw new IllegalArgumentException("The checkpoint of " + manifest.getProperty("input")
+                    + " does not match the input file " + inputPath);
+        }
+        if(Integer.parseInt(manifest.getProperty("bucketCount")) != bucketCount) {
+            throw new IllegalArgumentException("The checkpoint was separated into "
+                    + manifest.getProperty("bucketCount") + " buckets instead of " + bucketCount);
+        }
+        int rangeCount = Integer.parseInt(manifest.getProperty("rangeCount"));
+        List<RangeRead> rangeReads = new ArrayList<>(rangeCount);
+        int[] committedAttempts = new int[rangeCount];
+        for(int i = 0; i < rangeCount; i++) {
+            String[] fields = manifest.getProperty("range." + i).split(",");
+            rangeReads.add(RangeRead.ofBytes(Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+            committedAttempts[i] = Integer.parseInt(fields[2]);
+        }
+        SeparationCheckpoint checkpoint = new SeparationCheckpoint(directory, inputPath, bucketCount, rangeReads,
+                committedAttempts, Integer.parseInt(manifest.getProperty("attempt")) + 1);
+        checkpoint.writeManifest();
+        checkpoint.cutTornFrames();
+        return checkpoint;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * Get all ranges of the input
+     * @return
+     */
+    public List<RangeRead> getRangeReads() {
+        return Collections.unmodifiableList(rangeReads);
+    }
+
+    /**
+     * Get the indexes of the ranges not committed by a previous attempt
+     * @return
+     */
+    public List<Integer> getPendingRanges() {
+        List<Integer> pendingRanges = new ArrayList<>();
+        for(int i = 0; i < committedAttempts.length; i++) {
+            if(committedAttempts[i] == NOT_COMMITTED) {
+                pendingRanges.add(i);
+            }
+        }
+        return pendingRanges;
+    }
+
+    /**
+     * Get the tag of the frames written for a range by the running attempt
+     * @param rangeIndex
+     * @return
+     */
+    public long getFrameTag(int rangeIndex) {
+        return (long) attempt << 32 | rangeIndex;
+    }
+
+    /**
+     * Whether a frame has been written by the attempt which committed its range
+     * @param frameTag
+     * @return
+     */
+    public boolean isCommitted(long frameTag) {
+        int rangeIndex = (int) frameTag;
+        //no attempt writes frames of attempt 0, such a tag is garbage left by a crash
+        return rangeIndex >= 0 && rangeIndex < committedAttempts.length
+                && committedAttempts[rangeIndex] != NOT_COMMITTED
+                && committedAttempts[rangeIndex] == (int) (frameTag >>> 32);
+    }
+
+    /**
+     * Mark a range as completed, the completed ranges are committed at most every few seconds
+     * @param rangeIndex
+     * @param partitionWriter the writer of the bucket files holding the frames of the range
+     * @throws IOException
+     */
+    public void rangeCompleted(int rangeIndex, PartitionWriter partitionWriter) throws IOException {
+        completedRanges.add(rangeIndex);
+        if(System.nanoTime() - lastCommitNanos >= COMMIT_INTERVAL_NANOS && commitLock.tryLock()) {
+            try {
+                commit(partitionWriter);
+            } finally {
+                commitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Commit the completed ranges: flush their frames to the bucket files and force the files to the storage device,
+     * then record them in the manifest, so a committed range survives a crash of the operating system or a power loss
+     * @param partitionWriter
+     * @throws IOException
+     */
+    public void commit(PartitionWriter partitionWriter) throws IOException {
+        commitLock.lock();
+        try {
+            //the ranges completed before the sync have all their frames on the storage device after it
+            List<Integer> committedRanges = new ArrayList<>();
+            Integer rangeIndex;
+            while((rangeIndex = completedRanges.poll()) != null) {
+                committedRanges.add(rangeIndex);
+            }
+            if(committedRanges.isEmpty()) {
+                return;
+            }
+            partitionWriter.sync();
+            for(int committedRange : committedRanges) {
+                committedAttempts[committedRange] = attempt;
+            }
+            writeManifest();
+            lastCommitNanos = System.nanoTime();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Delete the manifest and the bucket files once the results are written, then the directory if it is empty
+     * @throws IOException
+     */
+    public void delete() throws IOException {
+        for(int bucket = 0; bucket < bucketCount; bucket++) {
+            Files.deleteIfExists(directory.resolve(PhoneSeparationTask.getBucketName(bucket) + ".bin"));
+        }
+        Files.deleteIfExists(directory.resolve(MANIFEST_FILE));
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            if(!entries.iterator().hasNext()) {
+                Files.delete(directory);
+            }
+        }
+    }
+
+    /**
+     * Write the manifest to a temporary file and move it over the manifest
+     * @throws IOException
+     */
+    private synchronized void writeManifest() throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("version", Integer.toString(VERSION));
+        manifest.setProperty("input", inputPath.toString());
+        manifest.setProperty("inputSize", Long.toString(inputSize));
+        manifest.setProperty("inputModified", Long.toString(inputModifiedMillis));
+        manifest.setProperty("bucketCount", Integer.toString(bucketCount));
+        manifest.setProperty("attempt", Integer.toString(attempt));
+        manifest.setProperty("rangeCount", Integer.toString(rangeReads.size()));
+        for(int i = 0; i < rangeReads.size(); i++) {
+            RangeRead rangeRead = rangeReads.get(i);
+            manifest.setProperty("range." + i, rangeRead.getIncludeStartPos() + "," + rangeRead.getExcludeEndPos()
+                    + "," + committedAttempts[i]);
+        }
+        Path manifestPath = directory.resolve(MANIFEST_FILE);
+        Path tempPath = directory.resolve(MANIFEST_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempPath)) {
+            manifest.store(out, "Checkpoint of the separation of " + inputPath);
+        }
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(tempPath, manifestPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(AtomicMoveNotSupportedException ex) {
+            Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Cut the beginning of a frame torn by the crash at the end of each bucket file, so the frames
+     * appended by the next attempt follow whole frames
+     * @throws IOException
+     */
+    private void cutTornFrames() throws IOException {
+        for(int bucket = 0; bucket < bucketCount; bucket++) {
+            Path bucketPath = directory.resolve(PhoneSeparationTask.getBucketName(bucket) + ".bin");
+            if(!Files.exists(bucketPath)) {
+                continue;
+            }
+            long wholeLength = BinaryRecordCodec.wholeTaggedLength(bucketPath);
+            if(wholeLength < Files.size(bucketPath)) {
+                try (FileChannel channel = FileChannel.open(bucketPath, StandardOpenOption.WRITE)) {
+                    channel.truncate(wholeLength);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.myapp.task;
+
+import com.myapp.csv.EpochDays;
+
+/**
+ * The kernel of finding the real activation date over primitive arrays of intervals. An interval is the activation
+ * day and the deactivation day of a record, an open-ended interval has the deactivation day {@link EpochDays#NO_DATE}.
+ * The intervals are sorted once by the phone key and the activation day, then a linear sweep chains them:
+ * an interval continues the chain when it is activated at or before the latest deactivation day of the chain,
+ * i.e. when it is consecutive to the chain (activated at its deactivation day) or when it overlaps the chain,
+ * even if it overlaps an earlier interval than the previous one. Otherwise there is a gap and the interval starts
+ * a new chain. The real activation day is the activation day of the first interval of the last chain.
+ * Nothing is allocated per interval, as the kernel runs once for every phone.
+ */
+public class IntervalMergeKernel {
+
+    /**
+     * Ranges shorter than this threshold are sorted by insertion
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private IntervalMergeKernel() {
+    }
+
+    /**
+     * Whether an interval activated at the activation day continues a chain deactivated at the chain day,
+     * either consecutive to the chain or overlapping it
+     * @param chainDeactivationDay the latest deactivation day of the intervals of the chain
+     * @param activationDay
+     * @return
+     */
+    public static boolean isConsecutive(int chainDeactivationDay, int activationDay) {
+        return activationDay <= chainDeactivationDay;
+    }
+
+    /**
+     * A step of the sweep: get the real activation day after visiting the next interval in order.
+     * @param activationDay the real activation day found before the interval
+     * @param chainDeactivationDay the latest deactivation day of the chain before the interval
+     * @param nextActivationDay the activation day of the interval
+     * @return
+     */
+    public static int nextActivationDay(int activationDay, int chainDeactivationDay, int nextActivationDay) {
+        return isConsecutive(chainDeactivationDay, nextActivationDay) ? activationDay : nextActivationDay;
+    }
+
+    /**
+     * A step of the sweep: get the latest deactivation day of the chain after visiting the next interval in order.
+     * @param chainDeactivationDay the latest deactivation day of the chain before the interval
+     * @param nextActivationDay the activation day of the interval
+     * @param nextDeactivationDay the deactivation day of the interval
+     * @return
+     */
+    public static int nextChainDeactivationDay(int chainDeactivationDay, int nextActivationDay, int nextDeactivationDay) {
+        return isConsecutive(chainDeactivationDay, nextActivationDay) ?
+                Math.max(chainDeactivationDay, nextDeactivationDay) : nextDeactivationDay;
+    }
+
+    /**
+     * Find the real activation day of the sorted intervals of a phone from an included start index to
+     * an excluded end index.
+     * @param activationDays
+     * @param deactivationDays
+     * @param fromIndex
+     * @param toIndex
+     * @return
+     */
+    public static int findActivationDay(int[] activationDays, int[] deactivationDays, int fromIndex, int toIndex) {
+        int activationDay = activationDays[fromIndex];
+        int chainDeactivationDay = deactivationDays[fromIndex];
+        for(int index = fromIndex + 1; index < toIndex; index++) {
+            activationDay = nextActivationDay(activationDay, chainDeactivationDay, activationDays[index]);
+            chainDeactivationDay = nextChainDeactivationDay(chainDeactivationDay, activationDays[index],
+                    deactivationDays[index]);
+        }
+        return activationDay;
+    }
+
+    /**
+     * Merge the chains of sorted intervals of a phone in place, a merged interval spans from the activation day
+     * of the first interval of a chain to its latest deactivation day. The merged intervals are stored from
+     * the included start index, the intervals after the returned index until the excluded end index are obsolete.
+     * @param activationDays
+     * @param deactivationDays
+     * @param fromIndex
+     * @param toIndex
+     * @return the excluded end index of the merged intervals
+     */
+    public static int mergeConsecutive(int[] activationDays, int[] deactivationDays, int fromIndex, int toIndex) {
+        if(toIndex - fromIndex <= 1) {
+            return toIndex;
+        }
+        int last = fromIndex;
+        for(int index = fromIndex + 1; index < toIndex; index++) {
+            if(isConsecutive(deactivationDays[last], activationDays[index])) {
+                deactivationDays[last] = Math.max(deactivationDays[last], deactivationDays[index]);
+            } else {
+                last++;
+                activationDays[last] = activationDays[index];
+                deactivationDays[last] = deactivationDays[index];
+            }
+        }
+        return last + 1;
+    }
+
+    /**
+     * Sort the parallel arrays from an included start index to an excluded end index in ascending order of
+     * the phone key, then the activation day, then the deactivation day, which is a consistent total order.
+     * It is a quick sort recursing into the smaller partition to bound the stack depth.
+     * @param phoneKeys
+     * @param activationDays
+     * @param deactivationDays
+     * @param fromIndex
+     * @param toIndex
+     */
+    public static void sort(long[] phoneKeys, int[] activationDays, int[] deactivationDays, int fromIndex, int toIndex) {
+        while(toIndex - fromIndex > INSERTION_SORT_THRESHOLD) {
+            int middle = (fromIndex + toIndex) >>> 1;
+            //median of three as pivot, moved to the start of the range
+            int last = toIndex - 1;
+            if(compare(phoneKeys, activationDays, deactivationDays, middle, fromIndex) < 0) {
+                swap(phoneKeys, activationDays, deactivationDays, middle, fromIndex);
+            }
+            if(compare(phoneKeys, activationDays, deactivationDays, last, fromIndex) < 0) {
+                swap(phoneKeys, activationDays, deactivationDays, last, fromIndex);
+            }
+            if(compare(phoneKeys, activationDays, deactivationDays, last, middle) < 0) {
+                swap(phoneKeys, activationDays, deactivationDays, last, middle);
+            }
+            swap(phoneKeys, activationDays, deactivationDays, fromIndex, middle);
+
+            int left = fromIndex + 1;
+            int right = last;
+            while(true) {
+                while(left <= right && compare(phoneKeys, activationDays, deactivationDays, left, fromIndex) < 0) {
+                    left++;
+                }
+                while(left <= right && compare(phoneKeys, activationDays, deactivationDays, right, fromIndex) > 0) {
+                    right--;
+                }
+                if(left >= right) {
+                    break;
+                }
+                swap(phoneKeys, activationDays, deactivationDays, left++, right--);
+            }
+            swap(phoneKeys, activationDays, deactivationDays, fromIndex, right);
+            if(right - fromIndex < toIndex - right - 1) {
+                sort(phoneKeys, activationDays, deactivationDays, fromIndex, right);
+                fromIndex = right + 1;
+            } else {
+                sort(phoneKeys, activationDays, deactivationDays, right + 1, toIndex);
+                toIndex = right;
+            }
+        }
+        for(int i = fromIndex + 1; i < toIndex; i++) {
+            for(int j = i; j > fromIndex && compare(phoneKeys, activationDays, deactivationDays, j, j - 1) < 0; j--) {
+                swap(phoneKeys, activationDays, deactivationDays, j, j - 1);
+            }
+        }
+    }
+
+    private static int compare(long[] phoneKeys, int[] activationDays, int[] deactivationDays, int first, int second) {
+        int result = Long.compare(phoneKeys[first], phoneKeys[second]);
+        if(result != 0) {
+            return result;
+        }
+        result = Integer.compare(activationDays[first], activationDays[second]);
+        if(result != 0) {
+            return result;
+        }
+        return Integer.compare(deactivationDays[first], deactivationDays[second]);
+    }
+
+    private static void swap(long[] phoneKeys, int[] activationDays, int[] deactivationDays, int first, int second) {
+        long phoneKey = phoneKeys[first];
+        phoneKeys[first] = phoneKeys[second];
+        phoneKeys[second] = phoneKey;
+        int activationDay = activationDays[first];
+        activationDays[first] = activationDays[second];
+        activationDays[second] = activationDay;
+        int deactivationDay = deactivationDays[first];
+        deactivationDays[first] = deactivationDays[second];
+        deactivationDays[second] = deactivationDay;
+    }
+}
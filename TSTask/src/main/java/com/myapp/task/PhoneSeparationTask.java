@@ -1,86 +1,88 @@
 package com.myapp.task;
 
-import com.myapp.csv.FileHelper;
-import com.myapp.csv.PhoneRecord;
+import com.myapp.csv.PartitionWriter;
+import com.myapp.csv.PhoneNumberCodec;
+import com.myapp.csv.PhoneRecordBatch;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.util.*;
-import java.util.stream.Collectors;
 
 /**
- * This is a sub task which does group the same phone number, sorting in descending order,
- * aggregate consecutive records, and finally create a phone number file to write the result
+ * This is a sub task which does group the same phone number, sorting in ascending order of the activation date,
+ * aggregate consecutive records, and finally append the records to the bucket file of the phone number
  * for the next processing
  */
 public class PhoneSeparationTask {
     /**
-     *
+     * The prefix of the names of the bucket files
      */
-    private List<PhoneRecord> records;
+    public static final String BUCKET_PREFIX = PartitionWriter.PARTITION_PREFIX;
     /**
-     *
+     * The columnar records, the list of records is converted to the batch when the task is created from a list
+     */
+    private PhoneRecordBatch batch;
+    /**
+     * The writer of the bucket files under the separation folder
+     */
+    private PartitionWriter partitionWriter;
+    /**
+     * Number of bucket files which the phone numbers are hashed into
+     */
+    private int bucketCount;
+    /**
+     * The tag of the frames appended to the bucket files, {@link PartitionWriter#NO_TAG} for frames without tag
      */
-    private Path separationFolderPath;
+    private long frameTag;
     /**
      *
-     * @param records
+     * @param batch
+     * @param partitionWriter
+     * @param bucketCount
      */
-    public PhoneSeparationTask(List<PhoneRecord> records, Path separationFolderPath) {
-        this.records = records;
-        this.separationFolderPath = separationFolderPath;
+    public PhoneSeparationTask(PhoneRecordBatch batch, PartitionWriter partitionWriter, int bucketCount) {
+        this(batch, partitionWriter, bucketCount, PartitionWriter.NO_TAG);
     }
 
     /**
      *
+     * @param batch
+     * @param partitionWriter
+     * @param bucketCount
+     * @param frameTag the tag of the frames appended to the bucket files
+     */
+    public PhoneSeparationTask(PhoneRecordBatch batch, PartitionWriter partitionWriter, int bucketCount, long frameTag) {
+        this.batch = batch;
+        this.partitionWriter = partitionWriter;
+        this.bucketCount = bucketCount;
+        this.frameTag = frameTag;
+    }
+
+    /**
+     * Get the name of a bucket file under the separation folder
+     * @param bucket
      * @return
      */
-    public Set<String> execute() {
+    public static String getBucketName(int bucket) {
+        return BUCKET_PREFIX + bucket;
+    }
 
-        //group on the phone number to separate records
-        Map<String, List<PhoneRecord>> uniquePhoneNumberMap = this.records.stream().collect(
-                Collectors.groupingBy(rc -> rc.getPhoneNumber())
-        );
-        uniquePhoneNumberMap.forEach((phoneNum, recordValues) -> {
-            //sort records to descending order
-            List<PhoneRecord> afterSortRecords = recordValues
-                    .stream()
-                    .sorted()
-                    .collect(
-                            Collectors.toList()
-                    );
-            //merge consecutive records to reduce the list
-            Map<String, LinkedList<PhoneRecord>> mergeRecords = new HashMap<>();
-            afterSortRecords.forEach(rc -> {
-                //initial the linked list with one element
-                LinkedList<PhoneRecord> initialLinkedList = new LinkedList();
-                initialLinkedList.add(rc);
-                //using merge function from the map to reducing the consecutive elements in which
-                //they are sorted at the descending order
-                mergeRecords.merge(rc.getPhoneNumber(), initialLinkedList, (oldList, newList) -> {
-                    //get the first element from the new list, the new list always has one elements
-                    PhoneRecord newRecord = newList.peek();
-                    //the old list is a accumulator containing all elements after reducing.
-                    PhoneRecord oldRecord = oldList.peek();
-                    if (oldRecord.isConsecutiveAndGreaterThan(newRecord)) {
-                        oldList.pop();
-                        oldList.push(new PhoneRecord(oldRecord.getPhoneNumber(),
-                                newRecord.getActivateDate(), oldRecord.getDeactivateDate()));
-                        return oldList;
-                    }
-                    oldList.push(newRecord);
-                    return oldList;
-                });
-            });
-            List<PhoneRecord> afterReducing = mergeRecords.getOrDefault(phoneNum, new LinkedList<>());
-            try {
-                Path filePath = FileHelper.getOrCreatePhonePath(this.separationFolderPath, phoneNum);
-                FileHelper.writeRecords(filePath, afterReducing);
-            } catch (IOException ex) {
-                ex.printStackTrace();
+    /**
+     * Separate the columnar records: sort the batch and merge the consecutive records of every phone,
+     * then group the records by the bucket of their phone, see {@link PhoneNumberCodec#partition(long, int)},
+     * and append each group to its bucket file.
+     * @return the number of records written to the bucket files
+     * @throws IOException
+     */
+    public int execute() throws IOException {
+        this.batch.compact();
+        PhoneRecordBatch bucketedBatch = new PhoneRecordBatch(this.batch.size());
+        int[] bucketStarts = this.batch.partitionInto(this.bucketCount, bucketedBatch);
+        for(int bucket = 0; bucket < this.bucketCount; bucket++) {
+            if(bucketStarts[bucket] < bucketStarts[bucket + 1]) {
+                this.partitionWriter.append(bucket, bucketedBatch,
+                        bucketStarts[bucket], bucketStarts[bucket + 1], this.frameTag);
             }
-        });
-        return uniquePhoneNumberMap.keySet();
+        }
+        return bucketedBatch.size();
     }
 
 }
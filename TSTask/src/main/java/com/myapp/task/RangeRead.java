@@ -1,7 +1,11 @@
 package com.myapp.task;
 
+import java.nio.file.Path;
+
 /**
- * Hold a range position with included start position and excluded end position
+ * Hold a range position with included start position and excluded end position.
+ * The positions are either line numbers or byte offsets aligned to the line boundaries of the file.
+ * When the input has several files, the range also holds its file.
  */
 public class RangeRead {
     /**
@@ -12,10 +16,45 @@ public class RangeRead {
      *
      */
     private long excludeEndPos;
+    /**
+     * Whether the positions are byte offsets instead of line numbers
+     */
+    private boolean byteOffset;
+    /**
+     * The file of the range when the input has several files, null for the single input file
+     */
+    private Path filePath;
 
     public RangeRead(long includeStartPos, long excludeEndPos) {
+        this(includeStartPos, excludeEndPos, false);
+    }
+
+    public RangeRead(long includeStartPos, long excludeEndPos, boolean byteOffset) {
         this.includeStartPos = includeStartPos;
         this.excludeEndPos = excludeEndPos;
+        this.byteOffset = byteOffset;
+    }
+
+    /**
+     * Create a range of byte offsets, the start offset must be the first byte of a line and
+     * the end offset must be the byte following a line break (or the end of file).
+     * @param includeStartOffset
+     * @param excludeEndOffset
+     * @return
+     */
+    public static RangeRead ofBytes(long includeStartOffset, long excludeEndOffset) {
+        return new RangeRead(includeStartOffset, excludeEndOffset, true);
+    }
+
+    /**
+     * Get the same range of a file of the input
+     * @param filePath
+     * @return
+     */
+    public RangeRead withFile(Path filePath) {
+        RangeRead rangeRead = new RangeRead(this.includeStartPos, this.excludeEndPos, this.byteOffset);
+        rangeRead.filePath = filePath;
+        return rangeRead;
     }
 
     public long getIncludeStartPos() {
@@ -25,4 +64,26 @@ public class RangeRead {
     public long getExcludeEndPos() {
         return excludeEndPos;
     }
+
+    public boolean isByteOffset() {
+        return byteOffset;
+    }
+
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    public long getLength() {
+        return excludeEndPos - includeStartPos;
+    }
+
+    @Override
+    public String toString() {
+        return "RangeRead{" +
+                "includeStartPos=" + includeStartPos +
+                ", excludeEndPos=" + excludeEndPos +
+                ", byteOffset=" + byteOffset +
+                (filePath != null ? ", filePath=" + filePath : "") +
+                '}';
+    }
 }
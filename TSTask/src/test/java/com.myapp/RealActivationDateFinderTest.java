@@ -1,14 +1,301 @@
 package com.myapp;
 
 
+import com.myapp.csv.FileHelper;
+import com.myapp.engine.EngineMode;
+import com.myapp.engine.UnsortedInputException;
+import com.myapp.engine.VirtualThreadRunner;
+import com.myapp.generator.DatasetGenerator;
+import com.myapp.state.SeparationCheckpoint;
+import com.myapp.task.PhoneSeparationTask;
+import org.junit.Assume;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by nguyenhuy on 11/18/17.
  */
 public class RealActivationDateFinderTest {
+
+    private static final List<String> INPUT_LINES = Arrays.asList(
+            "PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE",
+            "0987000001,2016-03-01,2016-05-01",
+            "0987000002,2016-02-01,2016-03-01",
+            "0987000001,2016-01-01,2016-03-01",
+            "0987000001,2016-12-01,",
+            "0987000002,2016-03-01,2016-05-01",
+            "0987000003,2016-01-01,2016-01-10",
+            "0987000001,2016-09-01,2016-12-01",
+            "0987000002,2016-05-01,",
+            "0987000001,2016-06-01,2016-09-01"
+    );
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public  void testPhoneNumberNotUsed() {
 
     }
+
+    @Test
+    public void testRealActivationDateOfOverlappingRecords() throws IOException {
+        for(EngineMode engineMode : EngineMode.values()) {
+            FinderOptions options = new FinderOptions();
+            options.setEngineMode(engineMode);
+            options.setStateFile(temporaryFolder.getRoot().toPath().resolve("state_" + engineMode + ".bin").toString());
+            Map<String, String> results = find(options, Arrays.asList(
+                    "PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE",
+                    "0987000001,2016-01-01,2016-06-01",
+                    "0987000001,2016-02-01,2016-03-01",
+                    "0987000001,2016-06-01,",
+                    "0987000002,2016-01-01,2016-03-01",
+                    "0987000002,2016-02-01,2016-04-01",
+                    "0987000002,2016-05-01,"));
+            assertEquals(engineMode.toString(), "2016-01-01", results.get("0987000001"));
+            assertEquals(engineMode.toString(), "2016-05-01", results.get("0987000002"));
+        }
+    }
+
+    @Test
+    public void testRealActivationDateOfLastConsecutiveRecords() throws IOException {
+        assertSampleResults(find(new FinderOptions()));
+    }
+
+    @Test
+    public void testRealActivationDateOfEngineModes() throws IOException {
+        for(EngineMode engineMode : EngineMode.values()) {
+            FinderOptions options = new FinderOptions();
+            options.setEngineMode(engineMode);
+            options.setStateFile(temporaryFolder.getRoot().toPath().resolve("state_" + engineMode + ".bin").toString());
+            assertSampleResults(find(options));
+        }
+    }
+
+    @Test(expected = UnsortedInputException.class)
+    public void testStreamingModeFailsOnUnsortedInput() throws IOException {
+        FinderOptions options = new FinderOptions();
+        options.setEngineMode(EngineMode.STREAMING);
+        options.setStreamingFallback(false);
+        find(options);
+    }
+
+    @Test
+    public void testStreamingModeCompactsAPhoneWithManyRecords() throws IOException {
+        //two chains of daily records in reverse order, the second one starts after a gap of a day
+        LocalDate secondChainStart = LocalDate.of(2016, 1, 1).plusDays(3001);
+        List<String> inputLines = new ArrayList<>();
+        inputLines.add(DatasetGenerator.HEADER);
+        for(int day = 4999; day >= 0; day--) {
+            LocalDate activationDate = LocalDate.of(2016, 1, 1).plusDays(day >= 3000 ? day + 1 : day);
+            inputLines.add("0987000001," + activationDate + "," + activationDate.plusDays(1));
+        }
+        inputLines.add("0987000002,2016-01-01,");
+        FinderOptions options = new FinderOptions();
+        options.setEngineMode(EngineMode.STREAMING);
+        options.setStreamingFallback(false);
+        Map<String, String> results = find(options, inputLines);
+        assertEquals(secondChainStart.toString(), results.get("0987000001"));
+        assertEquals("2016-01-01", results.get("0987000002"));
+    }
+
+    @Test
+    public void testSeparationModeResolvesBucketsOnVirtualThreads() throws IOException {
+        Assume.assumeTrue(VirtualThreadRunner.isAvailable());
+        FinderOptions options = new FinderOptions();
+        options.setEngineMode(EngineMode.SEPARATION);
+        options.setVirtualThreadConcurrency(4);
+        assertSampleResults(find(options));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVirtualThreadsFailWhenUnsupported() {
+        Assume.assumeFalse(VirtualThreadRunner.isAvailable());
+        new FinderOptions().setVirtualThreadConcurrency(4);
+    }
+
+    @Test
+    public void testIncrementalModeWritesChangedPhones() throws IOException {
+        FinderOptions options = new FinderOptions();
+        options.setEngineMode(EngineMode.INCREMENTAL);
+        options.setStateFile(temporaryFolder.getRoot().toPath().resolve("state.bin").toString());
+        assertSampleResults(find(options));
+
+        Map<String, String> results = find(options, Arrays.asList(
+                "PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE",
+                "0987000002,2016-01-01,2016-02-01",
+                "0987000003,2015-01-01,2015-06-01",
+                "0987000004,2016-07-01,"));
+        assertEquals(2, results.size());
+        assertEquals("2016-01-01", results.get("0987000002"));
+        assertEquals("2016-07-01", results.get("0987000004"));
+    }
+
+    @Test
+    public void testRealActivationDateOfGzipInput() throws IOException {
+        Path inputPath = temporaryFolder.newFile("input.csv.gz").toPath();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(inputPath))) {
+            out.write(String.join("\n", INPUT_LINES).getBytes(StandardCharsets.UTF_8));
+        }
+        for(EngineMode engineMode : Arrays.asList(EngineMode.AUTO, EngineMode.STREAMING, EngineMode.SEPARATION)) {
+            FinderOptions options = new FinderOptions();
+            options.setEngineMode(engineMode);
+            assertSampleResults(readResults(new RealActivationDateFinder(inputPath.toString(), options).execute()));
+        }
+    }
+
+    @Test
+    public void testOrderedOutputByPhoneNumber() throws IOException {
+        FinderOptions options = new FinderOptions();
+        options.setOrderedOutput(true);
+        Path inputPath = temporaryFolder.newFile().toPath();
+        Files.write(inputPath, INPUT_LINES, StandardCharsets.UTF_8);
+
+        Path resultPath = new RealActivationDateFinder(inputPath.toString(), options).execute();
+        List<String> lines = Files.readAllLines(resultPath, StandardCharsets.UTF_8);
+        Files.delete(resultPath);
+
+        assertEquals(Arrays.asList("PHONE_NUMBER,REAL_ACTIVATION_DATE",
+                "0987000001,2016-06-01", "0987000002,2016-02-01", "0987000003,2016-01-01"), lines);
+    }
+
+    @Test
+    public void testResumeOfCheckpointedRun() throws IOException {
+        Path inputPath = temporaryFolder.newFile().toPath();
+        Files.write(inputPath, INPUT_LINES, StandardCharsets.UTF_8);
+        Path checkpointPath = temporaryFolder.getRoot().toPath().resolve("checkpoint");
+        //a run interrupted before committing its range, with a frame torn at the end of a bucket file
+        SeparationCheckpoint.create(checkpointPath, inputPath, FinderOptions.DEFAULT_BUCKET_COUNT,
+                FileHelper.splitByteRanges(inputPath, Files.size(inputPath)));
+        Files.write(checkpointPath.resolve(PhoneSeparationTask.getBucketName(0) + ".bin"), new byte[] {1, 0, 0});
+
+        FinderOptions options = new FinderOptions();
+        options.setCheckpointDirectory(checkpointPath.toString());
+        options.setResume(true);
+        assertSampleResults(readResults(new RealActivationDateFinder(inputPath.toString(), options).execute()));
+        assertFalse(Files.exists(checkpointPath));
+    }
+
+    @Test
+    public void testMetricsSummaryOfRun() throws IOException {
+        FinderOptions options = new FinderOptions();
+        Path metricsPath = temporaryFolder.getRoot().toPath().resolve("metrics.json");
+        options.setMetricsFile(metricsPath.toString());
+        assertSampleResults(find(options));
+
+        String summary = new String(Files.readAllBytes(metricsPath), StandardCharsets.UTF_8);
+        assertTrue(summary.contains("\"linesRead\": 9,"));
+        assertTrue(summary.contains("\"failedParseChunks\": 0,"));
+    }
+
+    @Test
+    public void testRealActivationDateOfGeneratedDataset() throws IOException {
+        DatasetGenerator generator = new DatasetGenerator();
+        generator.setPhoneCount(20000);
+        generator.setOpenEndedFraction(0.3);
+        generator.setSkewedFraction(0.001);
+        Path inputPath = temporaryFolder.newFile().toPath();
+        Path expectedPath = temporaryFolder.newFile().toPath();
+        generator.write(inputPath, expectedPath, 2);
+
+        Map<String, String> results = readResults(new RealActivationDateFinder(inputPath.toString()).execute());
+        assertEquals(readResults(expectedPath), results);
+    }
+
+    @Test
+    public void testRealActivationDateOfSeveralInputFiles() throws IOException {
+        //the records of a phone are split across a plain and a gzip file of the same directory
+        Path inputFolder = temporaryFolder.newFolder("input").toPath();
+        Files.write(inputFolder.resolve("part-1.csv"), INPUT_LINES.subList(0, 5), StandardCharsets.UTF_8);
+        List<String> secondLines = new ArrayList<>(INPUT_LINES.subList(5, INPUT_LINES.size()));
+        secondLines.add(0, INPUT_LINES.get(0));
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(inputFolder.resolve("part-2.csv.gz")))) {
+            out.write(String.join("\n", secondLines).getBytes(StandardCharsets.UTF_8));
+        }
+        for(EngineMode engineMode : Arrays.asList(EngineMode.AUTO, EngineMode.STREAMING, EngineMode.SEPARATION)) {
+            FinderOptions options = new FinderOptions();
+            options.setEngineMode(engineMode);
+            assertSampleResults(readResults(new RealActivationDateFinder(
+                    Collections.singletonList(inputFolder.toString()), options).execute()));
+        }
+        assertSampleResults(readResults(new RealActivationDateFinder(
+                Collections.singletonList(inputFolder.resolve("part-*").toString()), new FinderOptions()).execute()));
+    }
+
+    @Test
+    public void testMissingInputFileIsNotCreated() throws IOException {
+        Path inputPath = temporaryFolder.getRoot().toPath().resolve("missing.csv");
+        try {
+            new RealActivationDateFinder(inputPath.toString()).execute();
+            fail("A missing input file must fail the run");
+        } catch(NoSuchFileException ex) {
+            assertFalse(Files.exists(inputPath));
+        }
+    }
+
+    @Test
+    public void testExternalSortMergesRunsInSeveralPasses() throws IOException {
+        DatasetGenerator generator = new DatasetGenerator();
+        generator.setPhoneCount(5000);
+        Path inputPath = temporaryFolder.newFile().toPath();
+        Path expectedPath = temporaryFolder.newFile().toPath();
+        generator.write(inputPath, expectedPath, 1);
+
+        //dozens of runs merged three at a time
+        FinderOptions options = new FinderOptions();
+        options.setEngineMode(EngineMode.EXTERNAL_SORT);
+        options.setChunkBytes(Files.size(inputPath) / 40);
+        options.setMergeFanIn(3);
+        Map<String, String> results = readResults(new RealActivationDateFinder(inputPath.toString(), options).execute());
+        assertEquals(readResults(expectedPath), results);
+    }
+
+    private Map<String, String> find(FinderOptions options) throws IOException {
+        return find(options, INPUT_LINES);
+    }
+
+    private Map<String, String> find(FinderOptions options, List<String> inputLines) throws IOException {
+        Path inputPath = temporaryFolder.newFile().toPath();
+        Files.write(inputPath, inputLines, StandardCharsets.UTF_8);
+
+        RealActivationDateFinder finder = new RealActivationDateFinder(inputPath.toString(), options);
+        return readResults(finder.execute());
+    }
+
+    private static void assertSampleResults(Map<String, String> results) {
+        assertEquals(3, results.size());
+        assertEquals("2016-06-01", results.get("0987000001"));
+        assertEquals("2016-02-01", results.get("0987000002"));
+        assertEquals("2016-01-01", results.get("0987000003"));
+    }
+
+    private static Map<String, String> readResults(Path resultPath) throws IOException {
+        List<String> lines = Files.readAllLines(resultPath, StandardCharsets.UTF_8);
+        assertEquals("PHONE_NUMBER,REAL_ACTIVATION_DATE", lines.get(0));
+        Map<String, String> results = new HashMap<>();
+        lines.stream().skip(1).map(line -> line.split(",")).forEach(fields -> results.put(fields[0], fields[1]));
+        Files.delete(resultPath);
+        return results;
+    }
 }
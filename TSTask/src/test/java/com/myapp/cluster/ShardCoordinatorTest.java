@@ -0,0 +1,130 @@
+package com.myapp.cluster;
+
+import com.myapp.csv.FileHelper;
+import com.myapp.task.RangeRead;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardCoordinatorTest {
+
+    private static final List<String> INPUT_LINES = Arrays.asList(
+            "PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE",
+            "0987000001,2016-03-01,2016-05-01",
+            "0987000002,2016-02-01,2016-03-01",
+            "0987000001,2016-01-01,2016-03-01",
+            "0987000001,2016-12-01,",
+            "0987000002,2016-03-01,2016-05-01",
+            "0987000003,2016-01-01,2016-01-10",
+            "0987000001,2016-09-01,2016-12-01",
+            "0987000002,2016-05-01,",
+            "0987000001,2016-06-01,2016-09-01"
+    );
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testShardedRunOverSeveralWorkers() throws Exception {
+        Path inputPath = temporaryFolder.newFile().toPath();
+        Files.write(inputPath, INPUT_LINES, StandardCharsets.UTF_8);
+        //a range per line, so both workers shuffle records of the same phones
+        List<RangeRead> rangeReads = FileHelper.splitByteRanges(inputPath, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (ShardCoordinator coordinator = new ShardCoordinator(0, Collections.singletonList(inputPath), rangeReads,
+                1024 * 1024, 16, temporaryFolder.newFolder("shuffle").toPath())) {
+            List<Future<?>> workers = new ArrayList<>();
+            for(int i = 0; i < 2; i++) {
+                workers.add(executor.submit(() -> {
+                    try (ShardWorker worker = new ShardWorker("localhost", coordinator.getPort(), 2)) {
+                        worker.execute();
+                    }
+                    return null;
+                }));
+            }
+            assertSampleResults(coordinator.execute());
+            for(Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShardedRunOverWorkerProcesses() throws Exception {
+        Path inputPath = temporaryFolder.newFile().toPath();
+        Files.write(inputPath, INPUT_LINES, StandardCharsets.UTF_8);
+        List<RangeRead> rangeReads = FileHelper.splitByteRanges(inputPath, 1);
+        String javaPath = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> workers = new ArrayList<>();
+        try (ShardCoordinator coordinator = new ShardCoordinator(0, Collections.singletonList(inputPath), rangeReads,
+                1024 * 1024, 16, temporaryFolder.newFolder("shuffle").toPath())) {
+            String address = coordinator.getAddress().getHostAddress() + ":" + coordinator.getPort();
+            for(int i = 0; i < 2; i++) {
+                workers.add(new ProcessBuilder(javaPath, "-cp", System.getProperty("java.class.path"),
+                        ShardWorker.class.getName(), address, "--threads", "1")
+                        .redirectErrorStream(true)
+                        .redirectOutput(temporaryFolder.newFile("worker_" + i + ".log"))
+                        .start());
+            }
+            assertSampleResults(coordinator.execute());
+            for(Process worker : workers) {
+                assertEquals(0, worker.waitFor());
+            }
+        } finally {
+            for(Process worker : workers) {
+                worker.destroyForcibly();
+            }
+        }
+    }
+
+    @Test
+    public void testShardedRunFailsWithoutWorkers() throws IOException {
+        Path inputPath = temporaryFolder.newFile().toPath();
+        Files.write(inputPath, INPUT_LINES, StandardCharsets.UTF_8);
+        try (ShardCoordinator coordinator = new ShardCoordinator(InetAddress.getLoopbackAddress(), 0,
+                Collections.singletonList(inputPath), FileHelper.splitByteRanges(inputPath, 1), 1024 * 1024, 16,
+                temporaryFolder.newFolder("shuffle").toPath(), 200)) {
+            assertTrue(coordinator.getAddress().isLoopbackAddress());
+            coordinator.execute();
+            fail("A run without workers must fail");
+        } catch(IOException ex) {
+            assertTrue(ex.getMessage().startsWith("No worker"));
+        }
+    }
+
+    private static void assertSampleResults(Path resultPath) throws IOException {
+        List<String> lines = Files.readAllLines(resultPath, StandardCharsets.UTF_8);
+        Files.delete(resultPath);
+        Map<String, String> results = new HashMap<>();
+        for(String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            results.put(fields[0], fields[1]);
+        }
+        assertEquals(3, results.size());
+        assertEquals("2016-06-01", results.get("0987000001"));
+        assertEquals("2016-02-01", results.get("0987000002"));
+        assertEquals("2016-01-01", results.get("0987000003"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.myapp.csv;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryRecordCodecTest {
+
+    /**
+     * A frame larger than the window of 1 MB through which the files are read
+     */
+    private static final int LARGE_FRAME_RECORDS = 300_000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTripOfVariableLengthAndZigzagValues() throws IOException {
+        PhoneRecordBatch batch = new PhoneRecordBatch();
+        //open-ended records, days decreasing from a record to the next, a day before the epoch
+        batch.add(PhoneNumberCodec.encode("1"), EpochDays.of(2016, 6, 1), EpochDays.NO_DATE);
+        batch.add(PhoneNumberCodec.encode("0987000001"), EpochDays.of(1969, 12, 31), EpochDays.of(2016, 1, 1));
+        batch.add(PhoneNumberCodec.encode("0987000001"), EpochDays.of(2016, 3, 1), EpochDays.of(2016, 3, 1));
+        batch.add(PhoneNumberCodec.encode("0987000002"), EpochDays.of(2016, 2, 1), EpochDays.of(2015, 2, 1));
+        batch.add(PhoneNumberCodec.encode("0987000003"), 0, EpochDays.NO_DATE);
+        batch.add(PhoneNumberCodec.encode("999999999999999"), EpochDays.of(9999, 12, 31), EpochDays.NO_DATE);
+        batch.sort();
+        byte[] bytes = new byte[2 * BinaryRecordCodec.MAX_TAG_BYTES + 2 * BinaryRecordCodec.maxFrameBytes(batch.size())];
+        int length = BinaryRecordCodec.encode(batch, 0, batch.size(), bytes, 0);
+        Path filePath = write(bytes, length);
+
+        PhoneRecordBatch decoded = new PhoneRecordBatch();
+        assertEquals(batch.size(), BinaryRecordCodec.read(filePath, decoded));
+        assertBatchEquals(batch, decoded);
+
+        //the largest tags of the checkpoints, an attempt and a range in the high and low words
+        long tag = (long) Integer.MAX_VALUE << 32 | Integer.MAX_VALUE;
+        length = BinaryRecordCodec.encodeTagged(0, batch, 0, 2, bytes, 0);
+        length = BinaryRecordCodec.encodeTagged(tag, batch, 2, batch.size(), bytes, length);
+        filePath = write(bytes, length);
+        decoded = new PhoneRecordBatch();
+        assertEquals(batch.size() - 2, BinaryRecordCodec.readTagged(filePath, frameTag -> frameTag == tag, decoded));
+        assertEquals(batch.size() - 2, decoded.size());
+        assertEquals(batch.getPhoneKey(2), decoded.getPhoneKey(0));
+        assertEquals(length, BinaryRecordCodec.wholeTaggedLength(filePath));
+    }
+
+    @Test
+    public void testFramesCrossingTheReadWindow() throws IOException {
+        PhoneRecordBatch small = sequence(3);
+        PhoneRecordBatch large = sequence(LARGE_FRAME_RECORDS);
+        byte[] bytes = new byte[3 * BinaryRecordCodec.MAX_TAG_BYTES + 2 * BinaryRecordCodec.maxFrameBytes(small.size())
+                + BinaryRecordCodec.maxFrameBytes(large.size())];
+        int length = BinaryRecordCodec.encodeTagged(1, small, 0, small.size(), bytes, 0);
+        length = BinaryRecordCodec.encodeTagged(2, large, 0, large.size(), bytes, length);
+        int largeEnd = length;
+        length = BinaryRecordCodec.encodeTagged(3, small, 0, small.size(), bytes, length);
+        Path filePath = write(bytes, length);
+        assertTrue(largeEnd > (1 << 20) + 32);
+
+        PhoneRecordBatch decoded = new PhoneRecordBatch();
+        assertEquals(2 * small.size() + large.size(), BinaryRecordCodec.readTagged(filePath, frameTag -> true, decoded));
+        assertEquals(large.getPhoneKey(LARGE_FRAME_RECORDS - 1), decoded.getPhoneKey(small.size() + LARGE_FRAME_RECORDS - 1));
+        assertEquals(large.getDeactivationDay(LARGE_FRAME_RECORDS - 1),
+                decoded.getDeactivationDay(small.size() + LARGE_FRAME_RECORDS - 1));
+        //the large frame is skipped beyond the window
+        decoded = new PhoneRecordBatch();
+        assertEquals(small.size(), BinaryRecordCodec.readTagged(filePath, frameTag -> frameTag == 3, decoded));
+        assertBatchEquals(small, decoded);
+        assertEquals(length, BinaryRecordCodec.wholeTaggedLength(filePath));
+
+        //the untagged frames are decoded across the window as well
+        length = BinaryRecordCodec.encode(large, 0, large.size(), bytes, 0);
+        decoded = new PhoneRecordBatch();
+        assertEquals(large.size(), BinaryRecordCodec.read(write(bytes, length), decoded));
+        assertBatchEquals(large, decoded);
+    }
+
+    @Test
+    public void testTornHeaderAndBodyAtTheEndOfTheFile() throws IOException {
+        PhoneRecordBatch batch = sequence(4);
+        byte[] bytes = new byte[3 * (BinaryRecordCodec.MAX_TAG_BYTES + BinaryRecordCodec.maxFrameBytes(batch.size()))];
+        int wholeLength = BinaryRecordCodec.encodeTagged(1, batch, 0, batch.size(), bytes, 0);
+        wholeLength = BinaryRecordCodec.encodeTagged(2, batch, 0, batch.size(), bytes, wholeLength);
+        //a tag of several bytes, so the header can be torn inside the tag as well as inside the frame length
+        int length = BinaryRecordCodec.encodeTagged(1L << 40, batch, 0, batch.size(), bytes, wholeLength);
+        for(int tornLength = wholeLength + 1; tornLength < length; tornLength++) {
+            Path filePath = write(bytes, tornLength);
+            PhoneRecordBatch decoded = new PhoneRecordBatch();
+            assertEquals("torn at " + tornLength, 2 * batch.size(),
+                    BinaryRecordCodec.readTagged(filePath, frameTag -> true, decoded));
+            assertEquals("torn at " + tornLength, wholeLength, BinaryRecordCodec.wholeTaggedLength(filePath));
+        }
+    }
+
+    /**
+     * Get a sorted batch of consecutive phones, each record deactivated a day after its activation
+     */
+    private static PhoneRecordBatch sequence(int recordCount) {
+        PhoneRecordBatch batch = new PhoneRecordBatch(recordCount);
+        for(int i = 0; i < recordCount; i++) {
+            int activationDay = EpochDays.of(2016, 1, 1) + i % 1000;
+            batch.add(PhoneNumberCodec.encode(String.format("09%08d", i)), activationDay, activationDay + 1);
+        }
+        return batch;
+    }
+
+    private Path write(byte[] bytes, int length) throws IOException {
+        Path filePath = temporaryFolder.newFile().toPath();
+        Files.write(filePath, Arrays.copyOf(bytes, length));
+        return filePath;
+    }
+
+    private static void assertBatchEquals(PhoneRecordBatch expected, PhoneRecordBatch actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int index = 0; index < expected.size(); index++) {
+            assertEquals(expected.getPhoneKey(index), actual.getPhoneKey(index));
+            assertEquals(expected.getActivationDay(index), actual.getActivationDay(index));
+            assertEquals(expected.getDeactivationDay(index), actual.getDeactivationDay(index));
+        }
+    }
+}
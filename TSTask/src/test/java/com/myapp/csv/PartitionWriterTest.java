@@ -0,0 +1,81 @@
+package com.myapp.csv;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PartitionWriterTest {
+
+    private static final int PARTITION_COUNT = 32;
+
+    private static final int ROUNDS = 3;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testEvictionWithFewerOpenFilesThanPartitions() throws IOException {
+        Path folderPath = temporaryFolder.newFolder().toPath();
+        //two stripes of two open files each for 32 partitions
+        try (PartitionWriter partitionWriter = new PartitionWriter(folderPath, PARTITION_COUNT, 2, 4)) {
+            for(int round = 0; round < ROUNDS; round++) {
+                for(int partition = 0; partition < PARTITION_COUNT; partition++) {
+                    PhoneRecordBatch batch = new PhoneRecordBatch();
+                    batch.add(PhoneNumberCodec.encode("0987" + partition), EpochDays.of(2016, 1, 1) + round,
+                            EpochDays.NO_DATE);
+                    partitionWriter.append(partition, batch, 0, 1);
+                }
+                //every partition is appended to a channel, so all but the last two of each stripe are evicted
+                partitionWriter.flush();
+            }
+            partitionWriter.sync();
+            //the appends to the evicted channels are in the files before the writer is closed
+            assertPartitions(partitionWriter);
+        }
+    }
+
+    @Test
+    public void testSyncForcesThePartitionsOfEvictedChannels() throws IOException {
+        Path folderPath = temporaryFolder.newFolder().toPath();
+        try (PartitionWriter partitionWriter = new PartitionWriter(folderPath, PARTITION_COUNT, 2, 4)) {
+            PhoneRecordBatch batch = new PhoneRecordBatch();
+            batch.add(PhoneNumberCodec.encode("0987000001"), EpochDays.of(2016, 1, 1), EpochDays.NO_DATE);
+            for(int partition = 0; partition < PARTITION_COUNT; partition++) {
+                partitionWriter.append(partition, batch, 0, 1);
+                partitionWriter.flush();
+            }
+            //the channel of the partition 0 is evicted, its file is reopened to be forced
+            Files.delete(partitionWriter.getPartitionPath(0));
+            try {
+                partitionWriter.sync();
+                fail("The sync must force the evicted partition");
+            } catch(NoSuchFileException ex) {
+                assertEquals(partitionWriter.getPartitionPath(0).toString(), ex.getFile());
+            }
+            Files.createFile(partitionWriter.getPartitionPath(0));
+            partitionWriter.sync();
+            //an evicted partition is forced once after its eviction
+            Files.delete(partitionWriter.getPartitionPath(2));
+            partitionWriter.sync();
+        }
+    }
+
+    private static void assertPartitions(PartitionWriter partitionWriter) throws IOException {
+        for(int partition = 0; partition < PARTITION_COUNT; partition++) {
+            PhoneRecordBatch batch = new PhoneRecordBatch();
+            assertEquals(ROUNDS, BinaryRecordCodec.read(partitionWriter.getPartitionPath(partition), batch));
+            for(int round = 0; round < ROUNDS; round++) {
+                assertEquals(PhoneNumberCodec.encode("0987" + partition), batch.getPhoneKey(round));
+                assertEquals(EpochDays.of(2016, 1, 1) + round, batch.getActivationDay(round));
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.myapp.csv;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PhoneNumberCodecTest {
+
+    @Test
+    public void testEncodingAcceptsOnlyDigits() {
+        for(String phoneNumber : Arrays.asList("0987000001", "1", "123456789012345")) {
+            assertEquals(phoneNumber, PhoneNumberCodec.decode(PhoneNumberCodec.encode(phoneNumber)));
+        }
+        //the keys are ordered as the phone numbers
+        assertTrue(PhoneNumberCodec.encode("0987") < PhoneNumberCodec.encode("09870"));
+        assertTrue(PhoneNumberCodec.encode("09870") < PhoneNumberCodec.encode("0988"));
+        for(String phoneNumber : Arrays.asList("", "+84987000001", "0987 000 001", "0987-000-001", "(0987)000001",
+                "1234567890123456")) {
+            assertEquals(phoneNumber, PhoneNumberCodec.INVALID, PhoneNumberCodec.encode(phoneNumber));
+        }
+    }
+}
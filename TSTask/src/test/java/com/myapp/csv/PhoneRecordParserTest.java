@@ -0,0 +1,34 @@
+package com.myapp.csv;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PhoneRecordParserTest {
+
+    @Test
+    public void testParserRejectsMalformedLines() {
+        PhoneRecordBatch batch = new PhoneRecordBatch();
+        assertEquals(2, PhoneRecordParser.parse(ByteBuffer.wrap(
+                " 0987000001 , 2016-03-01 , 2016-05-01\r\n\n0987000002,2016-02-01,\n".getBytes(StandardCharsets.US_ASCII)),
+                batch));
+        assertEquals("0987000001", PhoneNumberCodec.decode(batch.getPhoneKey(0)));
+        assertEquals(EpochDays.NO_DATE, batch.getDeactivationDay(1));
+        for(String line : Arrays.asList("+84987000001,2016-03-01,", "0987 000 001,2016-03-01,",
+                "0987-000-001,2016-03-01,", "1234567890123456,2016-03-01,", "0987000001,2016-3-1,",
+                "0987000001,2016-03-01,2016-05", "0987000001")) {
+            try {
+                PhoneRecordParser.parse(ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)), new PhoneRecordBatch());
+                fail("The line must be rejected: " + line);
+            } catch(IllegalArgumentException ex) {
+                assertTrue(ex.getMessage().startsWith("Invalid "));
+            }
+        }
+    }
+}
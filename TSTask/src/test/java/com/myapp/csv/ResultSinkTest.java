@@ -0,0 +1,77 @@
+package com.myapp.csv;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResultSinkTest {
+
+    private static final int TASK_COUNT = 64;
+
+    private static final int PHONES_PER_TASK = 100;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReleaseWritesTheLinesOfTheTask() throws IOException {
+        Path resultPath = temporaryFolder.newFile().toPath();
+        try (ResultSink sink = new ResultSink(resultPath, false)) {
+            sink.write("0987000001", EpochDays.of(2016, 1, 1));
+            sink.release();
+            assertEquals(Collections.singletonList("0987000001,2016-01-01"), readResults(resultPath));
+            //a second release of the thread is ignored
+            sink.release();
+            sink.write("0987000002", EpochDays.of(2016, 2, 1));
+        }
+        assertEquals(2, readResults(resultPath).size());
+    }
+
+    @Test
+    public void testTasksOnShortLivedThreadsReleaseTheirResults() throws Exception {
+        Path resultPath = temporaryFolder.newFile().toPath();
+        Path orderedPath = temporaryFolder.newFile().toPath();
+        try (ResultSink sink = new ResultSink(resultPath, false);
+             ResultSink orderedSink = new ResultSink(orderedPath, true)) {
+            //one thread per task, like the virtual threads of the separation engine
+            List<Thread> threads = new ArrayList<>();
+            for(int task = 0; task < TASK_COUNT; task++) {
+                int firstPhone = task;
+                Thread thread = new Thread(() -> {
+                    for(int i = 0; i < PHONES_PER_TASK; i++) {
+                        String phoneNumber = String.format("09%08d", firstPhone + i * TASK_COUNT);
+                        sink.write(phoneNumber, EpochDays.of(2016, 1, 1));
+                        orderedSink.write(phoneNumber, EpochDays.of(2016, 1, 1));
+                    }
+                    sink.release();
+                    orderedSink.release();
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for(Thread thread : threads) {
+                thread.join();
+            }
+            //the unordered lines are written once the tasks are released
+            assertEquals(TASK_COUNT * PHONES_PER_TASK, readResults(resultPath).size());
+        }
+        List<String> expected = new ArrayList<>(readResults(resultPath));
+        Collections.sort(expected);
+        assertEquals(expected, readResults(orderedPath));
+    }
+
+    private static List<String> readResults(Path resultPath) throws IOException {
+        List<String> lines = Files.readAllLines(resultPath, StandardCharsets.UTF_8);
+        return lines.isEmpty() ? lines : lines.subList(1, lines.size());
+    }
+}
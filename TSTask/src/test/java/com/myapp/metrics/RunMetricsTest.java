@@ -0,0 +1,42 @@
+package com.myapp.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RunMetricsTest {
+
+    @Test
+    public void testClosedRunRestoresTheIdleMetrics() {
+        RunMetrics idle = RunMetrics.current();
+        RunMetrics metrics = RunMetrics.start(0);
+        assertSame(metrics, RunMetrics.current());
+        Queue<Integer> readQueue = new ArrayDeque<>(Arrays.asList(1, 2, 3));
+        metrics.setQueues(readQueue, new ArrayDeque<>(), new ArrayDeque<>());
+        metrics.addBatch(5);
+        metrics.close();
+
+        assertSame(idle, RunMetrics.current());
+        //the last sample is taken after the sampler has stopped
+        assertTrue(metrics.toJson().contains("\"peakQueueDepths\": {\"read\": 3, \"parsed\": 0, \"aggregated\": 0}"));
+        RunMetrics.current().addBatch(7);
+        assertEquals(5, metrics.getLinesRead());
+    }
+
+    @Test
+    public void testClosedRunKeepsTheMetricsOfANewerRun() {
+        RunMetrics metrics = RunMetrics.start(0);
+        RunMetrics newerMetrics = RunMetrics.start(0);
+        metrics.close();
+        assertSame(newerMetrics, RunMetrics.current());
+        newerMetrics.close();
+        assertNotSame(newerMetrics, RunMetrics.current());
+    }
+}
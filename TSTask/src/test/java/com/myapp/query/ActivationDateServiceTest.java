@@ -0,0 +1,47 @@
+package com.myapp.query;
+
+import com.myapp.csv.EpochDays;
+import com.myapp.csv.ResultSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ActivationDateServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testLookupThroughTheCache() throws IOException {
+        Path indexPath = buildIndex();
+        try (ActivationDateService service = new ActivationDateService(ResultIndex.open(indexPath), 2)) {
+            assertEquals(LocalDate.of(2016, 6, 1), service.find("0987000001"));
+            assertEquals(LocalDate.of(2016, 2, 1), service.find("0987000002"));
+            assertEquals(LocalDate.of(2016, 1, 1), service.find("0987000003"));
+            assertEquals(LocalDate.of(2016, 6, 1), service.find("0987000001"));
+            assertNull(service.find("0987000004"));
+        }
+    }
+
+    /**
+     * Build the index of the results of the sample phones
+     */
+    private Path buildIndex() throws IOException {
+        Path resultPath = temporaryFolder.newFile().toPath();
+        try (ResultSink sink = new ResultSink(resultPath, false)) {
+            sink.write("0987000001", EpochDays.of(2016, 6, 1));
+            sink.write("0987000002", EpochDays.of(2016, 2, 1));
+            sink.write("0987000003", EpochDays.of(2016, 1, 1));
+        }
+        Path indexPath = temporaryFolder.getRoot().toPath().resolve("result.idx");
+        ResultIndex.build(resultPath, indexPath);
+        return indexPath;
+    }
+}
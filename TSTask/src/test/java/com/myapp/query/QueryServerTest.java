@@ -0,0 +1,67 @@
+package com.myapp.query;
+
+import com.myapp.csv.EpochDays;
+import com.myapp.csv.ResultSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryServerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testServerAnswersLookups() throws IOException {
+        Path indexPath = buildIndex();
+        try (ActivationDateService service = new ActivationDateService(ResultIndex.open(indexPath), 0);
+             QueryServer server = new QueryServer(service, 0, 2)) {
+            server.start();
+            String url = "http://localhost:" + server.getPort() + QueryServer.CONTEXT_PATH;
+            assertEquals("0987000001,2016-06-01\n", get(url + "?phone=0987000001", 200));
+            assertEquals("0987000002,2016-02-01\n", get(url + "?phone=0987000002", 200));
+            get(url + "?phone=0987000004", 404);
+            get(url + "?phone=%2B84-987", 400);
+            get(url, 400);
+        }
+    }
+
+    /**
+     * Build the index of the results of the sample phones
+     */
+    private Path buildIndex() throws IOException {
+        Path resultPath = temporaryFolder.newFile().toPath();
+        try (ResultSink sink = new ResultSink(resultPath, false)) {
+            sink.write("0987000001", EpochDays.of(2016, 6, 1));
+            sink.write("0987000002", EpochDays.of(2016, 2, 1));
+            sink.write("0987000003", EpochDays.of(2016, 1, 1));
+        }
+        Path indexPath = temporaryFolder.getRoot().toPath().resolve("result.idx");
+        ResultIndex.build(resultPath, indexPath);
+        return indexPath;
+    }
+
+    private static String get(String url, int expectedStatus) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            assertEquals(expectedStatus, connection.getResponseCode());
+            InputStream in = expectedStatus == 200 ? connection.getInputStream() : connection.getErrorStream();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                return reader.readLine() + "\n";
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
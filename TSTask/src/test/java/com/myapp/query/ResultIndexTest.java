@@ -0,0 +1,68 @@
+package com.myapp.query;
+
+import com.myapp.csv.EpochDays;
+import com.myapp.csv.PhoneNumberCodec;
+import com.myapp.csv.ResultSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResultIndexTest {
+
+    private static final int PHONE_COUNT = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testIndexMergesTheSortedRunsOfTheResults() throws IOException {
+        List<Integer> phones = new ArrayList<>();
+        for(int phone = 0; phone < PHONE_COUNT; phone++) {
+            phones.add(phone);
+        }
+        Collections.shuffle(phones, new Random(7));
+        Path resultPath = temporaryFolder.newFile().toPath();
+        try (ResultSink sink = new ResultSink(resultPath, false)) {
+            for(int phone : phones) {
+                sink.write(phoneKey(phone), EpochDays.of(2016, 1, 1) + phone);
+            }
+        }
+        Path indexPath = temporaryFolder.getRoot().toPath().resolve("result.idx");
+        //about 45 lines per run
+        ResultIndex.build(resultPath, indexPath, 1024);
+
+        try (ResultIndex index = ResultIndex.open(indexPath)) {
+            assertEquals(PHONE_COUNT, index.getEntryCount());
+            for(int phone = 0; phone < PHONE_COUNT; phone++) {
+                assertEquals(EpochDays.of(2016, 1, 1) + phone, index.findActivationDay(phoneKey(phone)));
+            }
+            assertEquals(EpochDays.NO_DATE, index.findActivationDay(phoneKey(PHONE_COUNT)));
+        }
+    }
+
+    @Test
+    public void testIndexOfAnEmptyResultFile() throws IOException {
+        Path resultPath = temporaryFolder.newFile().toPath();
+        new ResultSink(resultPath, false).close();
+        Path indexPath = temporaryFolder.getRoot().toPath().resolve("result.idx");
+        ResultIndex.build(resultPath, indexPath, 1024);
+
+        try (ResultIndex index = ResultIndex.open(indexPath)) {
+            assertEquals(0, index.getEntryCount());
+            assertEquals(EpochDays.NO_DATE, index.findActivationDay(phoneKey(0)));
+        }
+    }
+
+    private static long phoneKey(int phone) {
+        return PhoneNumberCodec.encode(String.format("09%08d", phone));
+    }
+}
@@ -0,0 +1,68 @@
+package com.myapp.state;
+
+import com.myapp.csv.EpochDays;
+import com.myapp.csv.PhoneNumberCodec;
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.ResultSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class PhoneStateStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testFailedResultsKeepThePreviousState() throws IOException {
+        Path statePath = temporaryFolder.getRoot().toPath().resolve("state.bin");
+        PhoneStateStore store = new PhoneStateStore(statePath);
+        PhoneRecordBatch history = new PhoneRecordBatch();
+        history.add(PhoneNumberCodec.encode("0987000001"), EpochDays.of(2016, 1, 1), EpochDays.of(2016, 3, 1));
+        try (ResultSink sink = new ResultSink(temporaryFolder.newFile().toPath(), false)) {
+            store.apply(history, sink).commit();
+        }
+        byte[] state = Files.readAllBytes(statePath);
+
+        //the results of the delta fail when the sink is closed, e.g. on a full disk
+        ResultSink failingSink = new ResultSink(temporaryFolder.newFile().toPath(), false) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                throw new IOException("No space left on device");
+            }
+        };
+        PhoneStateStore.StateUpdate update = store.apply(delta(), failingSink);
+        try {
+            failingSink.close();
+            fail("The sink must fail");
+        } catch(IOException ex) {
+            update.discard();
+        }
+        assertArrayEquals(state, Files.readAllBytes(statePath));
+        assertFalse(Files.exists(statePath.resolveSibling("state.bin.tmp")));
+
+        //the same delta still reports the changed phones
+        try (ResultSink sink = new ResultSink(temporaryFolder.newFile().toPath(), false)) {
+            update = store.apply(delta(), sink);
+        }
+        assertEquals(2, update.getChangedPhones());
+        update.commit();
+    }
+
+    private static PhoneRecordBatch delta() {
+        PhoneRecordBatch delta = new PhoneRecordBatch();
+        delta.add(PhoneNumberCodec.encode("0987000001"), EpochDays.of(2016, 5, 1), EpochDays.NO_DATE);
+        delta.add(PhoneNumberCodec.encode("0987000002"), EpochDays.of(2016, 2, 1), EpochDays.NO_DATE);
+        return delta;
+    }
+}
@@ -0,0 +1,124 @@
+package com.myapp.state;
+
+import com.myapp.FinderOptions;
+import com.myapp.RealActivationDateFinder;
+import com.myapp.csv.EpochDays;
+import com.myapp.csv.PartitionWriter;
+import com.myapp.csv.PhoneNumberCodec;
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.PhoneRecordParser;
+import com.myapp.task.PhoneSeparationTask;
+import com.myapp.task.RangeRead;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeparationCheckpointTest {
+
+    private static final int BUCKET_COUNT = 16;
+
+    private static final String HEADER = "PHONE_NUMBER,ACTIVATION_DATE,DEACTIVATION_DATE\n";
+
+    private static final String FIRST_RANGE = "0987000001,2016-03-01,2016-05-01\n"
+            + "0987000002,2016-02-01,2016-03-01\n"
+            + "0987000001,2016-01-01,2016-03-01\n";
+
+    private static final String SECOND_RANGE = "0987000001,2016-12-01,\n"
+            + "0987000002,2016-03-01,2016-05-01\n"
+            + "0987000003,2016-01-01,2016-01-10\n"
+            + "0987000001,2016-09-01,2016-12-01\n"
+            + "0987000002,2016-05-01,\n"
+            + "0987000001,2016-06-01,2016-09-01\n";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testResumeReadsOnlyTheCommittedAttemptOfCommittedRanges() throws IOException {
+        Path inputPath = temporaryFolder.newFile().toPath();
+        Files.write(inputPath, (HEADER + FIRST_RANGE + SECOND_RANGE).getBytes(StandardCharsets.UTF_8));
+        long firstRangeStart = HEADER.length();
+        long secondRangeStart = firstRangeStart + FIRST_RANGE.length();
+        List<RangeRead> rangeReads = Arrays.asList(RangeRead.ofBytes(firstRangeStart, secondRangeStart),
+                RangeRead.ofBytes(secondRangeStart, Files.size(inputPath)));
+        Path checkpointPath = temporaryFolder.getRoot().toPath().resolve("checkpoint");
+
+        //the first attempt crashes before committing the first range, its frames are stale
+        SeparationCheckpoint checkpoint = SeparationCheckpoint.create(checkpointPath, inputPath, BUCKET_COUNT, rangeReads);
+        long staleFrameTag = checkpoint.getFrameTag(0);
+        try (PartitionWriter partitionWriter = new PartitionWriter(checkpointPath, BUCKET_COUNT)) {
+            separate(record("0987000009", 2015, 1, 1), partitionWriter, checkpoint.getFrameTag(0));
+            //garbage tagged with the attempt 0 of the uncommitted second range
+            separate(record("0987000008", 2015, 1, 1), partitionWriter, 1);
+        }
+
+        //the second attempt commits the first range, the phone only in its frames tells that they are read,
+        //then crashes in the middle of a frame
+        checkpoint = SeparationCheckpoint.resume(checkpointPath, inputPath, BUCKET_COUNT);
+        assertEquals(Arrays.asList(0, 1), checkpoint.getPendingRanges());
+        try (PartitionWriter partitionWriter = new PartitionWriter(checkpointPath, BUCKET_COUNT)) {
+            PhoneRecordBatch batch = new PhoneRecordBatch();
+            PhoneRecordParser.parse(ByteBuffer.wrap(FIRST_RANGE.getBytes(StandardCharsets.UTF_8)), batch);
+            batch.addAll(record("0987000007", 2016, 7, 1), 0, 1);
+            separate(batch, partitionWriter, checkpoint.getFrameTag(0));
+            checkpoint.rangeCompleted(0, partitionWriter);
+            checkpoint.commit(partitionWriter);
+        }
+        assertTrue(checkpoint.isCommitted(checkpoint.getFrameTag(0)));
+        assertFalse(checkpoint.isCommitted(staleFrameTag));
+        assertFalse(checkpoint.isCommitted(checkpoint.getFrameTag(1)));
+        assertFalse(checkpoint.isCommitted(1));
+        Path tornPath = checkpointPath.resolve(PartitionWriter.getPartitionFileName(
+                PhoneNumberCodec.partition(PhoneNumberCodec.encode("0987000001"), BUCKET_COUNT)));
+        Files.write(tornPath, new byte[] {(byte) 0x82, (byte) 0x80}, StandardOpenOption.APPEND);
+
+        FinderOptions options = new FinderOptions();
+        options.setBucketCount(BUCKET_COUNT);
+        options.setCheckpointDirectory(checkpointPath.toString());
+        options.setResume(true);
+        Map<String, String> results = readResults(new RealActivationDateFinder(inputPath.toString(), options).execute());
+        Map<String, String> expected = new HashMap<>();
+        expected.put("0987000001", "2016-06-01");
+        expected.put("0987000002", "2016-02-01");
+        expected.put("0987000003", "2016-01-01");
+        expected.put("0987000007", "2016-07-01");
+        assertEquals(expected, results);
+        assertFalse(Files.exists(checkpointPath));
+    }
+
+    private static PhoneRecordBatch record(String phoneNumber, int year, int month, int day) {
+        PhoneRecordBatch batch = new PhoneRecordBatch();
+        batch.add(PhoneNumberCodec.encode(phoneNumber), EpochDays.of(year, month, day), EpochDays.NO_DATE);
+        return batch;
+    }
+
+    private static void separate(PhoneRecordBatch batch, PartitionWriter partitionWriter, long frameTag) throws IOException {
+        new PhoneSeparationTask(batch, partitionWriter, BUCKET_COUNT, frameTag).execute();
+    }
+
+    private static Map<String, String> readResults(Path resultPath) throws IOException {
+        Map<String, String> results = new HashMap<>();
+        List<String> lines = Files.readAllLines(resultPath, StandardCharsets.UTF_8);
+        Files.delete(resultPath);
+        for(String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            results.put(fields[0], fields[1]);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,41 @@
+package com.myapp.task;
+
+import com.myapp.csv.EpochDays;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntervalMergeKernelTest {
+
+    @Test
+    public void testKernelChainsContiguousAndOverlappingIntervals() {
+        int open = EpochDays.NO_DATE;
+        //contiguous
+        assertActivationDay(1, new int[] {1, 5, 9}, new int[] {5, 9, 12});
+        //gapped, the last chain starts after the gap
+        assertActivationDay(9, new int[] {1, 9, 12}, new int[] {5, 12, 20});
+        //overlapping the previous interval
+        assertActivationDay(1, new int[] {1, 4, 8}, new int[] {6, 8, 10});
+        //overlapping an earlier interval than the previous one, which it contains
+        assertActivationDay(1, new int[] {1, 2, 10}, new int[] {10, 5, 12});
+        //a gap after the latest deactivation of the chain
+        assertActivationDay(13, new int[] {1, 2, 13}, new int[] {10, 5, 20});
+        //open-ended, the later intervals continue the chain
+        assertActivationDay(1, new int[] {1, 5}, new int[] {5, open});
+        assertActivationDay(1, new int[] {1, 3, 8}, new int[] {open, 6, 9});
+        assertActivationDay(7, new int[] {7}, new int[] {open});
+
+        int[] activationDays = {1, 2, 10, 20, 25};
+        int[] deactivationDays = {10, 5, 12, 25, open};
+        assertEquals(2, IntervalMergeKernel.mergeConsecutive(activationDays, deactivationDays, 0, 5));
+        assertEquals(Arrays.asList(1, 12, 20, open), Arrays.asList(activationDays[0], deactivationDays[0],
+                activationDays[1], deactivationDays[1]));
+    }
+
+    private static void assertActivationDay(int expectedDay, int[] activationDays, int[] deactivationDays) {
+        assertEquals(expectedDay, IntervalMergeKernel.findActivationDay(activationDays, deactivationDays, 0,
+                activationDays.length));
+    }
+}
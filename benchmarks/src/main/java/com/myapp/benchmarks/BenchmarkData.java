@@ -0,0 +1,49 @@
+package com.myapp.benchmarks;
+
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.generator.DatasetGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The seeded datasets of the benchmarks, the same parameters always give the same records.
+ */
+public class BenchmarkData {
+
+    public static final long SEED = 42;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generate the records of a dataset in a shuffled order
+     * @param recordCount
+     * @param recordsPerPhone
+     * @param contiguousFraction
+     * @return
+     */
+    public static PhoneRecordBatch generate(int recordCount, int recordsPerPhone, double contiguousFraction) {
+        DatasetGenerator generator = new DatasetGenerator();
+        generator.setSeed(SEED);
+        generator.setPhoneCount(Math.max(1, recordCount / recordsPerPhone));
+        generator.setRecordsPerPhone(recordsPerPhone);
+        generator.setContiguousFraction(contiguousFraction);
+        return generator.generate();
+    }
+
+    /**
+     * Write a dataset to a temporary csv file
+     * @param recordCount
+     * @param recordsPerPhone
+     * @param contiguousFraction
+     * @return
+     * @throws IOException
+     */
+    public static Path writeCsv(int recordCount, int recordsPerPhone, double contiguousFraction) throws IOException {
+        Path filePath = Files.createTempFile("benchmark_", ".csv");
+        DatasetGenerator.write(filePath, generate(recordCount, recordsPerPhone, contiguousFraction));
+        return filePath;
+    }
+}
@@ -0,0 +1,50 @@
+package com.myapp.benchmarks;
+
+import com.myapp.FinderOptions;
+import com.myapp.RealActivationDateFinder;
+import com.myapp.engine.EngineMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The end to end run of the finder over a generated file for each engine mode.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FinderBenchmark {
+
+    @Param({"1000000"})
+    private int recordCount;
+
+    @Param({"IN_MEMORY", "EXTERNAL_SORT", "SEPARATION"})
+    private EngineMode engineMode;
+
+    private Path filePath;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.filePath = BenchmarkData.writeCsv(this.recordCount, 4, 0.5);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.filePath);
+    }
+
+    @Benchmark
+    public Path execute() throws IOException {
+        FinderOptions options = new FinderOptions();
+        options.setEngineMode(this.engineMode);
+        Path resultPath = new RealActivationDateFinder(this.filePath.toString(), options).execute();
+        Files.delete(resultPath);
+        return resultPath;
+    }
+}
@@ -0,0 +1,74 @@
+package com.myapp.benchmarks;
+
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.PhoneRecord;
+import com.myapp.task.RangeRead;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parse phase: the line by line conversion of the legacy line ranges, and the reading of the records of a file
+ * by line range and by byte range across file sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    private int recordCount;
+
+    private Path filePath;
+
+    private String[] lines;
+
+    private RangeRead lineRange;
+
+    private RangeRead byteRange;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.filePath = BenchmarkData.writeCsv(this.recordCount, 4, 0.5);
+        List<String> allLines = Files.readAllLines(this.filePath, StandardCharsets.US_ASCII);
+        this.lines = allLines.subList(1, allLines.size()).toArray(new String[0]);
+        this.lineRange = new RangeRead(1, allLines.size());
+        this.byteRange = FileHelper.sampleByteRange(this.filePath, Files.size(this.filePath));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.filePath);
+    }
+
+    @Benchmark
+    public void convertToRecord(Blackhole blackhole) {
+        for(String line : this.lines) {
+            blackhole.consume(FileHelper.convertToRecord(line));
+        }
+    }
+
+    @Benchmark
+    public List<PhoneRecord> readRecordsByLineRange() throws IOException {
+        return FileHelper.readRecords(this.filePath, this.lineRange);
+    }
+
+    @Benchmark
+    public List<PhoneRecord> readRecordsByByteRange() throws IOException {
+        return FileHelper.readRecords(this.filePath, this.byteRange);
+    }
+
+    @Benchmark
+    public Object readBatch() throws IOException {
+        return FileHelper.readBatch(this.filePath, this.byteRange);
+    }
+}
@@ -0,0 +1,71 @@
+package com.myapp.benchmarks;
+
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.csv.ResultSink;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The resolve phase: the real activation day of every phone of a sorted batch, and the write phase:
+ * the results written to a result sink.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolveBenchmark {
+
+    @Param({"1000000"})
+    private int recordCount;
+
+    @Param({"1", "4", "16"})
+    private int recordsPerPhone;
+
+    @Param({"false", "true"})
+    private boolean orderedOutput;
+
+    private PhoneRecordBatch sorted;
+
+    private Path resultPath;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.sorted = BenchmarkData.generate(this.recordCount, this.recordsPerPhone, 0.5);
+        this.sorted.sort();
+        this.resultPath = Files.createTempFile("benchmark_result_", ".csv");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.resultPath);
+    }
+
+    @Benchmark
+    public void resolve(Blackhole blackhole) {
+        int fromIndex = 0;
+        while(fromIndex < this.sorted.size()) {
+            int toIndex = this.sorted.phoneGroupEnd(fromIndex);
+            blackhole.consume(this.sorted.findActivationDay(fromIndex, toIndex));
+            fromIndex = toIndex;
+        }
+    }
+
+    @Benchmark
+    public void resolveAndWrite() throws IOException {
+        try (ResultSink sink = new ResultSink(this.resultPath, this.orderedOutput)) {
+            int fromIndex = 0;
+            while(fromIndex < this.sorted.size()) {
+                int toIndex = this.sorted.phoneGroupEnd(fromIndex);
+                sink.write(this.sorted.getPhoneKey(fromIndex), this.sorted.findActivationDay(fromIndex, toIndex));
+                fromIndex = toIndex;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.myapp.benchmarks;
+
+import com.myapp.csv.FileHelper;
+import com.myapp.csv.PartitionWriter;
+import com.myapp.csv.PhoneRecordBatch;
+import com.myapp.task.PhoneSeparationTask;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The separate phase: a separation task sorts, merges and appends a parsed batch to the bucket files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SeparationBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int recordCount;
+
+    @Param({"1", "4", "16"})
+    private int recordsPerPhone;
+
+    @Param({"0.0", "0.9"})
+    private double contiguousFraction;
+
+    private PhoneRecordBatch records;
+
+    private PhoneRecordBatch batch;
+
+    private Path folderPath;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        this.records = BenchmarkData.generate(this.recordCount, this.recordsPerPhone, this.contiguousFraction);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws IOException {
+        //the task sorts and compacts its batch in place
+        this.batch = new PhoneRecordBatch(this.records.size());
+        this.batch.addAll(this.records);
+        //every invocation appends to empty bucket files
+        this.folderPath = Files.createTempDirectory("benchmark_separation_");
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws IOException {
+        FileHelper.deleteFolder(this.folderPath);
+    }
+
+    @Benchmark
+    public int execute() throws IOException {
+        try (PartitionWriter partitionWriter = new PartitionWriter(this.folderPath, 1024)) {
+            return new PhoneSeparationTask(this.batch, partitionWriter, 1024).execute();
+        }
+    }
+}